@@ -0,0 +1,219 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.Utility;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptBatchCounts;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.ConceptPathRow;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetModel;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Upserts batches of concepts, concept metadata and facets. Each operation binds its columns as arrays to one fixed
+ * statement, so Postgres plans it once per connection instead of parsing a new statement with the values written
+ * into it for every batch. Values are never escaped by hand.
+ * <p>
+ * Rows that repeat a key within a batch are collapsed to the last one, as Postgres rejects an upsert that touches
+ * the same row twice.
+ */
+@Service
+public class BulkUpsertUtility {
+
+    private final ConceptRepository conceptRepository;
+    private final ConceptMetadataRepository conceptMetadataRepository;
+    private final FacetRepository facetRepository;
+
+    public BulkUpsertUtility(
+            ConceptRepository conceptRepository,
+            ConceptMetadataRepository conceptMetadataRepository,
+            FacetRepository facetRepository
+    ) {
+        this.conceptRepository = conceptRepository;
+        this.conceptMetadataRepository = conceptMetadataRepository;
+        this.facetRepository = facetRepository;
+    }
+
+    /**
+     * @return the number of concepts inserted or updated
+     */
+    public int upsertConcepts(Collection<ConceptModel> concepts) {
+        Map<String, ConceptModel> byPath = new LinkedHashMap<>();
+        concepts.forEach(concept -> byPath.put(concept.getConceptPath(), concept));
+        if (byPath.isEmpty()) {
+            return 0;
+        }
+
+        int size = byPath.size();
+        String[] paths = new String[size];
+        String[] types = new String[size];
+        Long[] datasetIds = new Long[size];
+        String[] displays = new String[size];
+        String[] names = new String[size];
+        int i = 0;
+        for (ConceptModel concept : byPath.values()) {
+            paths[i] = concept.getConceptPath();
+            types[i] = concept.getConceptType();
+            datasetIds[i] = concept.getDatasetId();
+            displays[i] = concept.getDisplay();
+            names[i] = concept.getName();
+            i++;
+        }
+        return this.conceptRepository.upsertConcepts(paths, types, datasetIds, displays, names);
+    }
+
+    /**
+     * Upserts the concepts, links them to their parents and upserts their metadata in one round trip. Parents may be
+     * in the same batch, in any order.
+     *
+     * @param parentPaths the parent path of each concept path that has one
+     * @param metadata the metadata key/value pairs of each concept path
+     */
+    public ConceptBatchCounts upsertConceptBatch(
+            Collection<ConceptModel> concepts, Map<String, String> parentPaths, Map<String, Map<String, String>> metadata
+    ) {
+        Map<String, ConceptModel> byPath = new LinkedHashMap<>();
+        concepts.forEach(concept -> byPath.put(concept.getConceptPath(), concept));
+
+        int size = byPath.size();
+        String[] paths = new String[size];
+        String[] types = new String[size];
+        Long[] datasetIds = new Long[size];
+        String[] displays = new String[size];
+        String[] names = new String[size];
+        String[] parents = new String[size];
+        int i = 0;
+        for (ConceptModel concept : byPath.values()) {
+            paths[i] = concept.getConceptPath();
+            types[i] = concept.getConceptType();
+            datasetIds[i] = concept.getDatasetId();
+            displays[i] = concept.getDisplay();
+            names[i] = concept.getName();
+            parents[i] = parentPaths.get(concept.getConceptPath());
+            i++;
+        }
+
+        int metaSize = metadata.values().stream().mapToInt(Map::size).sum();
+        String[] metaPaths = new String[metaSize];
+        String[] metaKeys = new String[metaSize];
+        String[] metaValues = new String[metaSize];
+        int m = 0;
+        for (Map.Entry<String, Map<String, String>> entry : metadata.entrySet()) {
+            for (Map.Entry<String, String> meta : entry.getValue().entrySet()) {
+                metaPaths[m] = entry.getKey();
+                metaKeys[m] = meta.getKey();
+                metaValues[m] = meta.getValue();
+                m++;
+            }
+        }
+        return this.conceptRepository.upsertConceptBatch(
+                paths, types, datasetIds, displays, names, parents, metaPaths, metaKeys, metaValues);
+    }
+
+    /**
+     * @return the id of each path that has a concept. Paths without one are left out.
+     */
+    public Map<String, Long> findConceptIds(Collection<String> conceptPaths) {
+        if (conceptPaths.isEmpty()) {
+            return Map.of();
+        }
+
+        List<ConceptPathRow> rows = this.conceptRepository.findIdsByConceptPaths(conceptPaths.toArray(String[]::new));
+        Map<String, Long> ids = new HashMap<>(rows.size() * 2);
+        rows.forEach(row -> ids.put(row.getConceptPath(), row.getConceptNodeId()));
+        return ids;
+    }
+
+    /**
+     * @param parentPaths the parent path of each concept path. A parent that does not exist clears the parent id.
+     * @return the number of concepts updated
+     */
+    public int updateConceptParents(Map<String, String> parentPaths) {
+        if (parentPaths.isEmpty()) {
+            return 0;
+        }
+
+        String[] paths = new String[parentPaths.size()];
+        String[] parents = new String[parentPaths.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : parentPaths.entrySet()) {
+            paths[i] = entry.getKey();
+            parents[i] = entry.getValue();
+            i++;
+        }
+        return this.conceptRepository.updateParentIds(paths, parents);
+    }
+
+    /**
+     * @return the number of metadata entries inserted or updated
+     */
+    public int upsertConceptMetadata(Collection<ConceptMetadataModel> metadata) {
+        Map<String, ConceptMetadataModel> byKey = new LinkedHashMap<>();
+        metadata.forEach(meta -> byKey.put(meta.getConceptNodeId() + "\u0000" + meta.getKey(), meta));
+        if (byKey.isEmpty()) {
+            return 0;
+        }
+
+        int size = byKey.size();
+        Long[] conceptNodeIds = new Long[size];
+        String[] keys = new String[size];
+        String[] values = new String[size];
+        int i = 0;
+        for (ConceptMetadataModel meta : byKey.values()) {
+            conceptNodeIds[i] = meta.getConceptNodeId();
+            keys[i] = meta.getKey();
+            values[i] = meta.getValue();
+            i++;
+        }
+        return this.conceptMetadataRepository.upsertAll(conceptNodeIds, keys, values);
+    }
+
+    /**
+     * @return the number of facets inserted or updated
+     */
+    public int upsertFacets(Collection<FacetModel> facets) {
+        Map<String, FacetModel> byKey = new LinkedHashMap<>();
+        facets.forEach(facet -> byKey.put(facet.getFacetCategoryId() + "\u0000" + facet.getName(), facet));
+        if (byKey.isEmpty()) {
+            return 0;
+        }
+
+        int size = byKey.size();
+        Long[] categoryIds = new Long[size];
+        String[] names = new String[size];
+        String[] displays = new String[size];
+        String[] descriptions = new String[size];
+        int i = 0;
+        for (FacetModel facet : byKey.values()) {
+            categoryIds[i] = facet.getFacetCategoryId();
+            names[i] = facet.getName();
+            displays[i] = facet.getDisplay();
+            descriptions[i] = facet.getDescription();
+            i++;
+        }
+        return this.facetRepository.upsertFacets(categoryIds, names, displays, descriptions);
+    }
+
+    /**
+     * @param parentNames the parent facet name of each facet name
+     * @return the number of facets updated
+     */
+    public int updateFacetParents(Map<String, String> parentNames) {
+        if (parentNames.isEmpty()) {
+            return 0;
+        }
+
+        String[] names = new String[parentNames.size()];
+        String[] parents = new String[parentNames.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : parentNames.entrySet()) {
+            names[i] = entry.getKey();
+            parents[i] = entry.getValue();
+            i++;
+        }
+        return this.facetRepository.updateParentIdsByName(names, parents);
+    }
+}
@@ -9,12 +9,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Utility class for CSV file operations
@@ -48,6 +46,20 @@ public class CSVUtility {
         return metaColumnNames;
     }
 
+    /**
+     * Wraps the stream in a {@link GZIPInputStream} if it starts with the gzip magic number, so compressed and plain
+     * uploads can be read the same way.
+     */
+    public static InputStream decompressIfGzipped(InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input, 64 * 1024);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        boolean gzipped = first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >> 8);
+        return gzipped ? new GZIPInputStream(buffered, 64 * 1024) : buffered;
+    }
+
     /**
      * Creates a new CSV file with the specified headers
      *
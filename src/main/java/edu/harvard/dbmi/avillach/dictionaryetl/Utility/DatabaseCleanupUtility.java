@@ -1,5 +1,6 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.Utility;
 
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptPathIdCache;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import org.springframework.stereotype.Service;
@@ -11,6 +12,12 @@ public class DatabaseCleanupUtility {
     @PersistenceContext
     private EntityManager entityManager;
 
+    private final ConceptPathIdCache conceptPathIdCache;
+
+    public DatabaseCleanupUtility(ConceptPathIdCache conceptPathIdCache) {
+        this.conceptPathIdCache = conceptPathIdCache;
+    }
+
     @Transactional
     public void truncateTables() {
         entityManager.createNativeQuery("TRUNCATE TABLE " +
@@ -18,6 +25,7 @@ public class DatabaseCleanupUtility {
                                         " dict.concept_node," +
                                         " dict.dataset " +
                                         "CASCADE").executeUpdate();
+        conceptPathIdCache.invalidateAll();
     }
 
 
@@ -38,5 +46,6 @@ public class DatabaseCleanupUtility {
                 END $$;""";
 
         entityManager.createNativeQuery(sql).executeUpdate();
+        conceptPathIdCache.invalidateAll();
     }
 }
@@ -0,0 +1,94 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Chooses how many rows go into each upsert statement of one ingest request. A fixed sizer always uses its initial
+ * size. An adaptive sizer halves the size when a statement takes longer than the target latency or carries more than
+ * the byte limit, and doubles it when a full batch took less than half the target, staying between the min and max.
+ * <p>
+ * Either way a batch is cut early once its values reach the byte limit, as metadata values are unbounded text.
+ * Not thread safe; create one per request with {@link ConceptBatchSizerFactory}.
+ */
+public class AdaptiveBatchSizer {
+
+    private final boolean adaptive;
+    private final int minSize;
+    private final int maxSize;
+    private final long targetNanos;
+    private final long maxBytes;
+    private final DistributionSummary batchSizes;
+    private final Timer batchTimer;
+
+    private int size;
+    private int smallest = Integer.MAX_VALUE;
+    private int largest;
+    private int batches;
+
+    AdaptiveBatchSizer(
+            int initialSize, boolean adaptive, int minSize, int maxSize, long targetNanos, long maxBytes,
+            DistributionSummary batchSizes, Timer batchTimer
+    ) {
+        this.adaptive = adaptive;
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.size = adaptive ? Math.clamp(initialSize, this.minSize, this.maxSize) : Math.max(1, initialSize);
+        this.targetNanos = targetNanos;
+        this.maxBytes = maxBytes;
+        this.batchSizes = batchSizes;
+        this.batchTimer = batchTimer;
+    }
+
+    /**
+     * @return the rows to collect before the next statement
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true once a batch has enough rows or bytes to be written
+     */
+    public boolean isFull(int rows, long bytes) {
+        return rows >= size || bytes >= maxBytes;
+    }
+
+    /**
+     * Runs the statements for one batch, records its size and latency, and adjusts the size for the next batch.
+     */
+    public <T> T write(int rows, long bytes, Supplier<T> batch) {
+        long start = System.nanoTime();
+        T result = batch.get();
+        long nanos = System.nanoTime() - start;
+
+        batchTimer.record(nanos, TimeUnit.NANOSECONDS);
+        batchSizes.record(rows);
+        smallest = Math.min(smallest, rows);
+        largest = Math.max(largest, rows);
+        batches++;
+
+        if (adaptive) {
+            if (nanos > targetNanos || bytes >= maxBytes) {
+                size = Math.max(minSize, size / 2);
+            } else if (rows >= size && nanos < targetNanos / 2) {
+                size = Math.min(maxSize, size * 2);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the batch sizes used, for the response of the request
+     */
+    public String describe() {
+        if (batches == 0) {
+            return "No batches written.";
+        }
+        String mode = adaptive ? "adaptive" : "fixed";
+        return batches + " batches of " + smallest + " to " + largest + " rows (" + mode + ", next " + size + ").";
+    }
+}
@@ -0,0 +1,6 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+public interface ConceptBatchCounts {
+    Long getConcepts();
+    Long getMetadata();
+}
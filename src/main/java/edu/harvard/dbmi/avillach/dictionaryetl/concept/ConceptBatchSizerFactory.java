@@ -0,0 +1,71 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link AdaptiveBatchSizer} of a concept ingest request from the {@code dictionary.concept.batch}
+ * properties, letting the request override the size and mode. The sizes and statement latencies are published as
+ * {@code dictionary.concept.batch.size} and {@code dictionary.concept.batch}, tagged with the source of the request.
+ */
+@Component
+public class ConceptBatchSizerFactory {
+
+    public static final String CSV = "csv";
+    public static final String CURATED = "curated";
+    public static final String VALUES = "values";
+
+    private final MeterRegistry meterRegistry;
+    private final int defaultSize;
+    private final boolean defaultAdaptive;
+    private final int minSize;
+    private final int maxSize;
+    private final long targetNanos;
+    private final long maxBytes;
+
+    public ConceptBatchSizerFactory(
+            MeterRegistry meterRegistry,
+            @Value("${dictionary.concept.batch.size:1000}") int defaultSize,
+            @Value("${dictionary.concept.batch.adaptive:false}") boolean defaultAdaptive,
+            @Value("${dictionary.concept.batch.min-size:100}") int minSize,
+            @Value("${dictionary.concept.batch.max-size:20000}") int maxSize,
+            @Value("${dictionary.concept.batch.target-millis:500}") long targetMillis,
+            @Value("${dictionary.concept.batch.max-bytes:33554432}") long maxBytes
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.defaultSize = defaultSize;
+        this.defaultAdaptive = defaultAdaptive;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param batchSize the size requested, or null for the configured size. With adaptive sizing it is the size of
+     *                  the first batch.
+     * @param adaptive  whether the request asked for adaptive sizing, or null for the configured mode
+     * @param source    the endpoint the request came in through, used as the {@code source} tag
+     */
+    public AdaptiveBatchSizer create(Integer batchSize, Boolean adaptive, String source) {
+        DistributionSummary sizes = DistributionSummary.builder("dictionary.concept.batch.size")
+                .description("Rows per upsert statement of concept ingest")
+                .baseUnit("rows")
+                .tag("source", source)
+                .register(meterRegistry);
+        Timer latency = Timer.builder("dictionary.concept.batch")
+                .description("Time to write one batch of concept ingest")
+                .tag("source", source)
+                .register(meterRegistry);
+        return new AdaptiveBatchSizer(
+                (batchSize != null) ? batchSize : defaultSize,
+                (adaptive != null) ? adaptive : defaultAdaptive,
+                minSize, maxSize, targetNanos, maxBytes, sizes, latency
+        );
+    }
+}
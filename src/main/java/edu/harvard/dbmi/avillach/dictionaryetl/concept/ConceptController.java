@@ -1,27 +1,34 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.concept;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opencsv.*;
 import com.opencsv.exceptions.CsvException;
+import com.opencsv.exceptions.CsvValidationException;
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.BulkUpsertUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.Utility.CSVUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetRepository;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetConceptRepository;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
-import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.IOException;
-import java.io.StringReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 @CrossOrigin(origins = "http://localhost:8081")
@@ -29,7 +36,9 @@ import java.util.*;
 @RequestMapping("/api")
 public class ConceptController {
     private static final Logger log = LoggerFactory.getLogger(ConceptController.class);
-    private final int BATCH_SIZE = 100;
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
     @Autowired
     ConceptRepository conceptRepository;
     @Autowired
@@ -40,41 +49,82 @@ public class ConceptController {
     FacetConceptRepository facetConceptRepository;
     @Autowired
     ConceptService conceptService;
+    @Autowired
+    BulkUpsertUtility bulkUpsertUtility;
+    @Autowired
+    ConceptBatchSizerFactory conceptBatchSizerFactory;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    ConceptPathIdCache conceptPathIdCache;
     String[] coreConceptHeaders = {"dataset_ref", "name", "display", "concept_type", "concept_path", "parent_concept_path"};
     @PersistenceContext
     private EntityManager entityManager;
 
+    // Pass after and/or limit for a keyset page in id order; the X-Next-Cursor header holds the after of the next page.
+    // Without them every concept is returned at once, which only suits small dictionaries; see /concept/stream.
     @GetMapping("/concept")
-    public ResponseEntity<Object> getAllConceptModels(@RequestParam(required = false) String datasetRef) {
+    public ResponseEntity<Object> getAllConceptModels(
+        @RequestParam(required = false) String datasetRef, @RequestParam(required = false) Long after,
+        @RequestParam(required = false) Integer limit
+    ) {
         try {
             List<ConceptModel> conceptModels = new ArrayList<>();
+            boolean paged = after != null || limit != null;
+            Limit pageLimit = Limit.of((limit != null) ? limit : DEFAULT_PAGE_SIZE);
+            long cursor = (after != null) ? after : 0;
 
             if (datasetRef == null) {
                 // get all concepts in dictionary
-                conceptModels.addAll(conceptRepository.findAll());
+                conceptModels.addAll(paged
+                    ? conceptRepository.findByConceptNodeIdGreaterThanOrderByConceptNodeId(cursor, pageLimit)
+                    : conceptRepository.findAll());
             } else {
                 // get all concepts in specific dataset
                 Long datasetId = datasetRepository.findByRef(datasetRef).get().getDatasetId();
-                conceptModels.addAll(conceptRepository.findByDatasetId(datasetId));
+                conceptModels.addAll(paged
+                    ? conceptRepository.findByDatasetIdAndConceptNodeIdGreaterThanOrderByConceptNodeId(datasetId, cursor, pageLimit)
+                    : conceptRepository.findByDatasetId(datasetId));
 
             }
             if (conceptModels.isEmpty()) {
                 return new ResponseEntity<>("No concepts found for " + datasetRef, HttpStatus.NO_CONTENT);
             }
+            if (paged && conceptModels.size() == pageLimit.max()) {
+                return ResponseEntity.ok()
+                    .header(NEXT_CURSOR_HEADER, conceptModels.getLast().getConceptNodeId().toString())
+                    .body(conceptModels);
+            }
             return new ResponseEntity<>(conceptModels, HttpStatus.OK);
         } catch (Exception e) {
             return new ResponseEntity<>(e.getLocalizedMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    // Every concept, or those of one dataset, as newline delimited json written while the rows are read
+    @GetMapping(value = "/concept/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamConceptModels(@RequestParam(required = false) String datasetRef) {
+        Long datasetId = null;
+        if (datasetRef != null) {
+            Optional<DatasetModel> datasetData = datasetRepository.findByRef(datasetRef);
+            if (datasetData.isEmpty()) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            datasetId = datasetData.get().getDatasetId();
+        }
+        Long streamedDatasetId = datasetId;
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(NDJSON))
+            .body(out -> conceptService.writeConceptsAsNdjson(streamedDatasetId, out));
+    }
+
     @PutMapping("/concept")
     public ResponseEntity<Object> updateConcept(
         @RequestParam String conceptPath, @RequestParam String datasetRef, @RequestParam String conceptType, @RequestParam String display,
         @RequestParam String name, @RequestParam String parentPath
     ) {
 
-        Optional<ConceptModel> conceptData = conceptRepository.findByConceptPath(conceptPath);
-        Optional<ConceptModel> parentData = conceptRepository.findByConceptPath(parentPath);
+        Optional<ConceptModel> conceptData = conceptPathIdCache.findId(conceptPath).flatMap(conceptRepository::findById);
         Optional<DatasetModel> datasetData = datasetRepository.findByRef(datasetRef);
         Long datasetId;
         if (datasetData.isPresent()) {
@@ -86,8 +136,7 @@ public class ConceptController {
             );
         }
 
-        Long parentId;
-        parentId = parentData.map(ConceptModel::getConceptNodeId).orElse(null);
+        Long parentId = conceptPathIdCache.findId(parentPath).orElse(null);
         if (conceptData.isPresent()) {
             // update already existing concept
             ConceptModel existingConcept = conceptData.get();
@@ -116,47 +165,56 @@ public class ConceptController {
 
     }
 
+    @Transactional
     @DeleteMapping("/concept")
     public ResponseEntity<Object> deleteConcept(@RequestParam String conceptPath) {
 
-        Optional<ConceptModel> conceptData = conceptRepository.findByConceptPath(conceptPath);
+        Optional<Long> conceptData = conceptPathIdCache.findId(conceptPath);
 
         if (conceptData.isPresent()) {
 
-            Long conceptId = conceptData.get().getConceptNodeId();
-            // find all child concept nodes and null the parent ids to prevent dependency
-            // errors
+            Long conceptId = conceptData.get();
+            // null the parent ids of the children so the delete does not cascade to them
             // potentially would want to instead set the parent id to dataset or the
             // parent's parent id - must do eval on use case of single var deletion
-            conceptRepository.findByParentId(conceptId).forEach(child -> {
-                child.setParentId(null);
-                conceptRepository.save(child);
-            });
-
-            facetConceptRepository.deleteAll(facetConceptRepository.findByConceptNodeId(conceptId).get());
-            conceptMetadataRepository.deleteAll(conceptMetadataRepository.findByConceptNodeId(conceptId));
-            conceptRepository.delete(conceptData.get());
+            conceptRepository.detachChildren(conceptId);
+            // metadata and facet mappings are removed by the cascading foreign keys
+            conceptRepository.deleteAllByConceptNodeIds(new Long[]{conceptId});
+            conceptPathIdCache.invalidate(conceptPath);
             return new ResponseEntity<>(HttpStatus.OK);
         } else {
             return new ResponseEntity<>(conceptPath + "not found", HttpStatus.NOT_FOUND);
         }
     }
 
+    // removes a concept and all of its descendants, or with prefix, every concept whose path starts with conceptPath
+    // and their descendants. dryRun only reports what would be removed.
+    @DeleteMapping("/concept/subtree")
+    public ResponseEntity<Object> deleteConceptSubtree(
+        @RequestParam String conceptPath, @RequestParam(defaultValue = "false") boolean prefix,
+        @RequestParam(defaultValue = "false") boolean dryRun
+    ) {
+        ConceptSubtreeCounts counts = conceptService.deleteSubtree(conceptPath, prefix, dryRun);
+        if (counts.getConcepts() == 0) {
+            return new ResponseEntity<>(conceptPath + " not found", HttpStatus.NOT_FOUND);
+        }
+        String summary = counts.getConcepts() + " concepts, " + counts.getMetadata() + " concept meta entries and "
+                         + counts.getFacetMappings() + " facet mappings";
+        return new ResponseEntity<>((dryRun ? "Would remove " : "Removed ") + summary, HttpStatus.OK);
+    }
+
     // fetches all concepts still in the dictionary which arent currently in the
     // loader files
     @GetMapping("/concept/obsolete")
     public ResponseEntity<Object> getObsoleteConcepts(@RequestParam String datasetRef, @RequestBody String conceptNodeIds) {
-        String[] inputArray = conceptNodeIds.split("\n");
-        List<ConceptModel> validConcepts = new ArrayList<>();
-        for (String s : inputArray) {
-            try {
-                validConcepts.add(conceptRepository.getReferenceById(Long.parseLong(s)));
-            } catch (NumberFormatException e) {
-                return new ResponseEntity<>(
-                    "Unable to parse conceptNodeIds as numeric. Please check your input and try again",
-                    HttpStatus.BAD_REQUEST
-                );
-            }
+        Long[] validIds;
+        try {
+            validIds = parseConceptNodeIds(conceptNodeIds);
+        } catch (NumberFormatException e) {
+            return new ResponseEntity<>(
+                "Unable to parse conceptNodeIds as numeric. Please check your input and try again",
+                HttpStatus.BAD_REQUEST
+            );
         }
         Optional<DatasetModel> datasetData = datasetRepository.findByRef(datasetRef);
         Long datasetId;
@@ -165,25 +223,22 @@ public class ConceptController {
         } else {
             return new ResponseEntity<>("Dataset not found: " + datasetRef + ".", HttpStatus.NOT_FOUND);
         }
-        List<ConceptModel> obsoleteConcepts = new ArrayList<>(conceptRepository.findByDatasetId(datasetId));
-        obsoleteConcepts.removeAll(validConcepts);
-        return new ResponseEntity<>(obsoleteConcepts, HttpStatus.OK);
+        return new ResponseEntity<>(conceptRepository.findObsoleteConcepts(datasetId, validIds), HttpStatus.OK);
     }
 
     // removes all obsolete concepts from dictionary
+    // Children of an obsolete concept that are kept lose their parent, as in deleteConcept
+    @Transactional
     @DeleteMapping("/concept/obsolete")
     public ResponseEntity<Object> deleteObsoleteConcepts(@RequestParam String datasetRef, @RequestBody String conceptNodeIds) {
-        String[] inputArray = conceptNodeIds.split("\n");
-        List<ConceptModel> validConcepts = new ArrayList<>();
-        for (String s : inputArray) {
-            try {
-                validConcepts.add(conceptRepository.getReferenceById(Long.parseLong(s)));
-            } catch (NumberFormatException e) {
-                return new ResponseEntity<>(
-                    "Unable to parse conceptNodeIds as numeric. Please check your input and try again",
-                    HttpStatus.BAD_REQUEST
-                );
-            }
+        Long[] validIds;
+        try {
+            validIds = parseConceptNodeIds(conceptNodeIds);
+        } catch (NumberFormatException e) {
+            return new ResponseEntity<>(
+                "Unable to parse conceptNodeIds as numeric. Please check your input and try again",
+                HttpStatus.BAD_REQUEST
+            );
         }
         Optional<DatasetModel> datasetData = datasetRepository.findByRef(datasetRef);
         Long datasetId;
@@ -192,30 +247,50 @@ public class ConceptController {
         } else {
             return new ResponseEntity<>("Dataset not found: " + datasetRef + ".", HttpStatus.NOT_FOUND);
         }
-        List<ConceptModel> obsoleteConcepts = new ArrayList<>(conceptRepository.findByDatasetId(datasetId));
-        obsoleteConcepts.removeAll(validConcepts);
-        obsoleteConcepts.forEach(concept -> {
-            // uses the local delete method in order to propery cascade
-            deleteConcept(concept.getConceptPath());
-        });
-        return new ResponseEntity<>("removed " + obsoleteConcepts.size() + " obsolete concepts", HttpStatus.OK);
+        int removed = conceptService.deleteObsoleteConcepts(datasetId, validIds);
+        return new ResponseEntity<>("removed " + removed + " obsolete concepts", HttpStatus.OK);
+    }
+
+    // One id per line. Blank lines are skipped.
+    private static Long[] parseConceptNodeIds(String conceptNodeIds) {
+        return conceptNodeIds.lines()
+            .map(String::strip)
+            .filter(id -> !id.isEmpty())
+            .map(Long::valueOf)
+            .toArray(Long[]::new);
     }
 
     // Bulk insert/update from "ideal ingest" csv.
     // Expected CSV Header:
     // dataset_ref concept name display name concept_type concept_path
     // parent_concept_path values {addt metakeys}
+    // The csv is streamed from the request body, or from filePath on the server if given, and may be gzipped.
+    // Rows are upserted batch by batch as they are parsed, so the file is never held in memory.
+    // batchSize and adaptiveBatchSize override dictionary.concept.batch.size and dictionary.concept.batch.adaptive.
     @Transactional
     @PutMapping("/concept/csv")
-    public ResponseEntity<Object> updateConceptsFromCSV(@RequestBody String input) {
-        List<String[]> concepts;
-        Map<String, Integer> headerMap;
-        List<String> metaColumnNames;
+    public ResponseEntity<Object> updateConceptsFromCSV(
+        @RequestParam(required = false) String filePath, @RequestParam(required = false) Integer batchSize,
+        @RequestParam(required = false) Boolean adaptiveBatchSize, InputStream body
+    ) {
+        AdaptiveBatchSizer batchSizer = conceptBatchSizerFactory.create(batchSize, adaptiveBatchSize, ConceptBatchSizerFactory.CSV);
+        try (InputStream input = (filePath != null) ? Files.newInputStream(Path.of(filePath)) : body) {
+            return updateConceptsFromCSV(input, batchSizer);
+        } catch (IOException e) {
+            return csvReadError(e);
+        }
+    }
+
+    private ResponseEntity<Object> updateConceptsFromCSV(InputStream input, AdaptiveBatchSizer batchSizer) throws IOException {
         RFC4180Parser csvParser = new RFC4180Parser();
-        try (CSVReader reader = new CSVReaderBuilder(new StringReader(input)).withCSVParser(csvParser).build()) {
+        Reader csv = new InputStreamReader(CSVUtility.decompressIfGzipped(input), StandardCharsets.UTF_8);
+        try (CSVReader reader = new CSVReaderBuilder(csv).withCSVParser(csvParser).build()) {
             String[] header = reader.readNext();
-            headerMap = CSVUtility.buildCsvInputsHeaderMap(header);
-            metaColumnNames = CSVUtility.getExtraColumns(coreConceptHeaders, headerMap);
+            if (header == null) {
+                return new ResponseEntity<>("No csv records found in input file:", HttpStatus.BAD_REQUEST);
+            }
+            Map<String, Integer> headerMap = CSVUtility.buildCsvInputsHeaderMap(header);
+            List<String> metaColumnNames = CSVUtility.getExtraColumns(coreConceptHeaders, headerMap);
             if (metaColumnNames == null) {
                 return new ResponseEntity<>(
                     "ERROR: Input headers are not as expected \n"
@@ -223,30 +298,39 @@ public class ConceptController {
                     HttpStatus.BAD_REQUEST
                 );
             }
+            if (reader.peek() == null) {
+                return new ResponseEntity<>("No csv records found in input file:", HttpStatus.BAD_REQUEST);
+            }
 
-            concepts = reader.readAll();
-            concepts.remove(header);
-        } catch (IOException | CsvException e) {
-            log.error(e.toString());
-            log.error(Arrays.toString(e.getStackTrace()));
+            String updateConceptsResponse = conceptService.updateConceptsFromCSV(reader, headerMap, metaColumnNames, batchSizer);
+            if (updateConceptsResponse.startsWith("Success")) {
+                return new ResponseEntity<>(updateConceptsResponse, HttpStatus.OK);
+            }
             return new ResponseEntity<>(
-                "Error reading ingestion csv. See logs for details.",
-                HttpStatus.BAD_REQUEST
+                "An error occurred while trying to update concepts from CSV. Check logs for further information",
+                HttpStatus.INTERNAL_SERVER_ERROR
             );
+        } catch (NoSuchElementException e) {
+            // The rows are read through CSVIterator, which wraps the errors readNext throws
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof CsvValidationException cause) {
+                return csvReadError(cause);
+            }
+            throw e;
+        } catch (CsvValidationException e) {
+            return csvReadError(e);
         }
-        if (concepts.isEmpty()) {
-            return new ResponseEntity<>("No csv records found in input file:", HttpStatus.BAD_REQUEST);
-        }
-        String updateConceptsResponse = conceptService.updateConceptsFromCSV(concepts, headerMap, metaColumnNames, BATCH_SIZE);
-        if (updateConceptsResponse.startsWith("Success")) {
-            return new ResponseEntity<>(updateConceptsResponse, HttpStatus.OK);
-        }
+    }
+
+    private ResponseEntity<Object> csvReadError(Exception e) {
+        // Batches already written are rolled back with the rest of the request
+        log.error("Error reading ingestion csv", e);
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
         return new ResponseEntity<>(
-            "An error occurred while trying to update concepts from CSV. Check logs for further information",
-            HttpStatus.INTERNAL_SERVER_ERROR
+            "Error reading ingestion csv. See logs for details.",
+            HttpStatus.BAD_REQUEST
         );
-
-
     }
 
     // Used for curated json from noncompliant studies
@@ -262,12 +346,14 @@ public class ConceptController {
      * JSONArray ~other metadata fields as needed~}
      * }
      *
-     *
+     * The array is parsed one element at a time and may be gzipped, so its size is not bounded by the heap.
      */
     @Transactional
     @PutMapping("/concept/curated")
-    public ResponseEntity<Object> updateConceptsFromJSON(@RequestParam String datasetRef, @RequestBody String input) {
-        ConceptService service = new ConceptService(conceptRepository, datasetRepository);
+    public ResponseEntity<Object> updateConceptsFromJSON(
+        @RequestParam String datasetRef, @RequestParam(required = false) Integer batchSize,
+        @RequestParam(required = false) Boolean adaptiveBatchSize, InputStream body
+    ) {
         Optional<DatasetModel> datasetData = datasetRepository.findByRef(datasetRef);
         Long datasetId;
         if (datasetData.isPresent()) {
@@ -275,105 +361,53 @@ public class ConceptController {
         } else {
             return new ResponseEntity<>("Dataset not found: " + datasetRef + ".", HttpStatus.NOT_FOUND);
         }
-        JSONArray dictionaryJSON = new JSONArray(input);
-        int varcount = dictionaryJSON.length();
-        log.info("varcount: " + varcount);
-        int conceptUpdateCount = 0;
-        int metaUpdateCount = 0;
-        final Map<String, JSONObject> conceptMetaMap = new HashMap<>();
-        List<ConceptModel> conceptModels = new ArrayList<>();
-
-        for (int i = 0; i < varcount; i++) {
-            JSONObject var = dictionaryJSON.getJSONObject(i);
-            String name = var.getString("name").replaceAll("'", "''").replaceAll("\n", " ");
+        AdaptiveBatchSizer batchSizer = conceptBatchSizerFactory.create(batchSize, adaptiveBatchSize, ConceptBatchSizerFactory.CURATED);
 
-            String conceptType = "Categorical";
-
-            String conceptPath = var.getString("concept_path").replaceAll("'", "''").replaceAll("\n", " ");
-
-            String display = name;
-
-            try {
-                display = var.getString("display").replaceAll("'", "''").replaceAll("\n", " ");
-            } catch (JSONException e) {
-                log.info("Using name as display");
-            }
-            ConceptModel newConceptModel;
-            newConceptModel = new ConceptModel(conceptPath);
-            newConceptModel.setConceptType(conceptType);
-            newConceptModel.setDatasetId(datasetId);
-            newConceptModel.setDisplay(display);
-            newConceptModel.setName(name);
-            conceptModels.add(newConceptModel);
-            conceptMetaMap.put(conceptPath, var.getJSONObject("metadata"));
-            if ((i % BATCH_SIZE == 0 && i != 0) || i == varcount - 1) {
-                // bulk update concept_node
-
-                Query conceptQuery = entityManager.createNativeQuery(service.getUpsertConceptBatchQuery(conceptModels));
-
-                conceptUpdateCount += conceptQuery.executeUpdate();
-
-                conceptMetaMap.forEach((key, value) -> {
-                    log.info("Path key" + key);
-                    log.info("meta value" + value);
-                });
-                // fetch updated concept node ids corresponding to concept paths
-                Map<Long, JSONObject> idMetaMap = new HashMap<>();
-                List<Object[]> refList =
-                    entityManager.createNativeQuery(service.getIdsFromPathsQuery(conceptMetaMap.keySet())).getResultList();
-                refList.forEach(entry -> {
-                    Long id = Long.parseLong(entry[1].toString());
-                    JSONObject metaJson = conceptMetaMap.get(entry[0].toString().replaceAll("'", "''"));
-                    idMetaMap.put(id, metaJson);
-                });
-
-                // bulk update concept_node_meta
-                List<ConceptMetadataModel> metaList = new ArrayList<>();
-                idMetaMap.forEach((id, metaJson) -> {
-                    log.info("Id:{}", id);
-                    metaJson.keySet().forEach(metaKey -> {
-                        ConceptMetadataModel conceptMeta = new ConceptMetadataModel();
-                        conceptMeta.setConceptNodeId(id);
-                        conceptMeta.setKey(metaKey);
-                        conceptMeta.setValue(metaJson.get(metaKey).toString());
-                        metaList.add(conceptMeta);
-                    });
-                });
-                Query metaQuery = entityManager.createNativeQuery(service.getUpsertConceptMetaBatchQuery(metaList));
-                metaUpdateCount += metaQuery.executeUpdate();
-
-                // clear all dataobjects for next batch
-                conceptModels = new ArrayList<>();
-                conceptMetaMap.clear();
-                entityManager.flush();
+        try (JsonParser parser = objectMapper.createParser(CSVUtility.decompressIfGzipped(body))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return new ResponseEntity<>("Expected a json array of concepts.", HttpStatus.BAD_REQUEST);
             }
+            return new ResponseEntity<>(conceptService.updateConceptsFromJSON(parser, datasetId, batchSizer), HttpStatus.OK);
+        } catch (IOException e) {
+            // Batches already written are rolled back with the rest of the request
+            log.error("Error reading curated json", e);
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return new ResponseEntity<>("Error reading curated json: " + e.getMessage(), HttpStatus.BAD_REQUEST);
         }
-        return new ResponseEntity<>(
-            "Successfully updated " + conceptUpdateCount + " concepts and " + metaUpdateCount + " concept meta entries from JSON. \n",
-            HttpStatus.OK
-        );
     }
 
+    // Pages as GET /concept does, by metadata id, when no conceptPath is given
     @GetMapping("/concept/metadata")
     public ResponseEntity<Object> getAllConceptMetadataModels(
-        @RequestParam Optional<String> conceptPath
+        @RequestParam Optional<String> conceptPath, @RequestParam(required = false) Long after,
+        @RequestParam(required = false) Integer limit
     ) {
         try {
             List<ConceptMetadataModel> conceptMetadataModels = new ArrayList<>();
+            boolean paged = conceptPath.isEmpty() && (after != null || limit != null);
+            Limit pageLimit = Limit.of((limit != null) ? limit : DEFAULT_PAGE_SIZE);
 
-            if (conceptPath.isEmpty()) {
+            if (paged) {
+                conceptMetadataModels.addAll(conceptMetadataRepository.findByConceptNodeMetaIdGreaterThanOrderByConceptNodeMetaId(
+                    (after != null) ? after : 0, pageLimit));
+            } else if (conceptPath.isEmpty()) {
                 // get all conceptMetadatas in dictionary
                 log.info("Hitting conceptMetadata null");
                 conceptMetadataModels.addAll(conceptMetadataRepository.findAll());
             } else {
                 log.info("Hitting conceptMetadata");
-                Long conceptId = conceptRepository.findByConceptPath(conceptPath.get()).get().getConceptNodeId();
+                Long conceptId = conceptPathIdCache.findId(conceptPath.get()).get();
                 conceptMetadataModels.addAll(conceptMetadataRepository.findByConceptNodeId(conceptId));
 
             }
             if (conceptMetadataModels.isEmpty()) {
                 return new ResponseEntity<>(HttpStatus.NO_CONTENT);
             }
+            if (paged && conceptMetadataModels.size() == pageLimit.max()) {
+                return ResponseEntity.ok()
+                    .header(NEXT_CURSOR_HEADER, conceptMetadataModels.getLast().getConceptMetaId().toString())
+                    .body(conceptMetadataModels);
+            }
             return new ResponseEntity<>(conceptMetadataModels, HttpStatus.OK);
         } catch (Exception e) {
             log.info(e.getLocalizedMessage());
@@ -381,15 +415,23 @@ public class ConceptController {
         }
     }
 
+    // All concept metadata as newline delimited json written while the rows are read
+    @GetMapping(value = "/concept/metadata/stream", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamConceptMetadataModels() {
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(NDJSON))
+            .body(conceptService::writeConceptMetadataAsNdjson);
+    }
+
     @PutMapping("/concept/metadata")
     public ResponseEntity<Object> updateConceptMetadata(
         @RequestParam String conceptPath, @RequestParam String key,
         @RequestBody String values
     ) {
-        Optional<ConceptModel> concept = conceptRepository.findByConceptPath(conceptPath);
+        Optional<Long> concept = conceptPathIdCache.findId(conceptPath);
         Long conceptNodeId;
         if (concept.isPresent()) {
-            conceptNodeId = concept.get().getConceptNodeId();
+            conceptNodeId = concept.get();
         } else {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
@@ -452,29 +494,34 @@ public class ConceptController {
     }
 
     // Specifically for mass value updates
+    // Expects a json array of {"concept_path": String, "values": [...]}, which is streamed and may be gzipped.
+    // Batches commit on their own; the response reports the paths not found and any batch that failed.
     @PutMapping("/concept/metadata/values")
-    public ResponseEntity<Object> updateManyValues(@RequestBody String valuesInput) {
-        // TODO convert this to use getUpsertConceptMetaBatchQuery
-        try {
-            JSONArray valArray = new JSONArray(valuesInput);
-            for (int i = 0; i < valArray.length(); i++) {
-                JSONObject obj = valArray.getJSONObject(i);
-                String path = obj.getString("concept_path");
-                JSONArray vals = obj.getJSONArray("values");
-                updateConceptMetadata(path, "values", vals.toString());
+    public ResponseEntity<Object> updateManyValues(
+        @RequestParam(required = false) Integer batchSize, @RequestParam(required = false) Boolean adaptiveBatchSize,
+        InputStream valuesInput
+    ) {
+        AdaptiveBatchSizer batchSizer = conceptBatchSizerFactory.create(batchSize, adaptiveBatchSize, ConceptBatchSizerFactory.VALUES);
+        try (JsonParser parser = objectMapper.createParser(CSVUtility.decompressIfGzipped(valuesInput))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return new ResponseEntity<>("Expected a json array of values.", HttpStatus.BAD_REQUEST);
             }
-        } catch (JSONException e) {
-            return new ResponseEntity<>(null, HttpStatus.INTERNAL_SERVER_ERROR);
+            ValuesUpdateReport report = conceptService.updateValuesFromJSON(parser, batchSizer);
+            HttpStatus status = report.failedBatches().isEmpty() ? HttpStatus.CREATED : HttpStatus.INTERNAL_SERVER_ERROR;
+            return new ResponseEntity<>(report, status);
+        } catch (IOException e) {
+            log.error("Error reading values json", e);
+            return new ResponseEntity<>(
+                "Error reading values json, batches before the error were saved: " + e.getMessage(),
+                HttpStatus.BAD_REQUEST
+            );
         }
-
-        return new ResponseEntity<>(null, HttpStatus.CREATED);
-
     }
 
     @DeleteMapping("/concept/metadata")
     public ResponseEntity<Object> deleteConceptMetadata(@RequestParam Optional<String> conceptPath, @RequestParam String key) {
         if (conceptPath.isPresent()) {
-            Long conceptId = conceptRepository.findByConceptPath(conceptPath.get()).get().getConceptNodeId();
+            Long conceptId = conceptPathIdCache.findId(conceptPath.get()).get();
             Optional<ConceptMetadataModel> conceptMetadataData = conceptMetadataRepository.findByConceptNodeIdAndKey(conceptId, key);
 
             if (conceptMetadataData.isPresent()) {
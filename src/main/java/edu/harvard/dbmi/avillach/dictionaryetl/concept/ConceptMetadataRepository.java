@@ -2,8 +2,13 @@ package edu.harvard.dbmi.avillach.dictionaryetl.concept;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -19,6 +24,19 @@ public interface ConceptMetadataRepository extends JpaRepository<ConceptMetadata
 
     Optional<ConceptMetadataModel> findByConceptNodeIdAndKey(long conceptNodeId, String key);
 
+    // Keyset pages: pass the last id of the previous page, or 0 for the first page
+    List<ConceptMetadataModel> findByConceptNodeMetaIdGreaterThanOrderByConceptNodeMetaId(long after, Limit limit);
+
+    // Streams all metadata in id order. Must be consumed inside a transaction.
+    @Query("SELECT m FROM ConceptMetadataModel m ORDER BY m.conceptNodeMetaId")
+    @QueryHints({
+            @QueryHint(name = "hibernate.jdbc.fetch_size", value = "1000"),
+            @QueryHint(name = "hibernate.query.readOnly", value = "true"),
+            @QueryHint(name = "hibernate.query.cacheable", value = "false")
+    })
+    @Transactional(readOnly = true)
+    Stream<ConceptMetadataModel> streamAll();
+
     @Modifying
     @Transactional
     @Query(value = """
@@ -44,6 +62,26 @@ public interface ConceptMetadataRepository extends JpaRepository<ConceptMetadata
                @Param("key") String key,
                @Param("value") String value);
 
+    @Modifying
+    @Transactional
+    @Query(value = """
+            insert into dict.concept_node_meta (concept_node_id, key, value)
+            select * from unnest(:conceptNodeIds, :keys, :values)
+            on conflict (key, concept_node_id)
+            do update set value = EXCLUDED.value
+            """, nativeQuery = true)
+    int upsertAll(@Param("conceptNodeIds") Long[] conceptNodeIds,
+                  @Param("keys") String[] keys,
+                  @Param("values") String[] values);
+
+    @Modifying
+    @Transactional
+    @Query(value = """
+            delete from dict.concept_node_meta
+            where concept_node_id = any(:conceptNodeIds) and key = any(:keys)
+            """, nativeQuery = true)
+    int deleteByConceptNodeIdsAndKeys(@Param("conceptNodeIds") Long[] conceptNodeIds, @Param("keys") String[] keys);
+
     @Query(value = """
             select new edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptStigvarIdentificationModel(
                 concept_node.name,
@@ -27,6 +27,10 @@ public class ConceptMetadataService {
         return this.conceptMetadataRepository.saveAll(conceptMetadataModels);
     }
 
+    public int deleteByConceptNodeIdsAndKeys(Long[] conceptNodeIds, String[] keys) {
+        return this.conceptMetadataRepository.deleteByConceptNodeIdsAndKeys(conceptNodeIds, keys);
+    }
+
     public int upsert(long conceptNodeId, String key, String value) {
         return this.conceptMetadataRepository.upsert(conceptNodeId, key, value);
     }
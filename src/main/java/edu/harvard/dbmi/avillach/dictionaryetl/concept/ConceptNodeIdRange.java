@@ -0,0 +1,6 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+public interface ConceptNodeIdRange {
+    Long getMinId();
+    Long getMaxId();
+}
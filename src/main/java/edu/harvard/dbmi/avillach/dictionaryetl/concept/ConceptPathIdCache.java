@@ -0,0 +1,340 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.ConceptPathRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+
+/**
+ * Resolves concept paths to concept node ids, remembering the answers. Paths are keyed by their md5, held as two
+ * longs in an open addressing table of primitive arrays, so an entry costs 20 bytes however long the path is and the
+ * table puts no objects on the heap per entry.
+ * <p>
+ * Only committed ids are cached: a lookup made inside a transaction is added once it commits. Operations that delete
+ * concepts must call {@link #invalidate} or {@link #invalidateAll}, which drop the entries now and again after their
+ * transaction commits, so a concurrent lookup cannot put a deleted id back. Upserts keep the id of an existing path
+ * and need no invalidation.
+ * <p>
+ * Once {@code dictionary.concept.path-cache.max-entries} are cached, further paths are looked up but not added.
+ * Lookups are counted as {@code dictionary.concept.path.cache.lookups} tagged with the result.
+ */
+@Component
+public class ConceptPathIdCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ConceptPathIdCache.class);
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    // Paths resolved per query on a batch miss
+    private static final int LOOKUP_BATCH_SIZE = 10_000;
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ConceptRepository conceptRepository;
+    private final TransactionTemplate readTransaction;
+    private final int maxEntries;
+    private final boolean warmOnStart;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter rejected;
+
+    private final StampedLock lock = new StampedLock();
+    // Bumped by invalidation, so a lookup that raced with it is not cached
+    private final AtomicLong generation = new AtomicLong();
+    // Slot i is empty when ids[i] is 0; concept node ids start at 1
+    private long[] highs = new long[INITIAL_CAPACITY];
+    private long[] lows = new long[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int size;
+
+    public ConceptPathIdCache(
+            ConceptRepository conceptRepository,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${dictionary.concept.path-cache.max-entries:2000000}") int maxEntries,
+            @Value("${dictionary.concept.path-cache.warm-on-start:false}") boolean warmOnStart
+    ) {
+        this.conceptRepository = conceptRepository;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.maxEntries = maxEntries;
+        this.warmOnStart = warmOnStart;
+        this.hits = Counter.builder("dictionary.concept.path.cache.lookups")
+                .description("Concept path to id lookups served by the cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("dictionary.concept.path.cache.lookups")
+                .description("Concept path to id lookups served by the cache")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("dictionary.concept.path.cache.rejected")
+                .description("Resolved paths not cached because the cache was full")
+                .register(meterRegistry);
+        Gauge.builder("dictionary.concept.path.cache.size", this, ConceptPathIdCache::size)
+                .description("Concept paths in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return the id of the concept at the path, if there is one
+     */
+    public Optional<Long> findId(String conceptPath) {
+        return Optional.ofNullable(findIds(List.of(conceptPath)).get(conceptPath));
+    }
+
+    /**
+     * @return the id of each path that has a concept. Paths without one are left out.
+     */
+    public Map<String, Long> findIds(Collection<String> conceptPaths) {
+        Map<String, Long> found = new HashMap<>(conceptPaths.size() * 2);
+        List<String> missing = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (String path : conceptPaths) {
+                long[] key = key(path);
+                int id = get(key[0], key[1]);
+                if (id != 0) {
+                    found.put(path, (long) id);
+                } else {
+                    missing.add(path);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        hits.increment(found.size());
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        misses.increment(missing.size());
+        long lookupGeneration = generation.get();
+        List<ConceptPathRow> rows = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += LOOKUP_BATCH_SIZE) {
+            List<String> chunk = missing.subList(from, Math.min(missing.size(), from + LOOKUP_BATCH_SIZE));
+            rows.addAll(conceptRepository.findIdsByConceptPaths(chunk.toArray(String[]::new)));
+        }
+        rows.forEach(row -> found.put(row.getConceptPath(), row.getConceptNodeId()));
+        afterCommit(() -> putAll(rows, lookupGeneration));
+        return found;
+    }
+
+    /**
+     * Drops the path now and after the current transaction commits.
+     */
+    public void invalidate(String conceptPath) {
+        long[] key = key(conceptPath);
+        Runnable remove = () -> {
+            long stamp = lock.writeLock();
+            try {
+                generation.incrementAndGet();
+                remove(key[0], key[1]);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        };
+        remove.run();
+        afterCommit(remove);
+    }
+
+    /**
+     * Drops every path now and after the current transaction commits.
+     */
+    public void invalidateAll() {
+        Runnable clear = () -> {
+            long stamp = lock.writeLock();
+            try {
+                generation.incrementAndGet();
+                highs = new long[INITIAL_CAPACITY];
+                lows = new long[INITIAL_CAPACITY];
+                ids = new int[INITIAL_CAPACITY];
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        };
+        clear.run();
+        afterCommit(clear);
+    }
+
+    /**
+     * Loads every concept path, up to the size limit, in one streamed read.
+     *
+     * @return the paths cached
+     */
+    public int warm() {
+        long warmGeneration = generation.get();
+        List<ConceptPathRow> chunk = new ArrayList<>(LOOKUP_BATCH_SIZE);
+        readTransaction.executeWithoutResult(status -> {
+            try (Stream<ConceptPathRow> rows = conceptRepository.streamNodeIdAndPath()) {
+                Iterator<ConceptPathRow> iterator = rows.iterator();
+                while (iterator.hasNext() && size() < maxEntries) {
+                    chunk.add(iterator.next());
+                    if (chunk.size() == LOOKUP_BATCH_SIZE || !iterator.hasNext()) {
+                        putAll(chunk, warmGeneration);
+                        chunk.clear();
+                    }
+                }
+            }
+        });
+        log.info("Warmed the concept path cache with {} paths", size());
+        return size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmOnStart() {
+        if (warmOnStart) {
+            warm();
+        }
+    }
+
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int current = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return current;
+    }
+
+    private void putAll(List<ConceptPathRow> rows, long lookupGeneration) {
+        long stamp = lock.writeLock();
+        try {
+            if (generation.get() != lookupGeneration) {
+                return;
+            }
+            for (ConceptPathRow row : rows) {
+                long[] key = key(row.getConceptPath());
+                if (!put(key[0], key[1], Math.toIntExact(row.getConceptNodeId()))) {
+                    rejected.increment();
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Runs the action after the current transaction commits, or now if there is none
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static long[] key(String conceptPath) {
+        ByteBuffer digest = ByteBuffer.wrap(MD5.get().digest(conceptPath.getBytes(StandardCharsets.UTF_8)));
+        return new long[]{digest.getLong(), digest.getLong()};
+    }
+
+    // The table methods below expect the caller to hold the lock
+
+    private int slot(long high, long low) {
+        long mixed = high ^ low;
+        return (int) (mixed ^ (mixed >>> 32)) & (ids.length - 1);
+    }
+
+    private int get(long high, long low) {
+        for (int i = slot(high, low); ids[i] != 0; i = (i + 1) & (ids.length - 1)) {
+            if (highs[i] == high && lows[i] == low) {
+                return ids[i];
+            }
+        }
+        return 0;
+    }
+
+    private boolean put(long high, long low, int id) {
+        int i = slot(high, low);
+        for (; ids[i] != 0; i = (i + 1) & (ids.length - 1)) {
+            if (highs[i] == high && lows[i] == low) {
+                ids[i] = id;
+                return true;
+            }
+        }
+        if (size >= maxEntries) {
+            return false;
+        }
+        highs[i] = high;
+        lows[i] = low;
+        ids[i] = id;
+        size++;
+        // Keep the table at most three quarters full
+        if (size * 4L > ids.length * 3L) {
+            resize(ids.length * 2);
+        }
+        return true;
+    }
+
+    // Backward shift deletion, so probe chains stay unbroken without tombstones
+    private void remove(long high, long low) {
+        int mask = ids.length - 1;
+        int i = slot(high, low);
+        while (ids[i] != 0 && !(highs[i] == high && lows[i] == low)) {
+            i = (i + 1) & mask;
+        }
+        if (ids[i] == 0) {
+            return;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; ids[j] != 0; j = (j + 1) & mask) {
+            int home = slot(highs[j], lows[j]);
+            // Move j into the hole unless its home slot lies cyclically in (hole, j]
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                highs[hole] = highs[j];
+                lows[hole] = lows[j];
+                ids[hole] = ids[j];
+                hole = j;
+            }
+        }
+        ids[hole] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        int[] oldIds = ids;
+        highs = new long[capacity];
+        lows = new long[capacity];
+        ids = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != 0) {
+                put(oldHighs[i], oldLows[i], oldIds[i]);
+            }
+        }
+    }
+}
@@ -5,10 +5,14 @@ import java.util.Optional;
 import java.util.stream.Stream;
 
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.ConceptPathRow;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.ConceptFingerprintRow;
 import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,6 +28,30 @@ public interface ConceptRepository extends JpaRepository<ConceptModel, Long> {
 
     List<ConceptModel> findByConceptType(String conceptType);
 
+    // Keyset pages: pass the last id of the previous page, or 0 for the first page
+    List<ConceptModel> findByConceptNodeIdGreaterThanOrderByConceptNodeId(long after, Limit limit);
+
+    List<ConceptModel> findByDatasetIdAndConceptNodeIdGreaterThanOrderByConceptNodeId(long datasetId, long after, Limit limit);
+
+    // Streams concepts in id order. Must be consumed inside a transaction.
+    @Query("SELECT c FROM ConceptModel c ORDER BY c.conceptNodeId")
+    @QueryHints({
+            @QueryHint(name = "hibernate.jdbc.fetch_size", value = "1000"),
+            @QueryHint(name = "hibernate.query.readOnly", value = "true"),
+            @QueryHint(name = "hibernate.query.cacheable", value = "false")
+    })
+    @Transactional(readOnly = true)
+    Stream<ConceptModel> streamAll();
+
+    @Query("SELECT c FROM ConceptModel c WHERE c.datasetId = :datasetId ORDER BY c.conceptNodeId")
+    @QueryHints({
+            @QueryHint(name = "hibernate.jdbc.fetch_size", value = "1000"),
+            @QueryHint(name = "hibernate.query.readOnly", value = "true"),
+            @QueryHint(name = "hibernate.query.cacheable", value = "false")
+    })
+    @Transactional(readOnly = true)
+    Stream<ConceptModel> streamByDatasetId(@Param("datasetId") long datasetId);
+
     @Query(value = """
         SELECT concept_node_id AS conceptNodeId, concept_path AS conceptPath
         FROM dict.concept_node
@@ -54,6 +82,31 @@ public interface ConceptRepository extends JpaRepository<ConceptModel, Long> {
     @Transactional(readOnly = true)
     Stream<ConceptPathRow> streamLeafNodeIdAndPath();
 
+    @Query(value = """
+    SELECT min(concept_node_id) AS minId, max(concept_node_id) AS maxId
+    FROM dict.concept_node
+    """, nativeQuery = true)
+    ConceptNodeIdRange findConceptNodeIdRange();
+
+    // Streams the leaf concept nodes with fromId <= concept_node_id < toId, so a scan can be split by id range.
+    @Query(value = """
+    SELECT cn.concept_node_id AS conceptNodeId, cn.concept_path AS conceptPath
+    FROM dict.concept_node cn
+    WHERE cn.concept_node_id >= :fromId AND cn.concept_node_id < :toId
+    AND NOT EXISTS (
+        SELECT 1
+        FROM dict.concept_node child
+        WHERE child.parent_id = cn.concept_node_id
+    )
+    """, nativeQuery = true)
+    @QueryHints({
+            @QueryHint(name = "hibernate.jdbc.fetch_size", value = "1000"),
+            @QueryHint(name = "hibernate.query.readOnly", value = "true"),
+            @QueryHint(name = "hibernate.query.cacheable", value = "false")
+    })
+    @Transactional(readOnly = true)
+    Stream<ConceptPathRow> streamLeafNodeIdAndPathInRange(@Param("fromId") long fromId, @Param("toId") long toId);
+
     @Query(value = """
         SELECT concept_node_id AS conceptNodeId, concept_path AS conceptPath
         FROM dict.concept_node
@@ -68,6 +121,204 @@ public interface ConceptRepository extends JpaRepository<ConceptModel, Long> {
     @Transactional(readOnly = true)
     Stream<ConceptPathRow> streamDatasetNodeIdAndPath(String ref);
 
+    /**
+     * Streams an md5 fingerprint of the type and the given metadata keys of every concept in the datasets. The
+     * fingerprint is taken over the type, a newline, and the {@code key=value} pairs ordered by key and joined by
+     * newlines.
+     */
+    @Query(value = """
+        SELECT cn.concept_node_id AS conceptNodeId, cn.concept_path AS conceptPath,
+            md5(cn.concept_type || chr(10) || coalesce(string_agg(cnm.key || '=' || cnm.value, chr(10) ORDER BY cnm.key), '')) AS fingerprint
+        FROM dict.concept_node cn
+        JOIN dict.dataset d ON d.dataset_id = cn.dataset_id
+        LEFT JOIN dict.concept_node_meta cnm ON cnm.concept_node_id = cn.concept_node_id AND cnm.key = ANY(:keys)
+        WHERE d.ref = ANY(:refs)
+        GROUP BY cn.concept_node_id, cn.concept_path, cn.concept_type
+        """, nativeQuery = true)
+    @QueryHints({
+            @QueryHint(name = "hibernate.jdbc.fetch_size", value = "1000"),
+            @QueryHint(name = "hibernate.query.readOnly", value = "true"),
+            @QueryHint(name = "hibernate.query.cacheable", value = "false")
+    })
+    @Transactional(readOnly = true)
+    Stream<ConceptFingerprintRow> streamFingerprintsByDatasetRefs(@Param("refs") String[] refs, @Param("keys") String[] keys);
+
+    @Modifying
+    @Transactional
+    @Query(value = """
+        UPDATE dict.concept_node cn SET concept_type = u.concept_type
+        FROM unnest(:ids, :types) AS u(concept_node_id, concept_type)
+        WHERE cn.concept_node_id = u.concept_node_id
+        """, nativeQuery = true)
+    int updateConceptTypes(@Param("ids") Long[] ids, @Param("types") String[] types);
+
+    /**
+     * Inserts the concepts, or updates the dataset, display and name of the ones whose path already exists. The arrays
+     * are read in parallel and must not repeat a path.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+        INSERT INTO dict.concept_node (concept_path, concept_type, dataset_id, display, name)
+        SELECT * FROM unnest(:paths, :types, :datasetIds, :displays, :names)
+        ON CONFLICT (md5(concept_path)) DO UPDATE
+        SET (dataset_id, display, name) = (EXCLUDED.dataset_id, EXCLUDED.display, EXCLUDED.name)
+        """, nativeQuery = true)
+    int upsertConcepts(
+            @Param("paths") String[] paths, @Param("types") String[] types, @Param("datasetIds") Long[] datasetIds,
+            @Param("displays") String[] displays, @Param("names") String[] names
+    );
+
+    // Joins on md5 so the lookup uses the unique path index
+    @Query(value = """
+        SELECT cn.concept_node_id AS conceptNodeId, cn.concept_path AS conceptPath
+        FROM unnest(:paths) AS p(concept_path)
+        JOIN dict.concept_node cn ON md5(cn.concept_path) = md5(p.concept_path)
+        """, nativeQuery = true)
+    List<ConceptPathRow> findIdsByConceptPaths(@Param("paths") String[] paths);
+
+    /**
+     * Sets the parent of each concept to the concept at the parent path in the same position, or to null if there is
+     * no concept at that path.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+        UPDATE dict.concept_node cn SET parent_id = parent.concept_node_id
+        FROM unnest(:paths, :parentPaths) AS u(concept_path, parent_path)
+        LEFT JOIN dict.concept_node parent ON md5(parent.concept_path) = md5(u.parent_path)
+        WHERE md5(cn.concept_path) = md5(u.concept_path)
+        """, nativeQuery = true)
+    int updateParentIds(@Param("paths") String[] paths, @Param("parentPaths") String[] parentPaths);
+
+    /**
+     * Upserts a batch of concepts with their parents and metadata in one statement. Ids for new concepts are taken from
+     * the sequence up front, so a parent can be resolved whether it already exists or is in the same batch. A concept
+     * whose parent cannot be resolved has its parent cleared, as {@link #updateParentIds} does. Metadata rows name
+     * their concept by path.
+     * <p>
+     * The concept arrays are read in parallel and must not repeat a path; the metadata arrays likewise must not repeat
+     * a path and key.
+     */
+    @Transactional
+    @Query(value = """
+        WITH input AS (
+            SELECT * FROM unnest(:paths, :types, :datasetIds, :displays, :names, :parentPaths)
+                AS i(concept_path, concept_type, dataset_id, display, name, parent_path)
+        ), ids AS (
+            SELECT i.concept_path, coalesce(cn.concept_node_id, nextval('dict.concept_node_concept_node_id_seq')) AS concept_node_id
+            FROM input i
+            LEFT JOIN dict.concept_node cn ON md5(cn.concept_path) = md5(i.concept_path)
+        ), concepts AS (
+            INSERT INTO dict.concept_node (concept_node_id, concept_path, concept_type, dataset_id, display, name, parent_id)
+            SELECT ids.concept_node_id, i.concept_path, i.concept_type, i.dataset_id, i.display, i.name,
+                coalesce(batch_parent.concept_node_id, parent.concept_node_id)
+            FROM input i
+            JOIN ids ON ids.concept_path = i.concept_path
+            LEFT JOIN ids batch_parent ON batch_parent.concept_path = i.parent_path
+            LEFT JOIN dict.concept_node parent ON md5(parent.concept_path) = md5(i.parent_path)
+            ON CONFLICT (md5(concept_path)) DO UPDATE
+            SET (dataset_id, display, name, parent_id) =
+                (EXCLUDED.dataset_id, EXCLUDED.display, EXCLUDED.name, EXCLUDED.parent_id)
+            RETURNING concept_node_id, concept_path
+        ), metadata AS (
+            INSERT INTO dict.concept_node_meta (concept_node_id, key, value)
+            SELECT ids.concept_node_id, m.key, m.value
+            FROM unnest(:metaPaths, :metaKeys, :metaValues) AS m(concept_path, key, value)
+            JOIN ids ON ids.concept_path = m.concept_path
+            ON CONFLICT (key, concept_node_id) DO UPDATE SET value = EXCLUDED.value
+            RETURNING concept_node_id
+        )
+        SELECT (SELECT count(*) FROM concepts) AS concepts, (SELECT count(*) FROM metadata) AS metadata
+        """, nativeQuery = true)
+    ConceptBatchCounts upsertConceptBatch(
+            @Param("paths") String[] paths, @Param("types") String[] types, @Param("datasetIds") Long[] datasetIds,
+            @Param("displays") String[] displays, @Param("names") String[] names, @Param("parentPaths") String[] parentPaths,
+            @Param("metaPaths") String[] metaPaths, @Param("metaKeys") String[] metaKeys, @Param("metaValues") String[] metaValues
+    );
+
+    /**
+     * @return the concepts of the dataset whose ids are not among the valid ids
+     */
+    @Query(value = """
+        SELECT cn.* FROM dict.concept_node cn
+        WHERE cn.dataset_id = :datasetId
+        AND NOT EXISTS (SELECT 1 FROM unnest(:validIds) AS v(id) WHERE v.id = cn.concept_node_id)
+        """, nativeQuery = true)
+    List<ConceptModel> findObsoleteConcepts(@Param("datasetId") Long datasetId, @Param("validIds") Long[] validIds);
+
+    /**
+     * Clears the parent of concepts that will outlive their parent when the obsolete concepts of the dataset are
+     * deleted, so the cascade on parent_id does not take them with it.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = """
+        UPDATE dict.concept_node child SET parent_id = NULL
+        FROM dict.concept_node parent
+        WHERE child.parent_id = parent.concept_node_id
+        AND parent.dataset_id = :datasetId
+        AND NOT EXISTS (SELECT 1 FROM unnest(:validIds) AS v(id) WHERE v.id = parent.concept_node_id)
+        AND (child.dataset_id <> :datasetId
+            OR EXISTS (SELECT 1 FROM unnest(:validIds) AS v(id) WHERE v.id = child.concept_node_id))
+        """, nativeQuery = true)
+    int detachChildrenOfObsoleteConcepts(@Param("datasetId") Long datasetId, @Param("validIds") Long[] validIds);
+
+    // Clears the parent of the concept's children, so deleting it does not cascade to them
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE dict.concept_node SET parent_id = NULL WHERE parent_id = :parentId", nativeQuery = true)
+    int detachChildren(@Param("parentId") Long parentId);
+
+    /**
+     * Counts the concepts, metadata and facet mappings in the subtree of the concept at the path, or with prefix set,
+     * in the subtrees of every concept whose path starts with it.
+     */
+    @Query(value = """
+        WITH RECURSIVE subtree(concept_node_id) AS (
+            SELECT concept_node_id FROM dict.concept_node WHERE md5(concept_path) = md5(:path)
+            UNION
+            SELECT concept_node_id FROM dict.concept_node WHERE :prefix AND starts_with(concept_path, :path)
+            UNION
+            SELECT child.concept_node_id FROM dict.concept_node child JOIN subtree ON child.parent_id = subtree.concept_node_id
+        )
+        SELECT (SELECT count(*) FROM subtree) AS concepts,
+            (SELECT count(*) FROM dict.concept_node_meta m JOIN subtree USING (concept_node_id)) AS metadata,
+            (SELECT count(*) FROM dict.facet__concept_node fc JOIN subtree USING (concept_node_id)) AS facetMappings
+        """, nativeQuery = true)
+    ConceptSubtreeCounts countSubtree(@Param("path") String path, @Param("prefix") boolean prefix);
+
+    // Deletes the subtree counted by countSubtree. Metadata and facet links go through the cascading foreign keys.
+    @Modifying
+    @Transactional
+    @Query(value = """
+        WITH RECURSIVE subtree(concept_node_id) AS (
+            SELECT concept_node_id FROM dict.concept_node WHERE md5(concept_path) = md5(:path)
+            UNION
+            SELECT concept_node_id FROM dict.concept_node WHERE :prefix AND starts_with(concept_path, :path)
+            UNION
+            SELECT child.concept_node_id FROM dict.concept_node child JOIN subtree ON child.parent_id = subtree.concept_node_id
+        )
+        DELETE FROM dict.concept_node cn USING subtree WHERE cn.concept_node_id = subtree.concept_node_id
+        """, nativeQuery = true)
+    int deleteSubtree(@Param("path") String path, @Param("prefix") boolean prefix);
+
+    // Metadata and facet links are removed by the cascading foreign keys
+    @Modifying
+    @Transactional
+    @Query(value = """
+        DELETE FROM dict.concept_node cn
+        WHERE cn.dataset_id = :datasetId
+        AND NOT EXISTS (SELECT 1 FROM unnest(:validIds) AS v(id) WHERE v.id = cn.concept_node_id)
+        """, nativeQuery = true)
+    int deleteObsoleteConcepts(@Param("datasetId") Long datasetId, @Param("validIds") Long[] validIds);
+
+    // Metadata, facet links and child concepts are removed by the cascading foreign keys
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM dict.concept_node WHERE concept_node_id = ANY(:ids)", nativeQuery = true)
+    int deleteAllByConceptNodeIds(@Param("ids") Long[] ids);
+
     @Query(value = """
         select
             cn.concept_node_id,
@@ -1,35 +1,74 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.concept;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.BulkUpsertUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.ConceptFingerprintRow;
 import jakarta.persistence.PersistenceContext;
-import jakarta.persistence.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.StringUtils;
+import org.springframework.transaction.support.TransactionTemplate;
 import jakarta.persistence.EntityManager;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class ConceptService {
 
     private final ConceptRepository conceptRepository;
+    private final ConceptMetadataRepository conceptMetadataRepository;
     private final DatasetRepository datasetRepository;
+    private final BulkUpsertUtility bulkUpsertUtility;
+    private final ConceptPathIdCache conceptPathIdCache;
+    private final TransactionTemplate batchTransaction;
+    private final TransactionTemplate readTransaction;
+    private final ObjectMapper objectMapper;
 
     private static final Logger log = LoggerFactory.getLogger(ConceptService.class);
+    // Paths not found beyond this are only counted in the values update report
+    private static final int MAX_REPORTED_PATHS = 100;
+    // Rows streamed between clears of the persistence context, matching the fetch size of the stream queries
+    private static final int NDJSON_CLEAR_INTERVAL = 1000;
     @PersistenceContext
     private EntityManager entityManager;
 
     @Autowired
-    public ConceptService(ConceptRepository conceptRepository, DatasetRepository datasetRepository) {
+    public ConceptService(
+            ConceptRepository conceptRepository, ConceptMetadataRepository conceptMetadataRepository,
+            DatasetRepository datasetRepository, BulkUpsertUtility bulkUpsertUtility, ConceptPathIdCache conceptPathIdCache,
+            PlatformTransactionManager transactionManager, ObjectMapper objectMapper
+    ) {
         this.conceptRepository = conceptRepository;
+        this.conceptMetadataRepository = conceptMetadataRepository;
         this.datasetRepository = datasetRepository;
+        this.bulkUpsertUtility = bulkUpsertUtility;
+        this.conceptPathIdCache = conceptPathIdCache;
+        this.batchTransaction = new TransactionTemplate(transactionManager);
+        this.batchTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
     }
 
     public ConceptModel save(ConceptModel conceptModel) {
@@ -44,10 +83,35 @@ public class ConceptService {
         return this.conceptRepository.findAll();
     }
 
+    /**
+     * Passes the fingerprint of every concept in the datasets to the consumer. The rows are streamed inside one read
+     * only transaction.
+     *
+     * @param keys the metadata keys included in the fingerprint
+     */
+    @Transactional(readOnly = true)
+    public void forEachFingerprint(String[] datasetRefs, String[] keys, Consumer<ConceptFingerprintRow> consumer) {
+        try (Stream<ConceptFingerprintRow> rows = this.conceptRepository.streamFingerprintsByDatasetRefs(datasetRefs, keys)) {
+            rows.forEach(consumer);
+        }
+    }
+
+    public int updateConceptTypes(Long[] conceptNodeIds, String[] conceptTypes) {
+        return this.conceptRepository.updateConceptTypes(conceptNodeIds, conceptTypes);
+    }
+
+    public int deleteAllByConceptNodeIds(Long[] conceptNodeIds) {
+        conceptPathIdCache.invalidateAll();
+        return this.conceptRepository.deleteAllByConceptNodeIds(conceptNodeIds);
+    }
+
+    /**
+     * Upserts the concepts, parent links and metadata of ideal ingest csv rows in batches chosen by the sizer. The
+     * rows are consumed as they are iterated, so they can be streamed from the csv.
+     */
     @Transactional
-    public String updateConceptsFromCSV(List<String[]> concepts, Map<String, Integer> headerMap, List<String> metaColumnNames, int batch_size) {
-        int varcount = concepts.size();
-        log.debug("varcount: {}", varcount);
+    public String updateConceptsFromCSV(Iterable<String[]> concepts, Map<String, Integer> headerMap, List<String> metaColumnNames, AdaptiveBatchSizer batchSizer) {
+        int varcount = 0;
         int conceptUpdateCount = 0;
         int metaUpdateCount = 0;
         List<ConceptModel> conceptModels = new ArrayList<>();
@@ -55,8 +119,9 @@ public class ConceptService {
         // map of concept path -> key/value map
         Map<String, Map<String, String>> metaMap = new HashMap<>();
         Map<String, String> parentMap = new HashMap<>();
-        for (int i = 0; i < varcount; i++) {
-            String[] var = concepts.get(i);
+        long batchBytes = 0;
+        for (String[] var : concepts) {
+            varcount++;
             if (var.length < headerMap.size()) {
                 continue;
             }
@@ -76,8 +141,7 @@ public class ConceptService {
                 datasetId = datasetRefs.get(datasetRef).getDatasetId();
             }
             String conceptType = var[headerMap.get("concept_type")];
-            String conceptPath = var[headerMap.get("concept_path")].replaceAll("'",
-                    "''");
+            String conceptPath = var[headerMap.get("concept_path")];
             String name = var[headerMap.get("name")];
             if (name.isEmpty()) {
                 name = List.of(conceptPath.split("\\\\")).getLast();
@@ -86,8 +150,7 @@ public class ConceptService {
             if (display.isEmpty()) {
                 display = name;
             }
-            String parentConceptPath = var[headerMap.get("parent_concept_path")].replaceAll("'",
-                    "''");
+            String parentConceptPath = var[headerMap.get("parent_concept_path")];
             if (!parentConceptPath.isEmpty()) {
                 parentMap.put(conceptPath, parentConceptPath);
             }
@@ -103,178 +166,302 @@ public class ConceptService {
                 String value = var[headerMap.get(key)];
                 if (!value.isBlank()) {
                     metaVals.put(key, value);
+                    batchBytes += value.length();
                 }
             }
             metaMap.put(conceptPath, metaVals);
+            batchBytes += conceptPath.length() + parentConceptPath.length() + name.length() + display.length();
 
-            if ((i % batch_size == 0 && i != 0) || i == varcount - 1) {
+            if (batchSizer.isFull(conceptModels.size(), batchBytes)) {
+                ConceptBatchCounts counts = upsertConceptBatch(conceptModels, parentMap, metaMap, batchBytes, batchSizer);
+                conceptUpdateCount += counts.getConcepts().intValue();
+                metaUpdateCount += counts.getMetadata().intValue();
+                batchBytes = 0;
+            }
+        }
+        if (!conceptModels.isEmpty()) {
+            ConceptBatchCounts counts = upsertConceptBatch(conceptModels, parentMap, metaMap, batchBytes, batchSizer);
+            conceptUpdateCount += counts.getConcepts().intValue();
+            metaUpdateCount += counts.getMetadata().intValue();
+        }
+        log.debug("varcount: {}", varcount);
+        return "Successfully updated " + conceptUpdateCount + " concepts and " + metaUpdateCount
+               + " concept meta entries from CSV. " + batchSizer.describe() + " \n";
+    }
 
-                // bulk update concept_node
-                Query conceptQuery = entityManager.createNativeQuery(getUpsertConceptBatchQuery(conceptModels));
+    /**
+     * Writes the concepts, optionally of one dataset, to the output as newline delimited json in id order. Rows are
+     * written as the cursor returns them and cleared from the persistence context as it goes, so memory does not grow
+     * with the dictionary.
+     *
+     * @return the number of concepts written
+     */
+    public long writeConceptsAsNdjson(Long datasetId, OutputStream out) {
+        return writeNdjson(() -> (datasetId == null) ? conceptRepository.streamAll() : conceptRepository.streamByDatasetId(datasetId), out);
+    }
 
-                conceptUpdateCount += conceptQuery.executeUpdate();
+    /**
+     * Writes all concept metadata to the output as newline delimited json in id order, as
+     * {@link #writeConceptsAsNdjson} does for concepts.
+     *
+     * @return the number of metadata entries written
+     */
+    public long writeConceptMetadataAsNdjson(OutputStream out) {
+        return writeNdjson(conceptMetadataRepository::streamAll, out);
+    }
 
-                // fetch updated concept node ids corresponding to concept paths
-                Map<String, Long> metaConceptIdMap = new HashMap<>();
+    private <T> long writeNdjson(Supplier<Stream<T>> rows, OutputStream out) {
+        ObjectWriter writer = objectMapper.writer()
+                .withRootValueSeparator("\n")
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        Long written = readTransaction.execute(status -> {
+            long count = 0;
+            try (Stream<T> stream = rows.get(); SequenceWriter sequence = writer.writeValues(out)) {
+                Iterator<T> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    sequence.write(iterator.next());
+                    if (++count % NDJSON_CLEAR_INTERVAL == 0) {
+                        entityManager.clear();
+                    }
+                }
+                // The separator only goes between values; end the last line once the generator has written it
+                if (count > 0) {
+                    sequence.flush();
+                    out.write('\n');
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return count;
+        });
+        return (written == null) ? 0 : written;
+    }
 
-                List<Object[]> metaRefList = entityManager
-                        .createNativeQuery(getIdsFromPathsQuery(metaMap.keySet())).getResultList();
-                metaRefList.forEach(entry -> {
-                    String path = escapeQuotesForSql(entry[0].toString());
-                    Long conceptId = Long.parseLong(entry[1].toString());
-                    metaConceptIdMap.put(path, conceptId);
-                });
+    /**
+     * Sets the {@code values} metadata of the concepts in a json array of
+     * {@code {"concept_path": String, "values": [...]}} elements, read one element at a time. Each batch resolves its
+     * paths in one query and upserts its values in another, in a transaction of its own, so a failing batch is
+     * reported and the rest still load. Paths without a concept are reported and skipped.
+     *
+     * @param parser positioned on the start of the array
+     * @throws IOException if the json is malformed or an element lacks a field. Batches before it stay committed.
+     */
+    public ValuesUpdateReport updateValuesFromJSON(JsonParser parser, AdaptiveBatchSizer batchSizer) throws IOException {
+        Map<String, String> batch = new LinkedHashMap<>();
+        long batchBytes = 0;
+        int batchNumber = 0;
+        int updated = 0;
+        int missing = 0;
+        List<String> missingPaths = new ArrayList<>();
+        List<ValuesUpdateReport.FailedBatch> failedBatches = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw JsonMappingException.from(parser, "Expected a values object but found " + token);
+            }
+            JsonNode element = parser.readValueAsTree();
+            String conceptPath = requiredText(parser, element, "concept_path");
+            JsonNode values = element.get("values");
+            if (values == null || !values.isArray()) {
+                throw JsonMappingException.from(parser, "Concept " + conceptPath + " has no values array");
+            }
+            String value = values.toString();
+            batch.put(conceptPath, value);
+            batchBytes += conceptPath.length() + value.length();
+
+            if (batchSizer.isFull(batch.size(), batchBytes)) {
+                batchNumber++;
+                ValuesBatchResult result = upsertValuesBatch(batch, batchBytes, batchSizer, batchNumber, failedBatches);
+                updated += result.updated();
+                missing += result.missing().size();
+                result.missing().stream().limit(MAX_REPORTED_PATHS - missingPaths.size()).forEach(missingPaths::add);
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchNumber++;
+            ValuesBatchResult result = upsertValuesBatch(batch, batchBytes, batchSizer, batchNumber, failedBatches);
+            updated += result.updated();
+            missing += result.missing().size();
+            result.missing().stream().limit(MAX_REPORTED_PATHS - missingPaths.size()).forEach(missingPaths::add);
+        }
+        log.info("Updated {} values entries, {} paths not found, {} of {} batches failed. {}",
+                updated, missing, failedBatches.size(), batchNumber, batchSizer.describe());
+        return new ValuesUpdateReport(updated, missing, missingPaths, failedBatches);
+    }
 
-                // bulk update to add parent ids
-                Map<String, Long> childConceptIdMap = new HashMap<>();
-                List<Object[]> childConceptRefList = entityManager
-                        .createNativeQuery(getIdsFromPathsQuery(parentMap.keySet())).getResultList();
-                childConceptRefList.forEach(entry -> {
-                    String path = escapeQuotesForSql(entry[0].toString());
-                    Long conceptId = Long.parseLong(entry[1].toString());
-                    childConceptIdMap.put(path, conceptId);
+    private record ValuesBatchResult(int updated, List<String> missing) {
+    }
+
+    // Writes one batch in its own transaction and clears it. A failure is added to failedBatches.
+    private ValuesBatchResult upsertValuesBatch(
+            Map<String, String> batch, long batchBytes, AdaptiveBatchSizer batchSizer, int batchNumber,
+            List<ValuesUpdateReport.FailedBatch> failedBatches
+    ) {
+        String firstPath = batch.keySet().iterator().next();
+        int size = batch.size();
+        try {
+            return batchSizer.write(size, batchBytes, () -> batchTransaction.execute(status -> {
+                Map<String, Long> ids = conceptPathIdCache.findIds(batch.keySet());
+                List<ConceptMetadataModel> metadata = new ArrayList<>(ids.size());
+                List<String> missing = new ArrayList<>();
+                batch.forEach((path, value) -> {
+                    Long id = ids.get(path);
+                    if (id == null) {
+                        missing.add(path);
+                    } else {
+                        metadata.add(new ConceptMetadataModel(id, "values", value));
+                    }
                 });
+                return new ValuesBatchResult(bulkUpsertUtility.upsertConceptMetadata(metadata), missing);
+            }));
+        } catch (RuntimeException e) {
+            log.error("Values batch {} starting at {} failed", batchNumber, firstPath, e);
+            failedBatches.add(new ValuesUpdateReport.FailedBatch(batchNumber, firstPath, size, e.getMessage()));
+            return new ValuesBatchResult(0, List.of());
+        } finally {
+            batch.clear();
+        }
+    }
 
+    /**
+     * Deletes the concept at the path with all of its descendants, or with prefix set, every concept whose path starts
+     * with it and their descendants. Takes two statements however large the subtree: one to count it and one to
+     * delete it. Metadata and facet mappings go with their concepts through the cascading foreign keys.
+     *
+     * @param dryRun only count what would be deleted
+     * @return the concepts, metadata entries and facet mappings in the subtree
+     */
+    @Transactional
+    public ConceptSubtreeCounts deleteSubtree(String conceptPath, boolean prefix, boolean dryRun) {
+        ConceptSubtreeCounts counts = conceptRepository.countSubtree(conceptPath, prefix);
+        if (!dryRun && counts.getConcepts() > 0) {
+            conceptRepository.deleteSubtree(conceptPath, prefix);
+            conceptPathIdCache.invalidateAll();
+            log.info("Deleted {} concepts under {}{}", counts.getConcepts(), conceptPath, prefix ? "*" : "");
+        }
+        return counts;
+    }
 
-                try {
-                    Map<Long, String> idParentMap = parentMap.entrySet().stream()
-                            .collect(
-                                    Collectors.toMap(e -> (childConceptIdMap.get(e.getKey())),
-                                            Map.Entry::getValue));
-                    Query parentQuery = entityManager.createNativeQuery(getUpdateParentIdsQuery(idParentMap));
-                    parentQuery.executeUpdate();
-                } catch (NullPointerException e) {
-                    log.error(e.getMessage(), e);
+    /**
+     * Deletes the concepts of the dataset whose ids are not among the valid ids, in two statements whatever the size
+     * of the dataset. Concepts that outlive their parent are detached from it first; metadata and facet links go with
+     * their concepts through the cascading foreign keys.
+     *
+     * @return the number of concepts deleted
+     */
+    @Transactional
+    public int deleteObsoleteConcepts(Long datasetId, Long[] validIds) {
+        int detached = conceptRepository.detachChildrenOfObsoleteConcepts(datasetId, validIds);
+        int deleted = conceptRepository.deleteObsoleteConcepts(datasetId, validIds);
+        conceptPathIdCache.invalidateAll();
+        log.info("Deleted {} obsolete concepts of dataset {} and detached {} of their children", deleted, datasetId, detached);
+        return deleted;
+    }
 
-                }
+    /**
+     * Upserts the concepts and metadata of curated json from noncompliant studies. Elements are read one at a time, so
+     * memory use is bounded by the batch. Each element has the form
+     * <pre>
+     * {
+     *   "name": String,
+     *   "display": String, optional, defaults to the name
+     *   "concept_path": String,
+     *   "metadata": {"description": String, "drs_uri": [...], ~other metadata fields as needed~}
+     * }
+     * </pre>
+     * Metadata values that are not strings are stored as json.
+     *
+     * @param parser positioned on the start of the array
+     * @throws IOException if the json is malformed or an element lacks a required field
+     */
+    @Transactional
+    public String updateConceptsFromJSON(JsonParser parser, Long datasetId, AdaptiveBatchSizer batchSizer) throws IOException {
+        long start = System.nanoTime();
+        int varcount = 0;
+        int conceptUpdateCount = 0;
+        int metaUpdateCount = 0;
+        List<ConceptModel> conceptModels = new ArrayList<>();
+        Map<String, String> noParents = new HashMap<>();
+        Map<String, Map<String, String>> metaMap = new HashMap<>();
+        long batchBytes = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            JsonNode var = parser.readValueAsTree();
+            varcount++;
+            String name = requiredText(parser, var, "name").replaceAll("\n", " ");
+            String conceptPath = requiredText(parser, var, "concept_path").replaceAll("\n", " ");
+            String display = var.hasNonNull("display") ? var.get("display").asText().replaceAll("\n", " ") : name;
+            JsonNode metaJson = var.get("metadata");
+            if (metaJson == null || !metaJson.isObject()) {
+                throw JsonMappingException.from(parser, "Concept " + conceptPath + " has no metadata object");
+            }
 
-                // bulk update concept_node_meta
-                Map<Long, Map<String, String>> idMetaMap = metaMap.entrySet().stream()
-                        .collect(Collectors.toMap(e -> (metaConceptIdMap.get(e.getKey())), Map.Entry::getValue));
-
-                List<ConceptMetadataModel> metaList = new ArrayList<>();
-                idMetaMap.forEach((id, metaEntries) -> metaEntries.keySet().forEach(metaKey -> {
-                    ConceptMetadataModel conceptMeta = new ConceptMetadataModel();
-                    conceptMeta.setConceptNodeId(id);
-                    conceptMeta.setKey(metaKey);
-                    conceptMeta.setValue(metaEntries.get(metaKey));
-                    metaList.add(conceptMeta);
-                }));
-
-                if (!metaList.isEmpty()) {
-                    Query metaQuery = entityManager.createNativeQuery(getUpsertConceptMetaBatchQuery(metaList));
-                    metaUpdateCount += metaQuery.executeUpdate();
-                }
+            ConceptModel newConceptModel = new ConceptModel(conceptPath);
+            newConceptModel.setConceptType("Categorical");
+            newConceptModel.setDatasetId(datasetId);
+            newConceptModel.setDisplay(display);
+            newConceptModel.setName(name);
+            conceptModels.add(newConceptModel);
+            Map<String, String> metaVals = new HashMap<>();
+            for (Map.Entry<String, JsonNode> meta : metaJson.properties()) {
+                String value = meta.getValue().isTextual() ? meta.getValue().asText() : meta.getValue().toString();
+                metaVals.put(meta.getKey(), value);
+                batchBytes += value.length();
+            }
+            metaMap.put(conceptPath, metaVals);
+            batchBytes += conceptPath.length() + name.length() + display.length();
 
-                // clear all dataobjects for next batch
-                conceptModels = new ArrayList<>();
-                parentMap.clear();
-                metaMap.clear();
-                entityManager.flush();
+            if (batchSizer.isFull(conceptModels.size(), batchBytes)) {
+                ConceptBatchCounts counts = upsertConceptBatch(conceptModels, noParents, metaMap, batchBytes, batchSizer);
+                conceptUpdateCount += counts.getConcepts().intValue();
+                metaUpdateCount += counts.getMetadata().intValue();
+                batchBytes = 0;
             }
         }
-        return "Successfully updated " + conceptUpdateCount + " concepts and " + metaUpdateCount
-               + " concept meta entries from CSV. \n";
-    }
-
-    public String getUpsertConceptBatchQuery(List<ConceptModel> conceptModels) {
-        log.info("List length: {}", conceptModels.size());
-        String conceptPaths = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptModels.stream()
-                        .map(model -> StringUtils.quote(model.getConceptPath()))
-                        .collect(Collectors.toList()))
-                              + "])";
-        String conceptTypes = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptModels.stream().map(model -> StringUtils.quote(model.getConceptType()))
-                        .collect(Collectors.toList()))
-                              + "])";
-        String datasetIds = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptModels.stream().map(ConceptModel::getDatasetId).collect(Collectors.toList()))
-                            + "])";
-        String displays = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptModels.stream().map(model -> StringUtils.quote(model.getDisplay()))
-                        .collect(Collectors.toList()))
-                          + "])";
-        String names = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptModels.stream().map(model -> StringUtils.quote(model.getName()))
-                        .collect(Collectors.toList()))
-                       + "])";
-
-        String vals = StringUtils.arrayToCommaDelimitedString(
-                new String[]{conceptPaths, conceptTypes, datasetIds, displays, names});
-
-        String upsertQuery = "insert into concept_node (concept_path,concept_type,dataset_id,display,name) "
-                             + "VALUES (" + vals + ")"
-                             + " ON CONFLICT (md5(CONCEPT_PATH)) DO UPDATE SET (dataset_id,display,name) = (EXCLUDED.dataset_id,EXCLUDED.display,EXCLUDED.name);";
-        log.debug("UPSERT QUERY: {}", upsertQuery);
-        return upsertQuery;
-    }
+        if (token != JsonToken.END_ARRAY) {
+            throw JsonMappingException.from(parser, "Expected a concept object but found " + token);
+        }
+        if (!conceptModels.isEmpty()) {
+            ConceptBatchCounts counts = upsertConceptBatch(conceptModels, noParents, metaMap, batchBytes, batchSizer);
+            conceptUpdateCount += counts.getConcepts().intValue();
+            metaUpdateCount += counts.getMetadata().intValue();
+        }
 
-    public String getIdsFromPathsQuery(Set<String> paths) {
-        String pathClause = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(paths.stream()
-                .map(StringUtils::quote)
-                .collect(Collectors.toList())) + "])";
-        String getIdsQuery = "select concept_path, concept_node_id from concept_node where concept_path in (select "
-                             + pathClause + ")";
-        log.debug("Get ids query: {}", getIdsQuery);
-        return getIdsQuery;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String throughput = String.format("%d concepts in %.1f s (%.0f concepts/s)", varcount, seconds, varcount / Math.max(seconds, 1e-3));
+        log.info("Loaded curated json: {}. {}", throughput, batchSizer.describe());
+        return "Successfully updated " + conceptUpdateCount + " concepts and " + metaUpdateCount
+               + " concept meta entries from JSON. Read " + throughput + ". " + batchSizer.describe() + " \n";
     }
 
-    public String getUpsertConceptMetaBatchQuery(List<ConceptMetadataModel> conceptMetaModels) {
-
-        String conceptNodeIds = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptMetaModels.stream().map(ConceptMetadataModel::getConceptNodeId)
-                        .collect(Collectors.toList()))
-                                + "])";
-        String keys = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptMetaModels.stream().map(model -> StringUtils.quote(model.getKey()))
-                        .collect(Collectors.toList()))
-                      + "])";
-        String values = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                conceptMetaModels.stream()
-                        .map(model -> StringUtils.quote(model.getValue().replaceAll("'",
-                                "''")))
-                        .collect(Collectors.toList()))
-                        + "])";
-
-        String vals = StringUtils.arrayToCommaDelimitedString(
-                new String[]{conceptNodeIds, keys, values});
-
-        String upsertQuery = "insert into concept_node_meta (concept_node_id,key,value) "
-                             + "VALUES (" + vals + ")"
-                             + " ON CONFLICT (key, concept_node_id) DO UPDATE SET value = EXCLUDED.value;";
-        log.debug(upsertQuery);
-
-        return upsertQuery;
+    private static String requiredText(JsonParser parser, JsonNode var, String field) throws JsonMappingException {
+        JsonNode value = var.get(field);
+        if (value == null || !value.isTextual()) {
+            throw JsonMappingException.from(parser, "Concept is missing the " + field + " string");
+        }
+        return value.asText();
     }
 
-    public String getUpdateParentIdsQuery(Map<Long, String> parentConceptMap) {
-        String conceptNodeIds = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                parentConceptMap.keySet())
-                                + "])";
-        String parentPaths = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                parentConceptMap.values().stream().map(StringUtils::quote)
-                        .collect(Collectors
-                                .toList()))
-                             + "])";
-
-        return "with parent_table (node_id, parent_path) as"
-               + "(select " + conceptNodeIds + ", " + parentPaths + ")"
-               + "update concept_node set parent_id = parent_ref.p_id from "
-               + "(select node_id, concept_node_id as p_id from parent_table left join concept_node on parent_path = concept_path) as parent_ref"
-               + " where concept_node_id = node_id;";
+    // Upserts concept_node, parent ids and concept_node_meta in one statement, then clears the batch
+    private ConceptBatchCounts upsertConceptBatch(
+            List<ConceptModel> conceptModels, Map<String, String> parentMap, Map<String, Map<String, String>> metaMap,
+            long batchBytes, AdaptiveBatchSizer batchSizer
+    ) {
+        ConceptBatchCounts counts = batchSizer.write(conceptModels.size(), batchBytes,
+                () -> bulkUpsertUtility.upsertConceptBatch(conceptModels, parentMap, metaMap));
+        conceptModels.clear();
+        parentMap.clear();
+        metaMap.clear();
+        entityManager.flush();
+        return counts;
     }
 
-
     public List<ConceptModel> findByDatasetID(Long datasetId) {
         return this.conceptRepository.findByDatasetId(datasetId);
     }
 
-    public String escapeQuotesForSql(String str) {
-        //Sanitizes input to ensure that single quotes in strings, such as apostrophes, are properly escaped for sql
-        return str.replaceAll("'", "''");
-    }
-
     @Transactional
     public List<ConceptModel> saveAll(List<ConceptModel> conceptModels) {
         return this.conceptRepository.saveAll(conceptModels);
@@ -0,0 +1,7 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+public interface ConceptSubtreeCounts {
+    Long getConcepts();
+    Long getMetadata();
+    Long getFacetMappings();
+}
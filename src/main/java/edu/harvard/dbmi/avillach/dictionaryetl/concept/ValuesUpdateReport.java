@@ -0,0 +1,23 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import java.util.List;
+
+/**
+ * The outcome of a bulk values update. Each batch is committed on its own, so a failed batch does not undo the others.
+ *
+ * @param updated      the values entries inserted or updated
+ * @param missing      the entries whose concept path has no concept
+ * @param missingPaths the first of those paths
+ * @param failedBatches the batches that were rolled back
+ */
+public record ValuesUpdateReport(int updated, int missing, List<String> missingPaths, List<FailedBatch> failedBatches) {
+
+    /**
+     * @param batch     the position of the batch in the request, from 1
+     * @param firstPath the concept path of the first entry in the batch
+     * @param size      the entries in the batch
+     * @param error     why the batch failed
+     */
+    public record FailedBatch(int batch, String firstPath, int size, String error) {
+    }
+}
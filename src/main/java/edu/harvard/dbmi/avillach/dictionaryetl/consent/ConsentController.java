@@ -4,9 +4,9 @@ import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.RFC4180Parser;
 import com.opencsv.exceptions.CsvException;
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.CSVUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetRepository;
-import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -85,7 +85,6 @@ public class ConsentController {
 
     @PutMapping("/consent/csv")
     public ResponseEntity<Object> updateConsentCsv(@RequestParam String datasetRef, @RequestBody String input) {
-        DatasetService service = new DatasetService(datasetRepository);
         Optional<DatasetModel> datasetData = datasetRepository.findByRef(datasetRef);
         Long datasetId;
         if (datasetData.isPresent()) {
@@ -98,7 +97,7 @@ public class ConsentController {
         RFC4180Parser csvParser = new RFC4180Parser();
         try (CSVReader reader = new CSVReaderBuilder(new StringReader(input)).withCSVParser(csvParser).build()) {
             String[] header = reader.readNext();
-            headerMap = service.buildCsvInputsHeaderMap(header);
+            headerMap = CSVUtility.buildCsvInputsHeaderMap(header);
             String[] coreConsentHeaders =
                 {"datasetRef", "consentCode", "description", "participantCount", "variableCount", "sampleCount", "authz"};
             if (!headerMap.keySet().containsAll(Arrays.asList(coreConsentHeaders))) {
@@ -5,6 +5,7 @@ import com.opencsv.CSVReaderBuilder;
 import com.opencsv.RFC4180Parser;
 import com.opencsv.exceptions.CsvException;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptPathIdCache;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptRepository;
 import edu.harvard.dbmi.avillach.dictionaryetl.consent.ConsentService;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetConceptRepository;
@@ -50,6 +51,8 @@ public class DatasetController {
     private DatasetService datasetService;
     @Autowired
     private FacetService facetService;
+    @Autowired
+    private ConceptPathIdCache conceptPathIdCache;
 
     @GetMapping("/dataset")
     public ResponseEntity<List<DatasetModel>> getAllDatasetModels() {
@@ -97,7 +100,6 @@ public class DatasetController {
     @Transactional
     @PutMapping("/dataset/csv")
     public ResponseEntity<Object> updateDatasetsFromCsv(@RequestBody String input) {
-        DatasetService datasetService = new DatasetService(datasetRepository);
         Map<String, Integer> headerMap;
         List<String> metaColumnNames = new ArrayList<>();
         List<String[]> datasets;
@@ -184,6 +186,7 @@ public class DatasetController {
     @DeleteMapping("/dataset/all")
     public ResponseEntity<String> deleteAllDatasets(@RequestParam String datasetRef) {
         datasetRepository.deleteAll();
+        conceptPathIdCache.invalidateAll();
         return new ResponseEntity<>("All datasets deleted", HttpStatus.OK);
     }
 
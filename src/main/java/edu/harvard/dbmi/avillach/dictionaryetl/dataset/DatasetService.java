@@ -1,6 +1,7 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.dataset;
 
 import edu.harvard.dbmi.avillach.dictionaryetl.Utility.CSVUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptPathIdCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -13,10 +14,12 @@ import java.util.Optional;
 public class DatasetService {
 
     private final DatasetRepository datasetRepository;
+    private final ConceptPathIdCache conceptPathIdCache;
 
     @Autowired
-    public DatasetService(DatasetRepository datasetRepository) {
+    public DatasetService(DatasetRepository datasetRepository, ConceptPathIdCache conceptPathIdCache) {
         this.datasetRepository = datasetRepository;
+        this.conceptPathIdCache = conceptPathIdCache;
     }
 
     @Transactional
@@ -55,7 +58,9 @@ public class DatasetService {
         return this.datasetRepository.getDatasetRefsSorted(datasetRefs);
     }
 
+    // The dataset's concepts go with it through the cascading foreign key
     public int deleteByRef(String datasetRef) {
+        this.conceptPathIdCache.invalidateAll();
         return this.datasetRepository.deleteByRef(datasetRef);
     }
 
@@ -0,0 +1,119 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds every occurrence of a fixed set of strings in a text in one pass over the text, whatever the number of
+ * strings. The automaton is built once and is immutable, so one instance can be searched from many threads.
+ */
+final class AhoCorasick {
+
+    private static final int[] NONE = new int[0];
+
+    // Transitions of state s are keys[s] (sorted) leading to targets[s]
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] fail;
+    // The patterns that end at each state, including those reached through its failure links
+    private final int[][] outputs;
+
+    /**
+     * @param patterns non-empty strings; a pattern's position in the list is the id passed to the search callback
+     */
+    AhoCorasick(List<String> patterns) {
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new HashMap<>());
+        ends.add(new ArrayList<>());
+        for (int id = 0; id < patterns.size(); id++) {
+            int state = 0;
+            for (char c : patterns.get(id).toCharArray()) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(c, next);
+                    trie.add(new HashMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            ends.get(state).add(id);
+        }
+
+        int states = trie.size();
+        keys = new char[states][];
+        targets = new int[states][];
+        for (int s = 0; s < states; s++) {
+            List<Map.Entry<Character, Integer>> edges = new ArrayList<>(trie.get(s).entrySet());
+            edges.sort(Map.Entry.comparingByKey());
+            keys[s] = new char[edges.size()];
+            targets[s] = new int[edges.size()];
+            for (int i = 0; i < edges.size(); i++) {
+                keys[s][i] = edges.get(i).getKey();
+                targets[s][i] = edges.get(i).getValue();
+            }
+        }
+
+        // Breadth first, so a state's failure target is finished before the state
+        fail = new int[states];
+        outputs = new int[states][];
+        outputs[0] = toArray(ends.get(0));
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            outputs[child] = toArray(ends.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < keys[state].length; i++) {
+                char c = keys[state][i];
+                int child = targets[state][i];
+                int f = fail[state];
+                while (f != 0 && next(f, c) < 0) {
+                    f = fail[f];
+                }
+                int target = next(f, c);
+                fail[child] = (target >= 0 && target != child) ? target : 0;
+                outputs[child] = merge(ends.get(child), outputs[fail[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Calls back with the id of each pattern found in the text, once per occurrence.
+     */
+    void search(String text, IntConsumer found) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int target;
+            while ((target = next(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = Math.max(target, 0);
+            for (int id : outputs[state]) {
+                found.accept(id);
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(keys[state], c);
+        return i >= 0 ? targets[state][i] : -1;
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        return ids.isEmpty() ? NONE : ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] merge(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] merged = Arrays.copyOf(toArray(own), own.size() + inherited.length);
+        System.arraycopy(inherited, 0, merged, own.size(), inherited.length);
+        return merged;
+    }
+}
@@ -0,0 +1,235 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetExpressionDTO;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The expression groups of a facet compiled once for matching many concept paths, with the same result as
+ * {@link FacetExpressionEvaluator#facetAppliesToConceptPathGrouped}: OR across groups, AND within each group.
+ * <p>
+ * Regexes are compiled once, and those without metacharacters become plain {@code contains} or {@code startsWith}
+ * checks. Expressions that address a node are checked by index before those that scan every node. A group that holds
+ * an empty expression or a regex that does not compile can never match and is dropped when compiled. Match against
+ * paths split once with {@link #splitConceptPath}. Immutable and thread safe.
+ */
+public final class CompiledFacetMatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledFacetMatcher.class);
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final CompiledFacetMatcher NEVER = new CompiledFacetMatcher(new Condition[0][]);
+
+    private final Condition[][] groups;
+
+    private CompiledFacetMatcher(Condition[][] groups) {
+        this.groups = groups;
+    }
+
+    public static CompiledFacetMatcher compile(List<List<FacetExpressionDTO>> groups) {
+        if (groups == null) {
+            return NEVER;
+        }
+        List<Condition[]> compiled = new ArrayList<>(groups.size());
+        for (List<FacetExpressionDTO> group : groups) {
+            Condition[] conditions = compileGroup(group);
+            if (conditions != null) {
+                compiled.add(conditions);
+            }
+        }
+        return compiled.isEmpty() ? NEVER : new CompiledFacetMatcher(compiled.toArray(Condition[][]::new));
+    }
+
+    /**
+     * @param nodes the nodes of a concept path, from {@link #splitConceptPath}
+     */
+    public boolean matches(String[] nodes) {
+        for (Condition[] group : groups) {
+            if (allMatch(group, nodes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean matches(String conceptPath) {
+        return matches(splitConceptPath(conceptPath));
+    }
+
+    /**
+     * @return false when no path can match, so the facet can be skipped
+     */
+    public boolean canMatch() {
+        return groups.length > 0;
+    }
+
+    // The compiled groups, for FacetMatcherIndex
+    Condition[][] groups() {
+        return groups;
+    }
+
+    /**
+     * Splits a HPDS-style concept path (e.g., "\\dataset\\group\\var\\") into its node segments, leaving out blank
+     * ones, in one pass over the path.
+     */
+    public static String[] splitConceptPath(String conceptPath) {
+        List<String> nodes = new ArrayList<>();
+        int start = 0;
+        int length = conceptPath.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || conceptPath.charAt(i) == '\\') {
+                if (!isBlank(conceptPath, start, i)) {
+                    nodes.add(conceptPath.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return nodes.toArray(String[]::new);
+    }
+
+    private static boolean isBlank(String value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean allMatch(Condition[] group, String[] nodes) {
+        for (Condition condition : group) {
+            if (!condition.matches(nodes)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns null for a group that can never match
+    private static Condition[] compileGroup(List<FacetExpressionDTO> group) {
+        if (group == null || group.isEmpty()) {
+            return null;
+        }
+        List<Condition> conditions = new ArrayList<>(group.size());
+        for (FacetExpressionDTO expr : group) {
+            NodeTest test = compileTest(expr);
+            if (test == null) {
+                return null;
+            }
+            conditions.add(new Condition(expr.node(), test));
+        }
+        conditions.sort(Comparator.comparingInt(Condition::cost));
+        return conditions.toArray(Condition[]::new);
+    }
+
+    // The same precedence as FacetExpressionEvaluator: exactly, then contains, then regex
+    private static NodeTest compileTest(FacetExpressionDTO expr) {
+        if (StringUtils.isNotBlank(expr.exactly())) {
+            return new Exactly(expr.exactly());
+        }
+        if (StringUtils.isNotBlank(expr.contains())) {
+            return new Contains(expr.contains());
+        }
+        if (StringUtils.isNotBlank(expr.regex())) {
+            String regex = expr.regex();
+            if (isLiteral(regex, 0)) {
+                return new Contains(regex);
+            }
+            if (regex.length() > 1 && regex.charAt(0) == '^' && isLiteral(regex, 1)) {
+                return new StartsWith(regex.substring(1));
+            }
+            try {
+                return new Regex(Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                logger.error("compile() - Expression {} - regex could not be compiled: {}", expr, regex);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLiteral(String regex, int from) {
+        for (int i = from; i < regex.length(); i++) {
+            if (REGEX_METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One expression: a test of the node at an index, or of any node when the index is null. Negative indexes count
+     * from the end.
+     */
+    record Condition(Integer node, NodeTest test) {
+
+        boolean matches(String[] nodes) {
+            if (node != null) {
+                int idx = node >= 0 ? node : nodes.length + node;
+                return idx >= 0 && idx < nodes.length && test.matches(nodes[idx]);
+            }
+            for (String nodeVal : nodes) {
+                if (test.matches(nodeVal)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int cost() {
+            return (node != null ? 0 : 4) + test.cost();
+        }
+    }
+
+    sealed interface NodeTest permits Exactly, Contains, StartsWith, Regex {
+        boolean matches(String nodeVal);
+
+        int cost();
+    }
+
+    record Exactly(String value) implements NodeTest {
+        public boolean matches(String nodeVal) {
+            return nodeVal.equals(value);
+        }
+
+        public int cost() {
+            return 0;
+        }
+    }
+
+    record Contains(String value) implements NodeTest {
+        public boolean matches(String nodeVal) {
+            return nodeVal.contains(value);
+        }
+
+        public int cost() {
+            return 2;
+        }
+    }
+
+    record StartsWith(String value) implements NodeTest {
+        public boolean matches(String nodeVal) {
+            return nodeVal.startsWith(value);
+        }
+
+        public int cost() {
+            return 1;
+        }
+    }
+
+    record Regex(Pattern pattern) implements NodeTest {
+        public boolean matches(String nodeVal) {
+            return pattern.matcher(nodeVal).find();
+        }
+
+        public int cost() {
+            return 3;
+        }
+    }
+}
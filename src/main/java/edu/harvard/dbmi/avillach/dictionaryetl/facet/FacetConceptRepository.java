@@ -3,6 +3,7 @@ package edu.harvard.dbmi.avillach.dictionaryetl.facet;
 import java.util.List;
 import java.util.Optional;
 
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetMappingCount;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetConceptModel;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -69,6 +70,14 @@ public interface FacetConceptRepository extends JpaRepository<FacetConceptModel,
             """, nativeQuery = true)
     long countForFacet(@Param("facetId") Long facetId);
 
+    @Query(value = """
+            SELECT facet_id AS facetId, COUNT(*) AS mappings
+            FROM dict.facet__concept_node
+            WHERE facet_id = ANY(:facetIds)
+            GROUP BY facet_id
+            """, nativeQuery = true)
+    List<FacetMappingCount> countByFacetIds(@Param("facetIds") Long[] facetIds);
+
     @Modifying
     @Transactional
     @Query(value = """
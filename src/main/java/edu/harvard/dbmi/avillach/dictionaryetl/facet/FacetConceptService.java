@@ -5,6 +5,7 @@ import com.opencsv.CSVReaderBuilder;
 import com.opencsv.RFC4180Parser;
 import com.opencsv.exceptions.CsvException;
 import edu.harvard.dbmi.avillach.dictionaryetl.Utility.CSVUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptPathIdCache;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptRepository;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetConceptModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetModel;
@@ -38,6 +39,9 @@ public class FacetConceptService {
     @Autowired
     ConceptRepository conceptRepository;
 
+    @Autowired
+    ConceptPathIdCache conceptPathIdCache;
+
     @Autowired
     public FacetConceptService(FacetConceptRepository facetConceptRepository) {
         this.facetConceptRepository = facetConceptRepository;
@@ -98,12 +102,12 @@ public class FacetConceptService {
     public ResponseEntity<FacetConceptModel> addConceptFacet(String facetName, String conceptPath) {
         try {
             Optional<FacetModel> facet = facetRepository.findByName(facetName);
-            var concept = conceptRepository.findByConceptPath(conceptPath);
+            Optional<Long> concept = conceptPathIdCache.findId(conceptPath);
             if (facet.isEmpty() || concept.isEmpty()) {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
             Long facetId = facet.get().getFacetId();
-            Long conceptNodeId = concept.get().getConceptNodeId();
+            Long conceptNodeId = concept.get();
 
             Optional<FacetConceptModel> conceptFacet = facetConceptRepository.findByFacetIdAndConceptNodeId(facetId, conceptNodeId);
             if (conceptFacet.isEmpty()) {
@@ -173,12 +177,12 @@ public class FacetConceptService {
     @Transactional
     public ResponseEntity<FacetConceptModel> deleteConceptFacet(String facetName, String conceptPath) {
         Optional<FacetModel> facet = facetRepository.findByName(facetName);
-        var concept = conceptRepository.findByConceptPath(conceptPath);
+        Optional<Long> concept = conceptPathIdCache.findId(conceptPath);
         if (facet.isEmpty() || concept.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
         Long facetId = facet.get().getFacetId();
-        Long conceptNodeId = concept.get().getConceptNodeId();
+        Long conceptNodeId = concept.get();
         Optional<FacetConceptModel> mapping = facetConceptRepository.findByFacetIdAndConceptNodeId(facetId, conceptNodeId);
         if (mapping.isPresent()) {
             facetConceptRepository.delete(mapping.get());
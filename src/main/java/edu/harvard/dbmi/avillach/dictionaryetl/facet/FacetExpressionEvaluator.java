@@ -6,7 +6,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -114,7 +113,7 @@ public final class FacetExpressionEvaluator {
      * Splits a HPDS-style concept path (e.g., "\\dataset\\group\\var\\") into its node segments.
      */
     static List<String> splitConceptPath(String conceptPath) {
-        return Arrays.stream(conceptPath.split("\\\\")).filter(StringUtils::isNotBlank).toList();
+        return List.of(CompiledFacetMatcher.splitConceptPath(conceptPath));
     }
 
 }
\ No newline at end of file
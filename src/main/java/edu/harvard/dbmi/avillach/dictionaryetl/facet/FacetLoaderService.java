@@ -3,6 +3,7 @@ package edu.harvard.dbmi.avillach.dictionaryetl.facet;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptNodeIdRange;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptRepository;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.*;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetModel;
@@ -14,12 +15,18 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 /**
@@ -41,6 +48,14 @@ public class FacetLoaderService {
     private final FacetMetadataRepository facetMetadataRepository;
     private final ObjectMapper objectMapper;
 
+    // Leaf concept id ranges matched at once, and the full mapping batches that may wait for the writer
+    private final TransactionTemplate readTransaction;
+    private final int mappingPartitions;
+    private static final int MAX_PENDING_MAPPING_BATCHES = 64;
+    // Leaf facet groups translated to SQL are mapped without streaming the concept paths
+    private final FacetSqlPushdown facetSqlPushdown;
+    private final boolean sqlPushdown;
+
     // New: grouped metadata keys
     public static final String KEY_FACET_EXPRESSION_GROUPS = "facet_loader.expression_groups";
     protected static final String KEY_FACET_EXPRESSION_GROUPS_HASH = "facet_loader.expression_groups_sha256hex";
@@ -52,7 +67,10 @@ public class FacetLoaderService {
     public FacetLoaderService(FacetCategoryRepository facetCategoryRepository, FacetRepository facetRepository,
                               ConceptRepository conceptRepository, FacetConceptRepository facetConceptRepository,
                               FacetMetadataRepository facetMetadataRepository, FacetCategoryMetaRepository facetCategoryMetaRepo,
-                              ObjectMapper objectMapper) {
+                              ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                              @Value("${dictionary.facet.mapping.partitions:4}") int mappingPartitions,
+                              FacetSqlPushdown facetSqlPushdown,
+                              @Value("${dictionary.facet.mapping.sql-pushdown:true}") boolean sqlPushdown) {
         this.facetCategoryRepository = facetCategoryRepository;
         this.facetRepository = facetRepository;
         this.conceptRepository = conceptRepository;
@@ -60,6 +78,11 @@ public class FacetLoaderService {
         this.facetMetadataRepository = facetMetadataRepository;
         this.facetCategoryMetaRepository = facetCategoryMetaRepo;
         this.objectMapper = objectMapper.copy().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.mappingPartitions = (mappingPartitions > 0) ? mappingPartitions : Runtime.getRuntime().availableProcessors();
+        this.facetSqlPushdown = facetSqlPushdown;
+        this.sqlPushdown = sqlPushdown;
     }
 
     @Transactional
@@ -149,6 +172,7 @@ public class FacetLoaderService {
         Set<Long> toClear = new HashSet<>();
         Map<Long, String> nameById = new HashMap<>();
         Map<Long, String> categoryById = new HashMap<>();
+        List<PendingFacet> rootFacets = new ArrayList<>();
 
         for (FacetCategoryWrapper wrapper : payload) {
             if (wrapper == null || wrapper.facetCategory() == null) {
@@ -189,29 +213,20 @@ public class FacetLoaderService {
             // If metadata was included, update or add
             updateFacetCategoryMetadata(category, facetCategory.metadata());
 
-            // Recursively process facets (collect only; single-pass mapping later)
+            // Queue the top level facets; the tree is upserted a level at a time below
             if (facetCategory.facets() != null) {
                 for (FacetDTO f : facetCategory.facets()) {
-                    Counts c = upsertFacetRecursiveCollect(
-                            category.getFacetCategoryId(),
-                            null,
-                            f,
-                            category.getName(),
-                            accum.createdFacetNames(),
-                            leafFacets,
-                            childrenByParent,
-                            depthByFacet,
-                            toClear,
-                            nameById,
-                            categoryById,
-                            List.of()
-                    );
-                    facetsCreated += c.created();
-                    facetsUpdated += c.updated();
+                    rootFacets.add(new PendingFacet(f, category.getFacetCategoryId(), category.getName(), null,
+                            accum.createdFacetNames(), List.of()));
                 }
             }
         }
 
+        // Upsert facets and metadata (collect only; single-pass mapping later)
+        Counts c = upsertFacetsCollect(rootFacets, leafFacets, childrenByParent, depthByFacet, toClear, nameById, categoryById);
+        facetsCreated += c.created();
+        facetsUpdated += c.updated();
+
         // Clear mappings for facets whose effective expression groups changed/new
         facetConceptRepository.deleteAllForFacetIds(new ArrayList<>(toClear));
 
@@ -222,9 +237,14 @@ public class FacetLoaderService {
         rebuildParentsBottomUp(childrenByParent, depthByFacet);
 
         // Populate mapping breakdown counts for all facets
+        Map<Long, Long> mappedCounts = new HashMap<>();
+        if (!nameById.isEmpty()) {
+            facetConceptRepository.countByFacetIds(nameById.keySet().toArray(Long[]::new))
+                    .forEach(row -> mappedCounts.put(row.getFacetId(), row.getMappings()));
+        }
         for (Map.Entry<Long, String> e : nameById.entrySet()) {
             Long facetId = e.getKey();
-            long mappedCount = facetConceptRepository.countForFacet(facetId);
+            long mappedCount = mappedCounts.getOrDefault(facetId, 0L);
             String facetName = e.getValue();
             String categoryName = categoryById.get(facetId);
             accum.facetMappings().add(new FacetMappingBreakdown(categoryName, facetName, mappedCount));
@@ -258,165 +278,330 @@ public class FacetLoaderService {
         }
     }
 
-    // Collect-only recursion: upsert facets and metadata; gather leaves/structure for single-pass mapping
-    private Counts upsertFacetRecursiveCollect(
-            Long categoryId,
-            Long parentId,
-            FacetDTO facetDTO,
-            String categoryName,
-            List<FacetNameNested> createdCollector,
+    // Collect-only: upsert facets and metadata a tree level at a time; gather leaves/structure for single-pass mapping.
+    // Each round is one facet update, one facet insert and one metadata upsert, whatever its number of facets.
+    private Counts upsertFacetsCollect(
+            List<PendingFacet> rootFacets,
             List<LeafFacetSpec> leafFacets,
             Map<Long, List<Long>> childrenByParent,
             Map<Long, Integer> depthByFacet,
             Set<Long> toClear,
             Map<Long, String> nameById,
-            Map<Long, String> categoryById,
-            List<List<FacetExpressionDTO>> inheritedGroups
+            Map<Long, String> categoryById
     ) {
-        if (facetDTO == null) {
-            return new Counts(0, 0);
+        // Prefetch the existing facets of every name in the payload, and their effective expression hashes
+        Set<String> names = new HashSet<>();
+        collectFacetNames(rootFacets.stream().map(PendingFacet::facet).toList(), names);
+        Map<String, Long> idByName = new HashMap<>();
+        Map<Long, String> effectiveHashById = new HashMap<>();
+        if (!names.isEmpty()) {
+            facetRepository.findIdsByNames(names.toArray(String[]::new))
+                    .forEach(row -> idByName.putIfAbsent(row.getName(), row.getFacetId()));
         }
-
-        String name = facetDTO.name();
-        if (StringUtils.isBlank(name)) {
-            logger.warn("upsertFacetRecursive - Facet name must not be blank. Facet: {}", facetDTO);
-            return new Counts(0, 0);
+        if (!idByName.isEmpty()) {
+            facetMetadataRepository.findValues(idByName.values().toArray(Long[]::new), KEY_EFFECTIVE_EXPRESSION_GROUPS_HASH)
+                    .forEach(row -> effectiveHashById.put(row.getFacetId(), row.getValue()));
         }
-        String display = StringUtils.defaultIfBlank(facetDTO.display(), name);
-        String description = StringUtils.defaultIfBlank(facetDTO.description(), "");
 
-        Optional<FacetModel> optFacet = facetRepository.findByName(name);
-        FacetModel facet;
         int created = 0;
         int updated = 0;
-        FacetNameNested createdNode = null;
-        if (optFacet.isPresent()) {
-            facet = optFacet.get();
-            facet.setFacetCategoryId(categoryId);
-            facet.setName(name);
-            facet.setDisplay(display);
-            facet.setDescription(description);
-            facet.setParentId(parentId);
-            facetRepository.save(facet);
-            updated++;
-        } else {
-            facet = new FacetModel(categoryId, name, display, description, parentId);
-            facetRepository.save(facet);
-            created++;
-            createdNode = new FacetNameNested(name);
-            createdCollector.add(createdNode);
-        }
+        List<PendingFacet> round = rootFacets;
+        while (!round.isEmpty()) {
+            // A name repeated in the payload waits for the next round, so the last one processed wins
+            List<PendingFacet> batch = new ArrayList<>();
+            List<PendingFacet> next = new ArrayList<>();
+            Set<String> batchNames = new HashSet<>();
+            for (PendingFacet pending : round) {
+                if (pending.facet() == null) {
+                    continue;
+                }
+                if (StringUtils.isBlank(pending.facet().name())) {
+                    logger.warn("upsertFacetsCollect - Facet name must not be blank. Facet: {}", pending.facet());
+                    continue;
+                }
+                (batchNames.add(pending.facet().name()) ? batch : next).add(pending);
+            }
 
-        List<List<FacetExpressionDTO>> parentGroups = inheritedGroups.isEmpty() ? List.of(List.of()) : inheritedGroups;
+            Set<String> createdNames = upsertFacets(batch, idByName);
+
+            List<Long> metaFacetIds = new ArrayList<>();
+            List<String> metaKeys = new ArrayList<>();
+            List<String> metaValues = new ArrayList<>();
+            for (PendingFacet pending : batch) {
+                FacetDTO facetDTO = pending.facet();
+                String name = facetDTO.name();
+                Long facetId = idByName.get(name);
+                FacetNameNested createdNode = null;
+                if (createdNames.contains(name)) {
+                    created++;
+                    createdNode = new FacetNameNested(name);
+                    pending.createdCollector().add(createdNode);
+                } else {
+                    updated++;
+                }
 
-        List<List<FacetExpressionDTO>> ownGroups = facetDTO.expressionGroups() != null
-                ? facetDTO.expressionGroups()
-                : List.of(List.of());
+                List<List<FacetExpressionDTO>> inheritedGroups = pending.inheritedGroups();
+                List<List<FacetExpressionDTO>> parentGroups = inheritedGroups.isEmpty() ? List.of(List.of()) : inheritedGroups;
 
-        List<List<FacetExpressionDTO>> effectiveGroups = new ArrayList<>();
-        for (List<FacetExpressionDTO> pg : parentGroups) {
-            for (List<FacetExpressionDTO> og : ownGroups) {
-                List<FacetExpressionDTO> merged = new ArrayList<>(pg);
-                merged.addAll(og);
-                effectiveGroups.add(merged);
+                List<List<FacetExpressionDTO>> ownGroups = facetDTO.expressionGroups() != null
+                        ? facetDTO.expressionGroups()
+                        : List.of(List.of());
+
+                List<List<FacetExpressionDTO>> effectiveGroups = new ArrayList<>();
+                for (List<FacetExpressionDTO> pg : parentGroups) {
+                    for (List<FacetExpressionDTO> og : ownGroups) {
+                        List<FacetExpressionDTO> merged = new ArrayList<>(pg);
+                        merged.addAll(og);
+                        effectiveGroups.add(merged);
+                    }
+                }
+
+                try {
+                    String ownGroupsJson = canonicalizeExpressionGroups(facetDTO.expressionGroups());
+                    String ownGroupsHash = sha256Hex(ownGroupsJson);
+
+                    // Persist effective groups and hash; collect for clear if changed
+                    String effectiveGroupsJson = canonicalizeExpressionGroups(effectiveGroups);
+                    String effectiveGroupsHash = sha256Hex(effectiveGroupsJson);
+                    String prevEffectiveGroupsHash = effectiveHashById.put(facetId, effectiveGroupsHash);
+                    boolean effectiveGroupsChanged = (prevEffectiveGroupsHash == null) || !prevEffectiveGroupsHash.equals(effectiveGroupsHash);
+                    if (effectiveGroupsChanged) {
+                        toClear.add(facetId);
+                    }
+                    for (String[] meta : new String[][]{
+                            {KEY_FACET_EXPRESSION_GROUPS, ownGroupsJson},
+                            {KEY_FACET_EXPRESSION_GROUPS_HASH, ownGroupsHash},
+                            {KEY_EFFECTIVE_EXPRESSION_GROUPS, effectiveGroupsJson},
+                            {KEY_EFFECTIVE_EXPRESSION_GROUPS_HASH, effectiveGroupsHash}}) {
+                        metaFacetIds.add(facetId);
+                        metaKeys.add(meta[0]);
+                        metaValues.add(meta[1]);
+                    }
+                } catch (JsonProcessingException ex) {
+                    logger.warn("upsertFacetsCollect - unable to map JSON expression - {}", ex.getMessage());
+                }
+
+                // names and category for reporting later
+                nameById.put(facetId, name);
+                categoryById.put(facetId, pending.categoryName());
+
+                // depth and tree structure
+                Long parentId = pending.parentId();
+                int parentDepth = depthByFacet.getOrDefault(parentId, -1);
+                depthByFacet.put(facetId, parentDepth + 1);
+                if (parentId != null) {
+                    childrenByParent.computeIfAbsent(parentId, k -> new ArrayList<>()).add(facetId);
+                }
+
+                boolean hasChildren = facetDTO.facets() != null && !facetDTO.facets().isEmpty();
+                if (!hasChildren) {
+                    // Collect leaf facet for single-pass mapping
+                    leafFacets.add(new LeafFacetSpec(facetId, effectiveGroups));
+                } else {
+                    // Queue the children for the next round
+                    List<FacetNameNested> nextCollector = (createdNode != null) ? createdNode.facets : pending.createdCollector();
+                    for (FacetDTO child : facetDTO.facets()) {
+                        next.add(new PendingFacet(child, pending.categoryId(), pending.categoryName(), facetId,
+                                nextCollector, effectiveGroups));
+                    }
+                }
             }
-        }
 
-        try {
-            String ownGroupsJson = canonicalizeExpressionGroups(facetDTO.expressionGroups());
-            String ownGroupsHash = sha256Hex(ownGroupsJson);
-            upsertFacetMeta(facet.getFacetId(), KEY_FACET_EXPRESSION_GROUPS, ownGroupsJson);
-            upsertFacetMeta(facet.getFacetId(), KEY_FACET_EXPRESSION_GROUPS_HASH, ownGroupsHash);
-
-            // Persist effective groups and hash; collect for clear if changed
-            String effectiveGroupsJson = canonicalizeExpressionGroups(effectiveGroups);
-            String effectiveGroupsHash = sha256Hex(effectiveGroupsJson);
-            String prevEffectiveGroupsHash = getFacetMeta(facet.getFacetId());
-            boolean effectiveGroupsChanged = (prevEffectiveGroupsHash == null) || !prevEffectiveGroupsHash.equals(effectiveGroupsHash);
-            if (effectiveGroupsChanged) {
-                toClear.add(facet.getFacetId());
+            if (!metaFacetIds.isEmpty()) {
+                facetMetadataRepository.upsertAll(metaFacetIds.toArray(Long[]::new), metaKeys.toArray(String[]::new),
+                        metaValues.toArray(String[]::new));
             }
-            upsertFacetMeta(facet.getFacetId(), KEY_EFFECTIVE_EXPRESSION_GROUPS, effectiveGroupsJson);
-            upsertFacetMeta(facet.getFacetId(), KEY_EFFECTIVE_EXPRESSION_GROUPS_HASH, effectiveGroupsHash);
-        } catch (JsonProcessingException ex) {
-            logger.warn("upsertFacetRecursive - unable to map JSON expression - {}", ex.getMessage());
+            round = next;
         }
 
-        // names and category for reporting later
-        nameById.put(facet.getFacetId(), name);
-        categoryById.put(facet.getFacetId(), categoryName);
+        return new Counts(created, updated);
+    }
 
-        // depth and tree structure
-        int parentDepth = depthByFacet.getOrDefault(parentId, -1);
-        depthByFacet.put(facet.getFacetId(), parentDepth + 1);
-        if (parentId != null) {
-            childrenByParent.computeIfAbsent(parentId, k -> new ArrayList<>()).add(facet.getFacetId());
+    // Updates the facets whose names exist and inserts the rest, adding their ids. Returns the names inserted.
+    private Set<String> upsertFacets(List<PendingFacet> batch, Map<String, Long> idByName) {
+        List<PendingFacet> updates = new ArrayList<>();
+        List<PendingFacet> inserts = new ArrayList<>();
+        for (PendingFacet pending : batch) {
+            (idByName.containsKey(pending.facet().name()) ? updates : inserts).add(pending);
         }
 
-        boolean hasChildren = facetDTO.facets() != null && !facetDTO.facets().isEmpty();
-        if (!hasChildren) {
-            // Collect leaf facet for single-pass mapping
-            leafFacets.add(new LeafFacetSpec(facet.getFacetId(), effectiveGroups));
-        } else {
-            // Recurse into children
-            for (FacetDTO child : facetDTO.facets()) {
-                List<FacetNameNested> nextCollector = (createdNode != null) ? createdNode.facets : createdCollector;
-                Counts c = upsertFacetRecursiveCollect(
-                        categoryId,
-                        facet.getFacetId(),
-                        child,
-                        categoryName,
-                        nextCollector,
-                        leafFacets,
-                        childrenByParent,
-                        depthByFacet,
-                        toClear,
-                        nameById,
-                        categoryById,
-                        effectiveGroups
-                );
-                created += c.created();
-                updated += c.updated();
-            }
+        if (!updates.isEmpty()) {
+            facetRepository.updateAll(
+                    updates.stream().map(p -> idByName.get(p.facet().name())).toArray(Long[]::new),
+                    updates.stream().map(PendingFacet::categoryId).toArray(Long[]::new),
+                    updates.stream().map(p -> StringUtils.defaultIfBlank(p.facet().display(), p.facet().name())).toArray(String[]::new),
+                    updates.stream().map(p -> StringUtils.defaultIfBlank(p.facet().description(), "")).toArray(String[]::new),
+                    updates.stream().map(PendingFacet::parentId).toArray(Long[]::new)
+            );
         }
 
-        return new Counts(created, updated);
+        Set<String> createdNames = new HashSet<>();
+        if (!inserts.isEmpty()) {
+            facetRepository.insertAll(
+                    inserts.stream().map(PendingFacet::categoryId).toArray(Long[]::new),
+                    inserts.stream().map(p -> p.facet().name()).toArray(String[]::new),
+                    inserts.stream().map(p -> StringUtils.defaultIfBlank(p.facet().display(), p.facet().name())).toArray(String[]::new),
+                    inserts.stream().map(p -> StringUtils.defaultIfBlank(p.facet().description(), "")).toArray(String[]::new),
+                    inserts.stream().map(PendingFacet::parentId).toArray(Long[]::new)
+            ).forEach(row -> {
+                idByName.put(row.getName(), row.getFacetId());
+                createdNames.add(row.getName());
+            });
+        }
+        return createdNames;
     }
 
+    private static void collectFacetNames(List<FacetDTO> facets, Set<String> names) {
+        for (FacetDTO facet : facets) {
+            if (facet == null) {
+                continue;
+            }
+            if (StringUtils.isNotBlank(facet.name())) {
+                names.add(facet.name());
+            }
+            if (facet.facets() != null) {
+                collectFacetNames(facet.facets(), names);
+            }
+        }
+    }
 
     private void singlePassMapLeaves(List<LeafFacetSpec> leafFacets) {
         if (leafFacets.isEmpty()) {
             return;
         }
 
-        // Prepare buffers per facet
-        Map<Long, List<Long>> buffers = new HashMap<>();
-        final int BATCH = 1000;
+        // Compile each leaf's expressions once, rather than for every concept. Groups that SQL can evaluate are
+        // mapped in the database; as groups are ORed, the rest can be matched in Java separately.
+        List<Long> facetIds = new ArrayList<>(leafFacets.size());
+        List<CompiledFacetMatcher> matchers = new ArrayList<>(leafFacets.size());
+        List<Long> sqlFacetIds = new ArrayList<>();
+        List<CompiledFacetMatcher> sqlMatchers = new ArrayList<>();
+        for (LeafFacetSpec lf : leafFacets) {
+            List<List<FacetExpressionDTO>> sqlGroups = new ArrayList<>();
+            List<List<FacetExpressionDTO>> javaGroups = new ArrayList<>();
+            for (List<FacetExpressionDTO> group : Objects.requireNonNullElse(lf.groups(), List.<List<FacetExpressionDTO>>of())) {
+                boolean inSql = sqlPushdown
+                        && facetSqlPushdown.translatable(CompiledFacetMatcher.compile(Collections.singletonList(group)));
+                (inSql ? sqlGroups : javaGroups).add(group);
+            }
+            if (!sqlGroups.isEmpty()) {
+                sqlFacetIds.add(lf.facetId());
+                sqlMatchers.add(CompiledFacetMatcher.compile(sqlGroups));
+            }
+            CompiledFacetMatcher matcher = CompiledFacetMatcher.compile(javaGroups);
+            if (matcher.canMatch()) {
+                facetIds.add(lf.facetId());
+                matchers.add(matcher);
+            }
+        }
+        if (!sqlMatchers.isEmpty()) {
+            int mapped = facetSqlPushdown.map(sqlFacetIds, sqlMatchers);
+            logger.info("singlePassMapLeaves() - Mapped {} concepts to {} leaf facets in SQL; {} facets need the Java matcher",
+                    mapped, sqlFacetIds.size(), facetIds.size());
+        }
 
-        Stream<ConceptPathRow> rows = conceptRepository.streamLeafNodeIdAndPath();
-        Iterator<ConceptPathRow> it = rows.iterator();
-        while (it.hasNext()) {
-            ConceptPathRow row = it.next();
-            long conceptId = row.getConceptNodeId();
-            String path = row.getConceptPath();
-
-            for (LeafFacetSpec lf : leafFacets) {
-                if (FacetExpressionEvaluator.facetAppliesToConceptPathGrouped(lf.groups(), path)) {
-                    List<Long> buf = buffers.computeIfAbsent(lf.facetId(), k -> new ArrayList<>(BATCH));
-                    buf.add(conceptId);
-                    if (buf.size() >= BATCH) {
-                        facetConceptRepository.bulkMap(lf.facetId(), buf);
-                        buf.clear();
+        ConceptNodeIdRange idRange = conceptRepository.findConceptNodeIdRange();
+        if (matchers.isEmpty() || idRange == null || idRange.getMinId() == null) {
+            return;
+        }
+
+        // Only test each concept against the facets whose index keys its path hits
+        FacetMatcherIndex index = new FacetMatcherIndex(matchers);
+
+        // Each id range is matched on its own thread and connection. The mappings are written here, in the load
+        // transaction, as they reference facets it has not committed yet.
+        BlockingQueue<LeafMappingBatch> pending = new ArrayBlockingQueue<>(MAX_PENDING_MAPPING_BATCHES);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletableFuture<?>[] scans = partition(idRange.getMinId(), idRange.getMaxId() + 1, mappingPartitions).stream()
+                    .map(range -> CompletableFuture
+                            .runAsync(() -> mapLeafRange(range[0], range[1], index, facetIds, pending, stopped), executor)
+                            .whenComplete((ignored, e) -> {
+                                if (e != null) {
+                                    failure.compareAndSet(null, e instanceof CompletionException ? e.getCause() : e);
+                                    stopped.set(true);
+                                }
+                            }))
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture<Void> scanned = CompletableFuture.allOf(scans);
+            try {
+                while ((!scanned.isDone() || !pending.isEmpty()) && failure.get() == null) {
+                    LeafMappingBatch batch = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        facetConceptRepository.bulkMap(batch.facetId(), batch.conceptNodeIds());
                     }
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while mapping leaf facets", e);
+            } finally {
+                stopped.set(true);
             }
         }
+        if (failure.get() instanceof RuntimeException e) {
+            throw e;
+        } else if (failure.get() != null) {
+            throw new IllegalStateException("Leaf facet mapping failed", failure.get());
+        }
+    }
+
+    // Matches the leaf concepts with fromId <= id < toId, handing each full batch of mappings to the writer
+    private void mapLeafRange(long fromId, long toId, FacetMatcherIndex index, List<Long> facetIds,
+                              BlockingQueue<LeafMappingBatch> pending, AtomicBoolean stopped) {
+        FacetMatcherIndex.Search search = index.newSearch();
+        Map<Long, List<Long>> buffers = new HashMap<>();
+        final int BATCH = 1000;
+
+        readTransaction.executeWithoutResult(status -> {
+            try (Stream<ConceptPathRow> rows = conceptRepository.streamLeafNodeIdAndPathInRange(fromId, toId)) {
+                Iterator<ConceptPathRow> it = rows.iterator();
+                while (it.hasNext() && !stopped.get()) {
+                    ConceptPathRow row = it.next();
+                    long conceptId = row.getConceptNodeId();
+                    String[] nodes = CompiledFacetMatcher.splitConceptPath(row.getConceptPath());
+
+                    search.matches(nodes, i -> {
+                        Long facetId = facetIds.get(i);
+                        List<Long> buf = buffers.computeIfAbsent(facetId, k -> new ArrayList<>(BATCH));
+                        buf.add(conceptId);
+                        if (buf.size() >= BATCH) {
+                            handOff(pending, new LeafMappingBatch(facetId, buf), stopped);
+                            buffers.remove(facetId);
+                        }
+                    });
+                }
+            }
+        });
 
         for (Map.Entry<Long, List<Long>> e : buffers.entrySet()) {
-            if (!e.getValue().isEmpty()) {
-                facetConceptRepository.bulkMap(e.getKey(), e.getValue());
+            handOff(pending, new LeafMappingBatch(e.getKey(), e.getValue()), stopped);
+        }
+    }
+
+    // Waits for room in the writer's queue, unless the mapping has stopped
+    private static void handOff(BlockingQueue<LeafMappingBatch> pending, LeafMappingBatch batch, AtomicBoolean stopped) {
+        try {
+            while (!pending.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (stopped.get()) {
+                    throw new CancellationException("Leaf facet mapping stopped");
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while mapping leaf facets");
+        }
+    }
+
+    // Splits [fromId, toId) into at most count ranges of about equal width
+    static List<long[]> partition(long fromId, long toId, int count) {
+        long width = toId - fromId;
+        int ranges = (int) Math.max(1, Math.min(count, width));
+        List<long[]> partitions = new ArrayList<>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            partitions.add(new long[]{fromId + width * i / ranges, fromId + width * (i + 1) / ranges});
         }
+        return partitions;
     }
 
     private void rebuildParentsBottomUp(Map<Long, List<Long>> childrenByParent, Map<Long, Integer> depthByFacet) {
@@ -440,14 +625,6 @@ public class FacetLoaderService {
         return objectMapper.writeValueAsString(groups);
     }
 
-    private void upsertFacetMeta(Long facetId, String key, String value) {
-        facetMetadataRepository.upsert(facetId, key, value);
-    }
-
-    private String getFacetMeta(Long facetId) {
-        return facetMetadataRepository.findValue(facetId, FacetLoaderService.KEY_EFFECTIVE_EXPRESSION_GROUPS_HASH).orElse(null);
-    }
-
     private static String sha256Hex(String s) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
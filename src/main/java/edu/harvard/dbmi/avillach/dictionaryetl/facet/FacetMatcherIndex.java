@@ -0,0 +1,220 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Condition;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Contains;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Exactly;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Regex;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.StartsWith;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds which of many compiled facets match a concept path without testing every facet. Each group of each facet is
+ * indexed by one condition the group cannot match without: an {@code exactly} on a node position, an {@code exactly}
+ * on any node, or a literal the node must contain, found with {@link AhoCorasick}. A path only has the facets whose
+ * key it hits tested in full. Facets with a group of regexes that have no required literal cannot be keyed and are
+ * tested for every path.
+ * <p>
+ * The index is immutable; use one {@link Search} per thread.
+ */
+public final class FacetMatcherIndex {
+
+    private final CompiledFacetMatcher[] matchers;
+    // Node position, then node value, to the facets keyed on it. Negative positions count from the end.
+    private final int[] positions;
+    private final List<Map<String, int[]>> exactByPosition;
+    private final Map<String, int[]> exactAnyNode;
+    private final AhoCorasick literals;
+    private final int[][] facetsByLiteral;
+    private final int[] unkeyed;
+
+    /**
+     * @param matchers the facets; a facet's position in the list is the index passed to the search callback
+     */
+    public FacetMatcherIndex(List<CompiledFacetMatcher> matchers) {
+        this.matchers = matchers.toArray(CompiledFacetMatcher[]::new);
+        Map<Integer, Map<String, Set<Integer>>> byPosition = new TreeMap<>();
+        Map<String, Set<Integer>> anyNode = new HashMap<>();
+        Map<String, Set<Integer>> byLiteral = new LinkedHashMap<>();
+        Set<Integer> fallback = new TreeSet<>();
+
+        for (int facet = 0; facet < this.matchers.length; facet++) {
+            for (Condition[] group : this.matchers[facet].groups()) {
+                Condition key = key(group);
+                if (key == null) {
+                    fallback.add(facet);
+                } else if (key.test() instanceof Exactly exactly && key.node() != null) {
+                    byPosition.computeIfAbsent(key.node(), k -> new HashMap<>())
+                            .computeIfAbsent(exactly.value(), k -> new HashSet<>()).add(facet);
+                } else if (key.test() instanceof Exactly exactly) {
+                    anyNode.computeIfAbsent(exactly.value(), k -> new HashSet<>()).add(facet);
+                } else {
+                    byLiteral.computeIfAbsent(literal(key), k -> new HashSet<>()).add(facet);
+                }
+            }
+        }
+
+        positions = byPosition.keySet().stream().mapToInt(Integer::intValue).toArray();
+        exactByPosition = byPosition.values().stream().map(FacetMatcherIndex::toArrays).toList();
+        exactAnyNode = toArrays(anyNode);
+        literals = new AhoCorasick(new ArrayList<>(byLiteral.keySet()));
+        facetsByLiteral = byLiteral.values().stream().map(FacetMatcherIndex::toArray).toArray(int[][]::new);
+        unkeyed = toArray(fallback);
+    }
+
+    public Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * @return the facets tested against every path, as they have a group no key could be taken from
+     */
+    public int unkeyedFacets() {
+        return unkeyed.length;
+    }
+
+    // The most selective condition of the group that can be indexed, or null if none can
+    private static Condition key(Condition[] group) {
+        Condition best = null;
+        int bestRank = Integer.MAX_VALUE;
+        for (Condition condition : group) {
+            int rank;
+            if (condition.test() instanceof Exactly) {
+                rank = condition.node() != null ? 0 : 1;
+            } else if (literal(condition) != null) {
+                // Longer literals hit fewer nodes
+                rank = 2 + Math.max(0, 1000 - literal(condition).length());
+            } else {
+                continue;
+            }
+            if (rank < bestRank) {
+                best = condition;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    // A string every node the condition matches contains, or null if there is none
+    private static String literal(Condition condition) {
+        return switch (condition.test()) {
+            case Contains contains -> contains.value();
+            case StartsWith startsWith -> startsWith.value();
+            case Regex regex -> requiredLiteral(regex.pattern().pattern());
+            case Exactly exactly -> exactly.value();
+        };
+    }
+
+    /**
+     * The longest run of plain characters outside any group or class that a match of the regex must contain, e.g.
+     * {@code phs0000} for {@code ^phs0000[0-9]1}. Regexes with escapes, alternation or flags are not looked into.
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.indexOf('\\') >= 0 || regex.indexOf('|') >= 0 || regex.contains("(?")) {
+            return null;
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int groupDepth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (classDepth > 0 || c == '[') {
+                classDepth += (c == '[') ? 1 : (c == ']') ? -1 : 0;
+            } else if (c == '(') {
+                groupDepth++;
+            } else if (c == ')') {
+                groupDepth--;
+            } else if (groupDepth == 0 && ".^$*+?{}".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            } else if (groupDepth == 0 && (c == '?' || c == '*' || c == '{') && !run.isEmpty()) {
+                // The character before an optional quantifier may not be there
+                run.setLength(run.length() - 1);
+            }
+            if (c == '{' && classDepth == 0) {
+                i = Math.max(i, regex.indexOf('}', i));
+            }
+            if (run.length() > best.length()) {
+                best = run.toString();
+            }
+            run.setLength(0);
+        }
+        if (run.length() > best.length()) {
+            best = run.toString();
+        }
+        return best.isEmpty() ? null : best;
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, Set<Integer>> facets) {
+        Map<String, int[]> arrays = new HashMap<>(facets.size() * 2);
+        facets.forEach((value, ids) -> arrays.put(value, toArray(ids)));
+        return arrays;
+    }
+
+    private static int[] toArray(Collection<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Per thread scratch space for searching the index.
+     */
+    public final class Search {
+
+        private final int[] seen = new int[matchers.length];
+        private final int[] candidates = new int[matchers.length];
+        private int candidateCount;
+        private int stamp;
+
+        private Search() {
+        }
+
+        /**
+         * Calls back with the index of each facet that matches the path, once each.
+         *
+         * @param nodes the nodes of a concept path, from {@link CompiledFacetMatcher#splitConceptPath}
+         */
+        public void matches(String[] nodes, IntConsumer matched) {
+            nextStamp();
+            for (int i = 0; i < positions.length; i++) {
+                int idx = positions[i] >= 0 ? positions[i] : nodes.length + positions[i];
+                if (idx >= 0 && idx < nodes.length) {
+                    addAll(exactByPosition.get(i).get(nodes[idx]));
+                }
+            }
+            for (String node : nodes) {
+                addAll(exactAnyNode.get(node));
+                literals.search(node, literal -> addAll(facetsByLiteral[literal]));
+            }
+            addAll(unkeyed);
+
+            for (int i = 0; i < candidateCount; i++) {
+                int facet = candidates[i];
+                if (matchers[facet].matches(nodes)) {
+                    matched.accept(facet);
+                }
+            }
+        }
+
+        private void nextStamp() {
+            candidateCount = 0;
+            if (++stamp == 0) {
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+        }
+
+        private void addAll(int[] facets) {
+            if (facets == null) {
+                return;
+            }
+            for (int facet : facets) {
+                if (seen[facet] != stamp) {
+                    seen[facet] = stamp;
+                    candidates[candidateCount++] = facet;
+                }
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package edu.harvard.dbmi.avillach.dictionaryetl.facet;
 import java.util.List;
 import java.util.Optional;
 
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetMetaValue;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetMetadataModel;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -32,6 +33,18 @@ public interface FacetMetadataRepository extends JpaRepository<FacetMetadataMode
                 @Param("key") String key,
                 @Param("value") String value);
 
+    @Modifying
+    @Transactional
+    @Query(value = """
+        insert into dict.facet_meta (facet_id, key, value)
+        select * from unnest(:facetIds, :keys, :values)
+        on conflict (key, facet_id) do update
+           set value = excluded.value
+        """, nativeQuery = true)
+    int upsertAll(@Param("facetIds") Long[] facetIds,
+                  @Param("keys") String[] keys,
+                  @Param("values") String[] values);
+
     /**
      * Find a metadata value for a specific facet and key.
      * Used by FacetLoaderService to compare expression hashes.
@@ -45,5 +58,13 @@ public interface FacetMetadataRepository extends JpaRepository<FacetMetadataMode
         """, nativeQuery = true)
     Optional<String> findValue(@Param("facetId") Long facetId, @Param("key") String key);
 
+    @Query(value = """
+        SELECT facet_id AS facetId, value
+        FROM dict.facet_meta
+        WHERE facet_id = ANY(:facetIds)
+          AND key = :key
+        """, nativeQuery = true)
+    List<FacetMetaValue> findValues(@Param("facetIds") Long[] facetIds, @Param("key") String key);
+
 
 }
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Optional;
 
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.ConceptToFacetDTO;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetIdName;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetModel;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -23,6 +24,32 @@ public interface FacetRepository extends JpaRepository<FacetModel, Long> {
 
     List<FacetModel> findAllByParentId(Long parentId);
 
+    @Query(value = "SELECT facet_id AS facetId, name FROM dict.facet WHERE name = ANY(:names)", nativeQuery = true)
+    List<FacetIdName> findIdsByNames(@Param("names") String[] names);
+
+    @Transactional
+    @Query(value = """
+        INSERT INTO dict.facet (facet_category_id, name, display, description, parent_id)
+        SELECT * FROM unnest(:categoryIds, :names, :displays, :descriptions, :parentIds)
+        RETURNING facet_id AS facetId, name
+        """, nativeQuery = true)
+    List<FacetIdName> insertAll(@Param("categoryIds") Long[] categoryIds, @Param("names") String[] names,
+                                @Param("displays") String[] displays, @Param("descriptions") String[] descriptions,
+                                @Param("parentIds") Long[] parentIds);
+
+    @Modifying
+    @Transactional
+    @Query(value = """
+        UPDATE dict.facet f
+        SET facet_category_id = u.category_id, display = u.display, description = u.description, parent_id = u.parent_id
+        FROM unnest(:facetIds, :categoryIds, :displays, :descriptions, :parentIds)
+            AS u(facet_id, category_id, display, description, parent_id)
+        WHERE f.facet_id = u.facet_id
+        """, nativeQuery = true)
+    int updateAll(@Param("facetIds") Long[] facetIds, @Param("categoryIds") Long[] categoryIds,
+                  @Param("displays") String[] displays, @Param("descriptions") String[] descriptions,
+                  @Param("parentIds") Long[] parentIds);
+
     @Query(value = "select f.name from FacetModel f order by f.name")
     List<String> getAllFacetNames();
 
@@ -72,6 +99,27 @@ public interface FacetRepository extends JpaRepository<FacetModel, Long> {
             """, nativeQuery = true)
     void bdcCreateFacetForEachDatasetForCategory(@Param("catId") Long catId);
 
+    @Modifying
+    @Transactional
+    @Query(value = """
+            INSERT INTO dict.facet (FACET_CATEGORY_ID, NAME, DISPLAY, DESCRIPTION)
+            SELECT * FROM unnest(:catIds, :names, :displays, :descriptions)
+            ON CONFLICT (name, facet_category_id) DO UPDATE
+            SET (display, description) = (EXCLUDED.display, EXCLUDED.description)
+            """, nativeQuery = true)
+    int upsertFacets(@Param("catIds") Long[] catIds, @Param("names") String[] names,
+                     @Param("displays") String[] displays, @Param("descriptions") String[] descriptions);
+
+    @Modifying
+    @Transactional
+    @Query(value = """
+            UPDATE dict.facet f SET parent_id = parent.facet_id
+            FROM unnest(:names, :parentNames) AS u(name, parent_name)
+            LEFT JOIN dict.facet parent ON parent.name = u.parent_name
+            WHERE f.name = u.name
+            """, nativeQuery = true)
+    int updateParentIdsByName(@Param("names") String[] names, @Param("parentNames") String[] parentNames);
+
     @Modifying
     @Transactional
     @Query(value = "DELETE FROM dict.facet WHERE name = :name", nativeQuery = true)
@@ -4,6 +4,7 @@ import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
 import com.opencsv.RFC4180Parser;
 import com.opencsv.exceptions.CsvException;
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.BulkUpsertUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.Utility.CSVUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptRepository;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetRepository;
@@ -17,7 +18,6 @@ import edu.harvard.dbmi.avillach.dictionaryetl.facetcategory.FacetCategoryReposi
 import edu.harvard.dbmi.avillach.dictionaryetl.facetcategory.FacetCategoryService;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
-import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,14 +25,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class FacetService {
@@ -48,6 +46,7 @@ public class FacetService {
     private final ConceptRepository conceptRepository;
     private final DatasetFacetRefreshService datasetFacetRefreshService;
     private final FacetCategoryRepository facetCategoryRepository;
+    private final BulkUpsertUtility bulkUpsertUtility;
 
     @PersistenceContext
     private EntityManager entityManager;
@@ -62,6 +61,7 @@ public class FacetService {
                         ConceptRepository conceptRepository,
                         DatasetFacetRefreshService datasetFacetRefreshService,
                         FacetCategoryRepository facetCategoryRepository,
+                        BulkUpsertUtility bulkUpsertUtility,
                         EntityManager entityManager) {
         this.facetRepository = facetRepository;
         this.facetCategoryService = facetCategoryService;
@@ -72,6 +72,7 @@ public class FacetService {
         this.conceptRepository = conceptRepository;
         this.datasetFacetRefreshService = datasetFacetRefreshService;
         this.facetCategoryRepository = facetCategoryRepository;
+        this.bulkUpsertUtility = bulkUpsertUtility;
         this.entityManager = entityManager;
     }
 
@@ -402,74 +403,13 @@ public class FacetService {
         }
 
 
-        Query facetQuery = entityManager.createNativeQuery(getUpsertFacetQuery(facetModels));
-
-        facetUpdateCount += facetQuery.executeUpdate();
-        if(!parentMap.isEmpty()){
-            Query parentQuery = entityManager.createNativeQuery(getUpdateParentIdsQuery(parentMap));
-            parentUpdateCount += parentQuery.executeUpdate();
-        }
-
+        facetUpdateCount += bulkUpsertUtility.upsertFacets(facetModels);
+        parentUpdateCount += bulkUpsertUtility.updateFacetParents(parentMap);
 
         //    TODO ADD QUERY TO ADD METADATA FOR FACETS
         return new ResponseEntity<>("Successfully updated " + facetUpdateCount + " facets and associated " + parentUpdateCount + " parent facets\n", HttpStatus.OK);
     }
 
-
-    public String getUpsertFacetQuery(List<FacetModel> facetModels) {
-        String facetCategoryIds = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                facetModels.stream()
-                                        .map(FacetModel::getFacetCategoryId)
-                                        .collect(Collectors.toList()))
-                                  + "])";
-
-        String names ="UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                facetModels.stream()
-                                        .map(model -> StringUtils.quote(model.getName()))
-                                        .collect(Collectors.toList()))
-                        + "])";
-        String displays = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                facetModels.stream()
-                                        .map(model -> StringUtils.quote(model.getDisplay()))
-                                        .collect(Collectors.toList()))
-                        + "])"
-        ;
-        String descriptions = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                facetModels.stream()
-                                        .map(model -> StringUtils.quote(model.getDescription()))
-                                        .collect(Collectors.toList()))
-                        + "])";
-        String vals = StringUtils.arrayToCommaDelimitedString(
-                                        new String[] { facetCategoryIds, names, displays, descriptions });
-
-        return "insert into facet (facet_category_id,name,display,description) "
-               + "VALUES (" + vals + ")"
-               + " ON CONFLICT (name, facet_category_id) DO UPDATE SET (display,description) = (EXCLUDED.display,EXCLUDED.description);";
-
-
-
-    }
-
-    public String getUpdateParentIdsQuery(Map<String, String> parentFacetMap) {
-        String childNames = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                parentFacetMap.keySet().stream().map(StringUtils::quote)
-                                                                  .collect(Collectors
-                                                                                  .toList()))
-                                  + "])";
-                  String parentNames = "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(
-                                  parentFacetMap.values().stream().map(StringUtils::quote)
-                                                  .collect(Collectors
-                                                                  .toList()))
-                                  + "])";
-
-        return "with parent_table (child_name, parent_name) as"
-     + "(select " + childNames + ", " + parentNames + ")"
-     + "update facet set parent_id = parent_ref.p_id from "
-     + "(select child_name, facet_id as p_id from parent_table left join facet on parent_name = name) as parent_ref"
-     + " where name = child_name;";
-
-    }
-
     public int deleteByName(String datasetRef) {
         return facetRepository.deleteByName(datasetRef);
     }
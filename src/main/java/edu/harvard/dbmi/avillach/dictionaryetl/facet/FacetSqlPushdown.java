@@ -0,0 +1,315 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Condition;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Contains;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Exactly;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.Regex;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.CompiledFacetMatcher.StartsWith;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps leaf facets to concepts with one {@code INSERT ... SELECT} per chunk of facets, so the concept paths never
+ * leave the database. Each leaf path is split into the same nodes as {@link CompiledFacetMatcher#splitConceptPath},
+ * and every facet's groups are evaluated against them as a SQL condition.
+ * <p>
+ * Only groups whose result in PostgreSQL is the same as in Java are translated. {@code exactly}, {@code contains} and
+ * literal regexes always are. Other regexes are when they keep to the syntax both engines read alike: literals,
+ * {@code .}, anchors, simple classes and ranges, groups, alternation, greedy and lazy quantifiers, {@code \d}, escaped
+ * punctuation and a leading {@code (?i)} on an ASCII pattern. Use {@link #translatable} to split the groups of a facet
+ * between this and the Java matcher; as groups are ORed, mapping the two halves separately gives the same result.
+ */
+@Component
+public class FacetSqlPushdown {
+
+    // The parameters bound per statement stay well under the 32767 PostgreSQL allows
+    private static final int MAX_PARAMETERS = 10_000;
+    // The whitespace of Character.isWhitespace, whose segments splitConceptPath leaves out
+    private static final String BLANK_NODE =
+            "^[ \\t\\n\\u000B\\f\\r\\u001C-\\u001F\\u1680\\u2000-\\u2006\\u2008-\\u200A\\u2028\\u2029\\u205F\\u3000]*$";
+    // Java's '.' does not match line terminators, and '$' also matches before a final one
+    private static final String DOT = "[^\\n\\r\\u0085\\u2028\\u2029]";
+    private static final String DOLLAR = "(?=(?:\\r\\n|[\\n\\r\\u0085\\u2028\\u2029])?$)";
+    private static final int MAX_REPEAT = 255;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * @return whether every group of the matcher can be evaluated in SQL
+     */
+    public boolean translatable(CompiledFacetMatcher matcher) {
+        return matcher.canMatch() && condition(matcher, new ArrayList<>()) != null;
+    }
+
+    /**
+     * Maps each facet to the leaf concepts its matcher matches. Every matcher must be {@link #translatable}.
+     *
+     * @return the mappings inserted
+     */
+    public int map(List<Long> facetIds, List<CompiledFacetMatcher> matchers) {
+        int inserted = 0;
+        List<String> values = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(BLANK_NODE);
+        for (int i = 0; i < matchers.size(); i++) {
+            String condition = condition(matchers.get(i), parameters);
+            if (condition == null) {
+                throw new IllegalArgumentException("Facet " + facetIds.get(i) + " cannot be mapped in SQL");
+            }
+            parameters.add(facetIds.get(i));
+            values.add("(CAST(:p" + (parameters.size() - 1) + " AS bigint), " + condition + ")");
+            if (parameters.size() >= MAX_PARAMETERS || i == matchers.size() - 1) {
+                inserted += execute(values, parameters);
+                values.clear();
+                parameters.clear();
+                parameters.add(BLANK_NODE);
+            }
+        }
+        return inserted;
+    }
+
+    private int execute(List<String> values, List<Object> parameters) {
+        String sql = """
+                INSERT INTO dict.facet__concept_node (facet_id, concept_node_id)
+                SELECT m.facet_id, cn.concept_node_id
+                FROM dict.concept_node cn
+                CROSS JOIN LATERAL (
+                    SELECT array_agg(s.node ORDER BY s.position) AS nodes
+                    FROM unnest(string_to_array(cn.concept_path, '\\')) WITH ORDINALITY AS s(node, position)
+                    WHERE s.node !~ :p0
+                ) p
+                CROSS JOIN LATERAL (VALUES %s) AS m(facet_id, matched)
+                WHERE m.matched
+                AND NOT EXISTS (
+                    SELECT 1
+                    FROM dict.concept_node child
+                    WHERE child.parent_id = cn.concept_node_id
+                )
+                ON CONFLICT DO NOTHING
+                """.formatted(String.join(", ", values));
+        Query query = entityManager.createNativeQuery(sql);
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter("p" + i, parameters.get(i));
+        }
+        return query.executeUpdate();
+    }
+
+    /**
+     * The groups of the matcher as a SQL condition on the path's {@code p.nodes}, adding the values it binds to the
+     * parameters, which are named {@code :p<index>}.
+     *
+     * @return the condition, or null when a group cannot be translated
+     */
+    static String condition(CompiledFacetMatcher matcher, List<Object> parameters) {
+        int bound = parameters.size();
+        List<String> groups = new ArrayList<>();
+        for (Condition[] group : matcher.groups()) {
+            List<String> conditions = new ArrayList<>();
+            for (Condition condition : group) {
+                String sql = condition(condition, parameters);
+                if (sql == null) {
+                    parameters.subList(bound, parameters.size()).clear();
+                    return null;
+                }
+                conditions.add(sql);
+            }
+            groups.add("(" + String.join(" AND ", conditions) + ")");
+        }
+        return groups.isEmpty() ? "false" : "(" + String.join(" OR ", groups) + ")";
+    }
+
+    private static String condition(Condition condition, List<Object> parameters) {
+        String test;
+        Object value;
+        switch (condition.test()) {
+            case Exactly exactly -> {
+                test = "%s = %s";
+                value = exactly.value();
+            }
+            case Contains contains -> {
+                test = "strpos(%s, %s) > 0";
+                value = contains.value();
+            }
+            case StartsWith startsWith -> {
+                test = "starts_with(%s, %s)";
+                value = startsWith.value();
+            }
+            case Regex regex -> {
+                PostgresRegex translated = toPostgresRegex(regex.pattern().pattern());
+                if (translated == null) {
+                    return null;
+                }
+                test = translated.caseInsensitive() ? "%s ~* %s" : "%s ~ %s";
+                value = translated.pattern();
+            }
+        }
+        parameters.add(value);
+        String parameter = ":p" + (parameters.size() - 1);
+
+        Integer node = condition.node();
+        if (node == null) {
+            return "EXISTS (SELECT 1 FROM unnest(p.nodes) AS n(node) WHERE " + test.formatted("n.node", parameter) + ")";
+        }
+        // PostgreSQL arrays start at 1, and a subscript out of range gives null, which does not match
+        String element = (node >= 0)
+                ? "p.nodes[" + (node + 1) + "]"
+                : "p.nodes[cardinality(p.nodes) + " + (node + 1) + "]";
+        return test.formatted(element, parameter);
+    }
+
+    record PostgresRegex(String pattern, boolean caseInsensitive) {
+    }
+
+    /**
+     * Rewrites a Java regex as a PostgreSQL advanced regex that finds a match in the same strings.
+     *
+     * @return the rewritten regex, or null if it uses syntax outside the subset both engines read alike
+     */
+    static PostgresRegex toPostgresRegex(String regex) {
+        boolean caseInsensitive = regex.startsWith("(?i)");
+        String body = caseInsensitive ? regex.substring(4) : regex;
+        // Java folds case only within ASCII without UNICODE_CASE
+        if (caseInsensitive && !body.chars().allMatch(c -> c < 128)) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder();
+        boolean afterQuantifier = false;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            boolean quantifier = false;
+            switch (c) {
+                case '\\' -> {
+                    String escape = escape(body, ++i, false);
+                    if (escape == null) {
+                        return null;
+                    }
+                    out.append(escape);
+                }
+                case '[' -> {
+                    int end = bracket(body, i, out);
+                    if (end < 0) {
+                        return null;
+                    }
+                    i = end;
+                }
+                case '(' -> {
+                    if (body.startsWith("(?", i)) {
+                        if (!body.startsWith("(?:", i)) {
+                            return null;
+                        }
+                        out.append("(?:");
+                        i += 2;
+                    } else {
+                        out.append('(');
+                    }
+                }
+                case '.' -> out.append(DOT);
+                case '$' -> out.append(DOLLAR);
+                case '^', ')', '|' -> out.append(c);
+                case '*', '+', '?' -> {
+                    // A '+' after a quantifier makes it possessive, which PostgreSQL does not have
+                    if (afterQuantifier && c == '+') {
+                        return null;
+                    }
+                    out.append(c);
+                    quantifier = !afterQuantifier;
+                }
+                case '{' -> {
+                    int end = body.indexOf('}', i);
+                    if (end < 0 || !repeat(body.substring(i + 1, end))) {
+                        return null;
+                    }
+                    out.append(body, i, end + 1);
+                    i = end;
+                    quantifier = true;
+                }
+                default -> appendLiteral(out, c);
+            }
+            afterQuantifier = quantifier;
+        }
+        return new PostgresRegex(out.toString(), caseInsensitive);
+    }
+
+    // Copies the class starting at body[start] to out, returning the index of its ']' or -1 if it is not supported
+    private static int bracket(String body, int start, StringBuilder out) {
+        int i = start + 1;
+        StringBuilder bracket = new StringBuilder("[");
+        if (i < body.length() && body.charAt(i) == '^') {
+            bracket.append('^');
+            i++;
+        }
+        if (i >= body.length() || body.charAt(i) == ']') {
+            return -1;
+        }
+        for (; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == ']') {
+                out.append(bracket).append(']');
+                return i;
+            } else if (c == '[' || body.startsWith("&&", i)) {
+                return -1;
+            } else if (c == '\\') {
+                String escape = escape(body, ++i, true);
+                if (escape == null) {
+                    return -1;
+                }
+                bracket.append(escape);
+            } else if (c == '-' && body.charAt(i - 1) != '[' && body.charAt(i - 1) != '^' && body.charAt(i + 1) != ']') {
+                // Only ranges within digits, lower or upper case ASCII letters order the same in both
+                char from = body.charAt(i - 1);
+                char to = body.charAt(i + 1);
+                if (!sameAsciiRange(from, to)) {
+                    return -1;
+                }
+                bracket.append('-');
+            } else {
+                bracket.append(c);
+            }
+        }
+        return -1;
+    }
+
+    private static String escape(String body, int i, boolean inBracket) {
+        if (i >= body.length()) {
+            return null;
+        }
+        char c = body.charAt(i);
+        if (c == 'd') {
+            return inBracket ? "0-9" : "[0-9]";
+        }
+        // An escaped ASCII punctuation character is that character in both engines
+        if (c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c)) {
+            return "\\" + c;
+        }
+        return null;
+    }
+
+    private static void appendLiteral(StringBuilder out, char c) {
+        if (c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c)) {
+            out.append('\\');
+        }
+        out.append(c);
+    }
+
+    private static boolean repeat(String bounds) {
+        if (!bounds.matches("\\d{1,3}(,\\d{0,3})?")) {
+            return false;
+        }
+        for (String bound : bounds.split(",")) {
+            if (!bound.isEmpty() && Integer.parseInt(bound) > MAX_REPEAT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameAsciiRange(char from, char to) {
+        return from <= to && ((from >= '0' && to <= '9') || (from >= 'a' && to <= 'z') || (from >= 'A' && to <= 'Z'));
+    }
+}
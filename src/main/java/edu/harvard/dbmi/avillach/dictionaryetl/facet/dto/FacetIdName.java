@@ -0,0 +1,6 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet.dto;
+
+public interface FacetIdName {
+    Long getFacetId();
+    String getName();
+}
@@ -0,0 +1,6 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet.dto;
+
+public interface FacetMetaValue {
+    Long getFacetId();
+    String getValue();
+}
@@ -0,0 +1,6 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet.dto;
+
+import java.util.List;
+
+public record LeafMappingBatch(Long facetId, List<Long> conceptNodeIds) {
+}
@@ -0,0 +1,16 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet.dto;
+
+import java.util.List;
+
+/**
+ * A facet of a load payload waiting to be upserted once its parent has an id.
+ */
+public record PendingFacet(
+        FacetDTO facet,
+        Long categoryId,
+        String categoryName,
+        Long parentId,
+        List<FacetNameNested> createdCollector,
+        List<List<FacetExpressionDTO>> inheritedGroups
+) {
+}
@@ -0,0 +1,64 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs concept group tasks on virtual threads with two limits. {@code maxPendingGroups} caps the groups that have
+ * been submitted but not finished; {@link #submit(Runnable)} blocks the reader once it is reached, which keeps the
+ * copied rows of unprocessed groups off the heap. {@code maxConcurrentBuilders} caps how many of those groups are
+ * being built at the same time. A limit of zero or less means unbounded.
+ */
+public class ColumnMetaBuilderExecutor implements AutoCloseable {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore pendingPermits;
+    private final Semaphore builderPermits;
+    private final LoadingMetrics loadingMetrics;
+
+    public ColumnMetaBuilderExecutor(int maxPendingGroups, int maxConcurrentBuilders, LoadingMetrics loadingMetrics) {
+        this.pendingPermits = new Semaphore(maxPendingGroups > 0 ? maxPendingGroups : Integer.MAX_VALUE);
+        this.builderPermits = new Semaphore(maxConcurrentBuilders > 0 ? maxConcurrentBuilders : Integer.MAX_VALUE);
+        this.loadingMetrics = loadingMetrics;
+    }
+
+    /**
+     * Submits a task, blocking while {@code maxPendingGroups} tasks are already outstanding.
+     *
+     * @param onAbandoned run instead of the task if it is interrupted while waiting for a builder, which happens when
+     *                    {@link #close()} is interrupted, so the caller can fail the load rather than miss the task
+     */
+    public void submit(Runnable task, Runnable onAbandoned) throws InterruptedException {
+        pendingPermits.acquire();
+        loadingMetrics.builderTaskQueued();
+        executor.submit(() -> {
+            try {
+                builderPermits.acquire();
+            } catch (InterruptedException e) {
+                loadingMetrics.builderTaskAbandoned();
+                pendingPermits.release();
+                Thread.currentThread().interrupt();
+                onAbandoned.run();
+                return;
+            }
+
+            loadingMetrics.builderTaskStarted();
+            try {
+                task.run();
+            } finally {
+                builderPermits.release();
+                loadingMetrics.builderTaskFinished();
+                pendingPermits.release();
+            }
+        });
+    }
+
+    /**
+     * Waits for every submitted task to finish.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
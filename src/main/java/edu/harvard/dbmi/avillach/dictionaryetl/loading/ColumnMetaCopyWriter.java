@@ -0,0 +1,251 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Writes a concept tree with {@code COPY ... FROM STDIN}. Concept node ids are reserved from
+ * {@code concept_node_concept_node_id_seq} in blocks before any row is sent, so parent ids can be assigned in
+ * memory and the whole tree streams to the server in two COPY statements (nodes, then metadata) inside a single
+ * transaction.
+ * <p>
+ * Like the JPA path, this only inserts. Concept paths that already exist in {@code concept_node} will fail the load.
+ */
+@Component
+public class ColumnMetaCopyWriter {
+
+    private final Logger log = LoggerFactory.getLogger(ColumnMetaCopyWriter.class);
+
+    private static final int ID_BLOCK_SIZE = 10_000;
+    private static final int FLUSH_THRESHOLD_BYTES = 1 << 16;
+
+    private static final String ALLOCATE_IDS_QUERY =
+            "SELECT nextval('dict.concept_node_concept_node_id_seq') FROM generate_series(1, ?)";
+    private static final String COPY_CONCEPT_NODE =
+            "COPY dict.concept_node (concept_node_id, dataset_id, name, display, concept_type, concept_path, parent_id) " +
+            "FROM STDIN WITH (FORMAT csv)";
+    private static final String COPY_CONCEPT_NODE_META =
+            "COPY dict.concept_node_meta (concept_node_id, key, value) FROM STDIN WITH (FORMAT csv)";
+
+    private final DataSource dataSource;
+    private final LoadingMetrics loadingMetrics;
+
+    public ColumnMetaCopyWriter(DataSource dataSource, LoadingMetrics loadingMetrics) {
+        this.dataSource = dataSource;
+        this.loadingMetrics = loadingMetrics;
+    }
+
+    /**
+     * @param topLayer   the dataset level nodes of the tree. Every descendant is written.
+     * @param datasetIDs dataset ref to dataset id
+     * @return the number of concept nodes written
+     */
+    public long write(Collection<ConceptNode> topLayer, Map<String, Long> datasetIDs) {
+        try (Connection connection = this.dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                assignIds(connection, topLayer);
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                long nodes = copyConceptNodes(copyManager, topLayer, datasetIDs);
+                long metadata = copyConceptMetadata(copyManager, topLayer);
+                connection.commit();
+                loadingMetrics.rowsCopied(nodes, metadata);
+                log.info("Copied {} concept nodes and {} metadata rows", nodes, metadata);
+                return nodes;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to copy concept tree to the database", e);
+        }
+    }
+
+    /**
+     * Walks the tree breadth first so a parent always has its id before its children are visited.
+     */
+    private void assignIds(Connection connection, Collection<ConceptNode> topLayer) throws SQLException {
+        IdBlockAllocator allocator = new IdBlockAllocator(connection);
+        Collection<ConceptNode> currentLayer = topLayer;
+        while (!currentLayer.isEmpty()) {
+            List<ConceptNode> nextLayer = new ArrayList<>();
+            for (ConceptNode node : currentLayer) {
+                nextLayer.addAll(node.getChildren());
+
+                node.setConceptNodeId(allocator.next());
+                for (ConceptMetadataModel metadata : node.getConceptMetadataModels()) {
+                    metadata.setConceptNodeId(node.getConceptNodeId());
+                }
+            }
+            currentLayer = nextLayer;
+        }
+    }
+
+    private long copyConceptNodes(CopyManager copyManager, Collection<ConceptNode> topLayer, Map<String, Long> datasetIDs) throws SQLException {
+        CsvCopyStream stream = new CsvCopyStream(copyManager.copyIn(COPY_CONCEPT_NODE));
+        try {
+            Collection<ConceptNode> currentLayer = topLayer;
+            while (!currentLayer.isEmpty()) {
+                List<ConceptNode> nextLayer = new ArrayList<>();
+                for (ConceptNode node : currentLayer) {
+                    nextLayer.addAll(node.getChildren());
+                    ConceptModel model = node.toConceptModel();
+                    stream.value(model.getConceptNodeId())
+                            .value(datasetIDs.get(node.getDatasetRef()))
+                            .value(model.getName())
+                            .value(model.getDisplay())
+                            .value(model.getConceptType())
+                            .value(model.getConceptPath())
+                            .value(model.getParentId())
+                            .endRow();
+                }
+                currentLayer = nextLayer;
+            }
+            return stream.end();
+        } finally {
+            stream.cancelIfActive();
+        }
+    }
+
+    private long copyConceptMetadata(CopyManager copyManager, Collection<ConceptNode> topLayer) throws SQLException {
+        CsvCopyStream stream = new CsvCopyStream(copyManager.copyIn(COPY_CONCEPT_NODE_META));
+        try {
+            Deque<ConceptNode> pending = new ArrayDeque<>(topLayer);
+            while (!pending.isEmpty()) {
+                ConceptNode node = pending.removeFirst();
+                pending.addAll(node.getChildren());
+                for (ConceptMetadataModel metadata : node.getConceptMetadataModels()) {
+                    stream.value(metadata.getConceptNodeId())
+                            .value(metadata.getKey())
+                            .value(metadata.getValue())
+                            .endRow();
+                }
+            }
+            return stream.end();
+        } finally {
+            stream.cancelIfActive();
+        }
+    }
+
+    /**
+     * Hands out ids from {@code concept_node_concept_node_id_seq}, fetching {@value ID_BLOCK_SIZE} at a time.
+     */
+    private static class IdBlockAllocator {
+
+        private final Connection connection;
+        private final long[] block = new long[ID_BLOCK_SIZE];
+        private int position = ID_BLOCK_SIZE;
+
+        private IdBlockAllocator(Connection connection) {
+            this.connection = connection;
+        }
+
+        private long next() throws SQLException {
+            if (position == ID_BLOCK_SIZE) {
+                fill();
+            }
+            return block[position++];
+        }
+
+        private void fill() throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement(ALLOCATE_IDS_QUERY)) {
+                statement.setInt(1, ID_BLOCK_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    int i = 0;
+                    while (resultSet.next()) {
+                        block[i++] = resultSet.getLong(1);
+                    }
+                    if (i != ID_BLOCK_SIZE) {
+                        throw new SQLException("Expected " + ID_BLOCK_SIZE + " ids from sequence but received " + i);
+                    }
+                }
+            }
+            position = 0;
+        }
+    }
+
+    /**
+     * Encodes rows in Postgres' CSV COPY format. Strings are always quoted so an empty string stays distinct from
+     * NULL, which is written as an empty unquoted field. Backslashes need no escaping in CSV mode.
+     */
+    private static class CsvCopyStream {
+
+        private final CopyIn copyIn;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(FLUSH_THRESHOLD_BYTES * 2);
+        private boolean rowStarted;
+
+        private CsvCopyStream(CopyIn copyIn) {
+            this.copyIn = copyIn;
+        }
+
+        private CsvCopyStream value(Long value) {
+            separator();
+            if (value != null) {
+                buffer.writeBytes(value.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+            return this;
+        }
+
+        private CsvCopyStream value(String value) {
+            separator();
+            if (value != null) {
+                buffer.write('"');
+                buffer.writeBytes(value.replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8));
+                buffer.write('"');
+            }
+            return this;
+        }
+
+        private void endRow() throws SQLException {
+            buffer.write('\n');
+            rowStarted = false;
+            if (buffer.size() >= FLUSH_THRESHOLD_BYTES) {
+                flush();
+            }
+        }
+
+        private long end() throws SQLException {
+            flush();
+            return copyIn.endCopy();
+        }
+
+        private void cancelIfActive() throws SQLException {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+
+        private void separator() {
+            if (rowStarted) {
+                buffer.write(',');
+            }
+            rowStarted = true;
+        }
+
+        private void flush() throws SQLException {
+            if (buffer.size() > 0) {
+                copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                buffer.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataService;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptService;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.DeltaMode;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.SegmentDictionary;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.harvard.dbmi.avillach.dictionaryetl.loading.ConceptMetadataModelMapper.LOADED_KEYS;
+
+/**
+ * Writes a concept tree as a delta against the concepts already stored for its datasets. Each stored concept is
+ * fingerprinted in the database from its type and loaded metadata, and compared with the same fingerprint of the
+ * matching node. Only new concepts are inserted and only concepts whose fingerprint differs are updated. Concepts of
+ * the datasets that are no longer in the tree are deleted when the context asks for it.
+ * <p>
+ * Metadata keys the loader does not write, such as descriptions added later, are neither compared nor touched.
+ */
+@Component
+public class ColumnMetaDeltaWriter {
+
+    private final Logger log = LoggerFactory.getLogger(ColumnMetaDeltaWriter.class);
+
+    private static final int BATCH_SIZE = 5000;
+
+    private final ConceptService conceptService;
+    private final ConceptMetadataService conceptMetadataService;
+    private final LoadingMetrics loadingMetrics;
+
+    public ColumnMetaDeltaWriter(ConceptService conceptService, ConceptMetadataService conceptMetadataService, LoadingMetrics loadingMetrics) {
+        this.conceptService = conceptService;
+        this.conceptMetadataService = conceptMetadataService;
+        this.loadingMetrics = loadingMetrics;
+    }
+
+    /**
+     * @param topLayer   the dataset level nodes of the tree. Only the stored concepts of these datasets are compared.
+     * @param datasetIDs dataset ref to dataset id
+     * @param context    the loading context. The counts are added to its {@code deltaLoadResult}.
+     */
+    public void write(Collection<ConceptNode> topLayer, Map<String, Long> datasetIDs, LoadingContext context) {
+        Map<String, ConceptNode> datasetNodes = new HashMap<>();
+        topLayer.forEach(node -> datasetNodes.put(node.getDatasetRef(), node));
+        SegmentDictionary segments = context.conceptModelTree().getSegments();
+
+        List<ConceptNode> changed = new ArrayList<>();
+        List<Long> missing = new ArrayList<>();
+        AtomicLong unchanged = new AtomicLong();
+        this.conceptService.forEachFingerprint(datasetNodes.keySet().toArray(String[]::new), LOADED_KEYS, row -> {
+            ConceptNode node = find(datasetNodes, segments, row.getConceptPath());
+            if (node == null) {
+                missing.add(row.getConceptNodeId());
+                return;
+            }
+
+            node.setConceptNodeId(row.getConceptNodeId());
+            if (fingerprint(node).equals(row.getFingerprint())) {
+                unchanged.incrementAndGet();
+            } else {
+                changed.add(node);
+            }
+        });
+
+        long inserted = insertNew(topLayer, datasetIDs, context);
+        update(changed, context);
+        long deleted = 0;
+        if (context.options().deltaMode() == DeltaMode.DELETE_MISSING) {
+            delete(missing);
+            deleted = missing.size();
+        }
+
+        log.info("Delta for datasets {}: {} inserted, {} updated, {} deleted, {} unchanged, {} missing from the file",
+                datasetNodes.keySet(), inserted, changed.size(), deleted, unchanged.get(), missing.size());
+        context.deltaLoadResult().add(inserted, changed.size(), deleted, unchanged.get());
+        // Unchanged concepts count as persisted so progress reaches the size of the tree
+        context.progress().addNodesPersisted(unchanged.get());
+    }
+
+    /**
+     * Saves every node without an id, a layer at a time so a parent always has its id before its children.
+     *
+     * @return the number of nodes inserted
+     */
+    private long insertNew(Collection<ConceptNode> topLayer, Map<String, Long> datasetIDs, LoadingContext context) {
+        long inserted = 0;
+        List<ConceptModel> batchModels = new ArrayList<>(BATCH_SIZE);
+        List<ConceptNode> batchNodes = new ArrayList<>(BATCH_SIZE);
+        Collection<ConceptNode> currentLayer = topLayer;
+        while (!currentLayer.isEmpty()) {
+            List<ConceptNode> nextLayer = new ArrayList<>();
+            for (ConceptNode node : currentLayer) {
+                nextLayer.addAll(node.getChildren());
+                if (node.getConceptNodeId() != null) {
+                    continue;
+                }
+
+                ConceptModel model = node.toConceptModel();
+                model.setDatasetId(datasetIDs.get(node.getDatasetRef()));
+                batchModels.add(model);
+                batchNodes.add(node);
+                if (batchModels.size() >= BATCH_SIZE) {
+                    inserted += saveBatch(batchModels, batchNodes, context);
+                }
+            }
+
+            if (!batchModels.isEmpty()) {
+                inserted += saveBatch(batchModels, batchNodes, context);
+            }
+            currentLayer = nextLayer;
+        }
+        return inserted;
+    }
+
+    private int saveBatch(List<ConceptModel> batchModels, List<ConceptNode> batchNodes, LoadingContext context) {
+        context.progress().checkCancelled();
+        loadingMetrics.timeConceptBatch(batchModels.size(), () -> this.conceptService.saveAll(batchModels));
+        List<ConceptMetadataModel> metadata = new ArrayList<>();
+        for (int i = 0; i < batchNodes.size(); i++) {
+            ConceptNode node = batchNodes.get(i);
+            node.setConceptNodeId(batchModels.get(i).getConceptNodeId());
+            metadata.addAll(withConceptNodeId(node));
+        }
+        saveMetadata(metadata);
+
+        int saved = batchModels.size();
+        context.progress().addNodesPersisted(saved);
+        batchModels.clear();
+        batchNodes.clear();
+        return saved;
+    }
+
+    /**
+     * Sets the type of each changed concept and replaces its loaded metadata.
+     */
+    private void update(List<ConceptNode> changed, LoadingContext context) {
+        for (int from = 0; from < changed.size(); from += BATCH_SIZE) {
+            context.progress().checkCancelled();
+            List<ConceptNode> batch = changed.subList(from, Math.min(from + BATCH_SIZE, changed.size()));
+            Long[] ids = batch.stream().map(ConceptNode::getConceptNodeId).toArray(Long[]::new);
+            String[] types = batch.stream().map(ConceptNode::getConceptType).toArray(String[]::new);
+
+            this.conceptService.updateConceptTypes(ids, types);
+            this.conceptMetadataService.deleteByConceptNodeIdsAndKeys(ids, LOADED_KEYS);
+            saveMetadata(batch.stream().flatMap(node -> withConceptNodeId(node).stream()).toList());
+            context.progress().addNodesPersisted(batch.size());
+        }
+    }
+
+    private void delete(List<Long> missing) {
+        for (int from = 0; from < missing.size(); from += BATCH_SIZE) {
+            Long[] ids = missing.subList(from, Math.min(from + BATCH_SIZE, missing.size())).toArray(Long[]::new);
+            this.conceptService.deleteAllByConceptNodeIds(ids);
+        }
+    }
+
+    private void saveMetadata(List<ConceptMetadataModel> metadata) {
+        if (!metadata.isEmpty()) {
+            loadingMetrics.timeMetadataBatch(metadata.size(), () -> this.conceptMetadataService.saveAll(metadata));
+        }
+    }
+
+    private static List<ConceptMetadataModel> withConceptNodeId(ConceptNode node) {
+        List<ConceptMetadataModel> metadata = node.getConceptMetadataModels();
+        metadata.forEach(model -> model.setConceptNodeId(node.getConceptNodeId()));
+        return metadata;
+    }
+
+    /**
+     * @return the node for a stored concept path, or null if the tree does not have it
+     */
+    private static ConceptNode find(Map<String, ConceptNode> datasetNodes, SegmentDictionary segments, String conceptPath) {
+        ConceptNode node = null;
+        for (String segment : conceptPath.split("\\\\")) {
+            if (StringUtils.isBlank(segment)) {
+                continue;
+            }
+
+            if (node == null) {
+                node = datasetNodes.get(segment);
+            } else {
+                int segmentId = segments.idOf(segment);
+                node = segmentId < 0 ? null : node.getChild(segmentId);
+            }
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * The fingerprint {@code ConceptRepository.streamFingerprintsByDatasetRefs} computes in the database: the md5 of
+     * the type, a newline, and the loaded {@code key=value} pairs ordered by key and joined by newlines.
+     */
+    static String fingerprint(ConceptNode node) {
+        Set<String> loadedKeys = Set.of(LOADED_KEYS);
+        StringJoiner metadata = new StringJoiner("\n");
+        node.getConceptMetadataModels().stream()
+                .filter(model -> loadedKeys.contains(model.getKey()) && model.getValue() != null)
+                .sorted(Comparator.comparing(ConceptMetadataModel::getKey))
+                .forEach(model -> metadata.add(model.getKey() + "=" + model.getValue()));
+
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] digest = md5.digest((node.getConceptType() + "\n" + metadata).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
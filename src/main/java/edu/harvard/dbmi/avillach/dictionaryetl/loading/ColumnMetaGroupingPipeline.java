@@ -1,63 +1,193 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.loading;
 
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
 import org.hibernate.query.spi.CloseableIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class ColumnMetaGroupingPipeline {
 
+    private final Logger log = LoggerFactory.getLogger(ColumnMetaGroupingPipeline.class);
+
     private final ColumnMetaSource columnMetaSource;
     private final ColumnMetaTreeBuilder columnMetaTreeBuilder;
     private final StudyFilter studyFilter;
+    private final LoadingMetrics loadingMetrics;
+    private final int maxPendingGroups;
+    private final int maxConcurrentBuilders;
+    private final int parserParallelism;
 
-    public ColumnMetaGroupingPipeline(ColumnMetaSource columnMetaSource, ColumnMetaTreeBuilder columnMetaTreeBuilder, StudyFilter studyFilter) {
+    public ColumnMetaGroupingPipeline(
+            ColumnMetaSource columnMetaSource,
+            ColumnMetaTreeBuilder columnMetaTreeBuilder,
+            StudyFilter studyFilter,
+            LoadingMetrics loadingMetrics,
+            @Value("${dictionary.loading.builder.max-pending-groups:10000}") int maxPendingGroups,
+            @Value("${dictionary.loading.builder.max-concurrent-builders:0}") int maxConcurrentBuilders,
+            @Value("${dictionary.loading.parser.parallelism:0}") int parserParallelism
+    ) {
         this.columnMetaSource = columnMetaSource;
         this.columnMetaTreeBuilder = columnMetaTreeBuilder;
         this.studyFilter = studyFilter;
+        this.loadingMetrics = loadingMetrics;
+        this.maxPendingGroups = maxPendingGroups;
+        this.maxConcurrentBuilders = maxConcurrentBuilders;
+        this.parserParallelism = parserParallelism > 0 ? parserParallelism : Runtime.getRuntime().availableProcessors();
     }
 
     public void run(LoadingContext context) {
-        try (ExecutorService columnMetaScopeExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
-            String currentConcept = null;
-            List<ColumnMeta> group = new ArrayList<>();
-            boolean groupAllowed = true;
-
-            try (CloseableIterator<ColumnMeta> iterator = columnMetaSource.read(context)) {
-                while (iterator.hasNext()) {
-                    ColumnMeta meta = iterator.next();
-                    String conceptName = meta.name();
-
-                    if (!conceptName.equals(currentConcept)) {
-                        if (!group.isEmpty()) {
-                            // When we clear it, the group collection passed to the thread will be cleared.
-                            // Because of this we need to create a shallow copy of the file.
-                            ArrayList<ColumnMeta> columnMetas = new ArrayList<>(group);
-                            columnMetaScopeExecutor.submit(() -> this.columnMetaTreeBuilder.process(columnMetas, context));
-                        }
-
-                        group.clear();
-                        currentConcept = conceptName;
-                        groupAllowed = studyFilter.isAllowed(conceptName, context.allowedStudies());
+        AtomicInteger abandonedGroups = new AtomicInteger();
+        try (ColumnMetaBuilderExecutor columnMetaScopeExecutor =
+                     new ColumnMetaBuilderExecutor(maxPendingGroups, maxConcurrentBuilders, loadingMetrics)) {
+            List<CloseableIterator<ColumnMeta>> chunks = parserParallelism > 1
+                    ? columnMetaSource.split(context, parserParallelism)
+                    : List.of(columnMetaSource.read(context));
+
+            if (chunks.size() == 1) {
+                groupRows(chunks.getFirst(), false, columnMetaScopeExecutor, abandonedGroups, context);
+            } else {
+                runChunks(chunks, columnMetaScopeExecutor, abandonedGroups, context);
+            }
+            // Closing the executor waits for the groups still being added to the tree
+            context.progress().enterPhase(LoadingProgress.Phase.BUILD);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while grouping column meta", e);
+        }
+        if (abandonedGroups.get() > 0) {
+            throw new IllegalStateException(abandonedGroups.get() + " concept groups were abandoned before they were built");
+        }
+    }
+
+    /**
+     * Parses every chunk on its own fork-join worker. A concept's rows may continue from the end of one chunk into
+     * the start of the next, so each chunk's first and last group are held back and joined with their neighbours
+     * once every chunk has been parsed.
+     */
+    private void runChunks(
+            List<CloseableIterator<ColumnMeta>> chunks,
+            ColumnMetaBuilderExecutor executor,
+            AtomicInteger abandonedGroups,
+            LoadingContext context
+    ) throws InterruptedException {
+        log.info("Parsing column meta in {} chunks", chunks.size());
+        List<ChunkEdges> edges = new ArrayList<>(chunks.size());
+        try (ForkJoinPool parserPool = new ForkJoinPool(parserParallelism)) {
+            List<ForkJoinTask<ChunkEdges>> tasks = chunks.stream()
+                    .map(chunk -> parserPool.submit(() -> groupRows(chunk, true, executor, abandonedGroups, context)))
+                    .toList();
+            tasks.forEach(task -> edges.add(task.join()));
+        }
+
+        ConceptGroup carry = null;
+        for (ChunkEdges chunkEdges : edges) {
+            if (chunkEdges.first() == null) {
+                continue;
+            }
+
+            if (carry != null && carry.name.equals(chunkEdges.first().name)) {
+                carry.rows.addAll(chunkEdges.first().rows);
+            } else {
+                submit(carry, executor, abandonedGroups, context);
+                carry = chunkEdges.first();
+            }
+
+            if (chunkEdges.last() != null) {
+                submit(carry, executor, abandonedGroups, context);
+                carry = chunkEdges.last();
+            }
+        }
+        submit(carry, executor, abandonedGroups, context);
+    }
+
+    /**
+     * Groups consecutive rows with the same concept path and submits each group to the tree builder.
+     *
+     * @param holdEdges when true the first and last group are returned instead of submitted
+     * @return the held back groups, or null when {@code holdEdges} is false
+     */
+    private ChunkEdges groupRows(
+            CloseableIterator<ColumnMeta> iterator,
+            boolean holdEdges,
+            ColumnMetaBuilderExecutor executor,
+            AtomicInteger abandonedGroups,
+            LoadingContext context
+    ) throws InterruptedException {
+        ConceptGroup first = null;
+        ConceptGroup current = null;
+        try (iterator) {
+            while (iterator.hasNext()) {
+                ColumnMeta meta = iterator.next();
+                String conceptName = meta.name();
+                context.progress().checkCancelled();
+                context.progress().rowParsed();
+                loadingMetrics.rowParsed();
+
+                if (current == null || !conceptName.equals(current.name)) {
+                    if (current != null && !(holdEdges && current == first)) {
+                        submit(current, executor, abandonedGroups, context);
                     }
 
-                    if (groupAllowed) {
-                        group.add(meta);
+                    current = new ConceptGroup(conceptName, studyFilter.isAllowed(conceptName, context.allowedStudies()));
+                    if (first == null) {
+                        first = current;
                     }
                 }
 
-                if (!group.isEmpty()) {
-                    ArrayList<ColumnMeta> columnMetas = new ArrayList<>(group);
-                    columnMetaScopeExecutor.submit(() -> this.columnMetaTreeBuilder.process(columnMetas, context));
-                }
+                current.add(meta);
             }
         }
+
+        if (!holdEdges) {
+            submit(current, executor, abandonedGroups, context);
+            return null;
+        }
+        return new ChunkEdges(first, current == first ? null : current);
+    }
+
+    private void submit(
+            ConceptGroup group, ColumnMetaBuilderExecutor executor, AtomicInteger abandonedGroups, LoadingContext context
+    ) throws InterruptedException {
+        if (group == null || group.rows.isEmpty()) {
+            return;
+        }
+
+        List<ColumnMeta> columnMetas = group.rows;
+        executor.submit(() -> this.columnMetaTreeBuilder.process(columnMetas, context), abandonedGroups::incrementAndGet);
     }
 
+    private static class ConceptGroup {
 
+        private final String name;
+        private final boolean allowed;
+        private final List<ColumnMeta> rows = new ArrayList<>();
+
+        private ConceptGroup(String name, boolean allowed) {
+            this.name = name;
+            this.allowed = allowed;
+        }
+
+        private void add(ColumnMeta meta) {
+            if (allowed) {
+                rows.add(meta);
+            }
+        }
+    }
+
+    /**
+     * The first and last concept group of a chunk. {@code first} is null for an empty chunk and {@code last} is
+     * null when the chunk holds a single group.
+     */
+    private record ChunkEdges(ConceptGroup first, ConceptGroup last) {
+    }
 }
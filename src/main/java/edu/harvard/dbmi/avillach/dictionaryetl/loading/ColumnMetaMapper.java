@@ -16,41 +16,73 @@ public class ColumnMetaMapper {
         boolean isCategorical = cells[3].equalsIgnoreCase("true");
         List<String> categoryValues = parseCategoryValuesToList(cells[4]);
 
-        String conceptPath = getConceptPath(cells, isCategorical, categoryValues);
+        return toColumnMeta(
+                cells[0].replace("µ", "\\"),
+                cells[1],
+                cells[2],
+                isCategorical,
+                categoryValues,
+                cells[5],
+                cells[6],
+                cells[7],
+                cells[8],
+                getOptional(cells, 9),
+                getOptional(cells, 10),
+                getOptional(cells, 11)
+        );
+    }
 
+    /**
+     * Builds a {@link ColumnMeta} from cells that have already been split. Readers that tokenize the row themselves
+     * use this so the rules for concept paths, min/max and the optional columns stay in one place.
+     *
+     * @param conceptPath    the concept path with µ already replaced by a backslash
+     * @param categoryValues the category values, already split on µ
+     * @param minCell        ignored for categorical rows
+     * @param maxCell        ignored for categorical rows
+     */
+    public ColumnMeta toColumnMeta(
+            String conceptPath,
+            String widthInBytes,
+            String columnOffset,
+            boolean isCategorical,
+            List<String> categoryValues,
+            String minCell,
+            String maxCell,
+            String allObservationsOffset,
+            String allObservationsLength,
+            String observationCount,
+            String patientCount,
+            String timestamp
+    ) {
         Double min = null;
         Double max = null;
         if (!isCategorical) {
-            if (StringUtils.hasLength(cells[5]) && !NULL.equals(cells[5])) {
-                min = Double.parseDouble(cells[5]);
+            if (StringUtils.hasLength(minCell) && !NULL.equals(minCell)) {
+                min = Double.parseDouble(minCell);
             }
-            if (StringUtils.hasLength(cells[6]) && !NULL.equals(cells[6])) {
-                max = Double.parseDouble(cells[6]);
+            if (StringUtils.hasLength(maxCell) && !NULL.equals(maxCell)) {
+                max = Double.parseDouble(maxCell);
             }
         }
 
-        String col9 = getOptional(cells, 9);
-        String col10 = getOptional(cells, 10);
-        boolean isTimestamp = "true".equalsIgnoreCase(getOptional(cells, 11));
-
         return new ColumnMeta(
-                conceptPath,
-                cells[1],
-                cells[2],
+                trimSingleValueNode(conceptPath, isCategorical, categoryValues),
+                widthInBytes,
+                columnOffset,
                 isCategorical,
                 categoryValues,
                 min,
                 max,
-                cells[7],
-                cells[8],
-                col9,
-                col10,
-                isTimestamp
+                allObservationsOffset,
+                allObservationsLength,
+                optional(observationCount),
+                optional(patientCount),
+                "true".equalsIgnoreCase(optional(timestamp))
         );
     }
 
-    private static String getConceptPath(String[] columns, boolean isCategorical, List<String> categoryValues) {
-        String conceptPath = columns[0].replace("µ", "\\");
+    private static String trimSingleValueNode(String conceptPath, boolean isCategorical, List<String> categoryValues) {
         if (isCategorical && categoryValues.size() == 1) {
             int lastBackslash = conceptPath.lastIndexOf("\\");
             int secondLastBackslash = conceptPath.lastIndexOf("\\", lastBackslash - 1);
@@ -79,7 +111,10 @@ public class ColumnMetaMapper {
             return null;
         }
 
-        String v = columns[idx];
+        return columns[idx];
+    }
+
+    private static String optional(String v) {
         if (!StringUtils.hasLength(v) || NULL.equalsIgnoreCase(v)) {
             return null;
         }
@@ -0,0 +1,239 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
+import org.hibernate.query.spi.CloseableIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a columnMeta.csv into the database one dataset at a time. The reader groups rows by concept path and hands
+ * each group to a builder task, as {@link ColumnMetaGroupingPipeline} does. Once the reader moves past a dataset, that
+ * dataset is queued for a single writer thread. The writer waits for the dataset's builder tasks, detaches its
+ * subtree from the {@link edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.ConceptModelTree} and persists it.
+ * <p>
+ * Both hand-offs are bounded. The reader blocks when too many concept groups are waiting on a builder, or when too
+ * many built datasets are waiting on the writer. Peak memory therefore tracks a few datasets, not the whole
+ * dictionary.
+ * <p>
+ * The CSV must be sorted by concept path so that each dataset is contiguous. A dataset that reappears after it was
+ * flushed is recorded as an error and its rows are skipped.
+ */
+@Component
+public class ColumnMetaStreamingPipeline {
+
+    private final Logger log = LoggerFactory.getLogger(ColumnMetaStreamingPipeline.class);
+
+    private static final PendingDataset END_OF_INPUT = new PendingDataset(null);
+
+    private final ColumnMetaSource columnMetaSource;
+    private final ColumnMetaTreeBuilder columnMetaTreeBuilder;
+    private final ColumnMetaTreePersister columnMetaTreePersister;
+    private final StudyFilter studyFilter;
+    private final LoadingMetrics loadingMetrics;
+    private final int maxPendingDatasets;
+    private final int maxPendingGroups;
+    private final int maxConcurrentBuilders;
+
+    public ColumnMetaStreamingPipeline(
+            ColumnMetaSource columnMetaSource,
+            ColumnMetaTreeBuilder columnMetaTreeBuilder,
+            ColumnMetaTreePersister columnMetaTreePersister,
+            StudyFilter studyFilter,
+            LoadingMetrics loadingMetrics,
+            @Value("${dictionary.loading.streaming.max-pending-datasets:2}") int maxPendingDatasets,
+            @Value("${dictionary.loading.builder.max-pending-groups:10000}") int maxPendingGroups,
+            @Value("${dictionary.loading.builder.max-concurrent-builders:0}") int maxConcurrentBuilders
+    ) {
+        this.columnMetaSource = columnMetaSource;
+        this.columnMetaTreeBuilder = columnMetaTreeBuilder;
+        this.columnMetaTreePersister = columnMetaTreePersister;
+        this.studyFilter = studyFilter;
+        this.loadingMetrics = loadingMetrics;
+        this.maxPendingDatasets = maxPendingDatasets;
+        this.maxPendingGroups = maxPendingGroups;
+        this.maxConcurrentBuilders = maxConcurrentBuilders;
+    }
+
+    public void run(LoadingContext context) {
+        BlockingQueue<PendingDataset> writeQueue = new ArrayBlockingQueue<>(maxPendingDatasets);
+        Set<String> handedOffDatasets = new HashSet<>();
+
+        try (ColumnMetaBuilderExecutor builderExecutor =
+                     new ColumnMetaBuilderExecutor(maxPendingGroups, maxConcurrentBuilders, loadingMetrics);
+             ExecutorService writerExecutor = Executors.newSingleThreadExecutor()) {
+            Future<?> writer = writerExecutor.submit(() -> {
+                drain(writeQueue, context);
+                return null;
+            });
+
+            try {
+                String currentConcept = null;
+                List<ColumnMeta> group = new ArrayList<>();
+                boolean groupAllowed = true;
+                PendingDataset currentDataset = null;
+
+                try (CloseableIterator<ColumnMeta> iterator = columnMetaSource.read(context)) {
+                    while (iterator.hasNext()) {
+                        ColumnMeta meta = iterator.next();
+                        String conceptName = meta.name();
+                        context.progress().checkCancelled();
+                        context.progress().rowParsed();
+                        loadingMetrics.rowParsed();
+
+                        if (!conceptName.equals(currentConcept)) {
+                            if (!group.isEmpty()) {
+                                submitGroup(new ArrayList<>(group), currentDataset, builderExecutor, context);
+                            }
+
+                            group.clear();
+                            currentConcept = conceptName;
+                            groupAllowed = studyFilter.isAllowed(conceptName, context.allowedStudies());
+
+                            String datasetRef = studyFilter.rootSegment(conceptName);
+                            if (groupAllowed && (currentDataset == null || !Objects.equals(currentDataset.datasetRef, datasetRef))) {
+                                if (currentDataset != null) {
+                                    handOff(currentDataset, writeQueue, writer);
+                                }
+
+                                if (handedOffDatasets.add(datasetRef)) {
+                                    currentDataset = new PendingDataset(datasetRef);
+                                } else {
+                                    context.loadingErrorRegistry().addError(
+                                            "Dataset " + datasetRef + " appears again after it was written; skipping " +
+                                            conceptName + ". Streaming loads require columnMeta.csv sorted by concept path.");
+                                    currentDataset = null;
+                                    groupAllowed = false;
+                                }
+                            }
+                        }
+
+                        if (groupAllowed) {
+                            group.add(meta);
+                        }
+                    }
+
+                    if (!group.isEmpty()) {
+                        submitGroup(new ArrayList<>(group), currentDataset, builderExecutor, context);
+                    }
+                    if (currentDataset != null) {
+                        handOff(currentDataset, writeQueue, writer);
+                    }
+                }
+
+                handOff(END_OF_INPUT, writeQueue, writer);
+                writer.get();
+            } finally {
+                // Stops a writer still blocked on the queue if the reader failed. No-op once the writer has finished.
+                writer.cancel(true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while streaming column meta", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to write streamed column meta", e.getCause());
+        }
+    }
+
+    private void submitGroup(
+            List<ColumnMeta> columnMetas,
+            PendingDataset dataset,
+            ColumnMetaBuilderExecutor builderExecutor,
+            LoadingContext context
+    ) throws InterruptedException {
+        dataset.taskStarted();
+        try {
+            builderExecutor.submit(() -> {
+                try {
+                    this.columnMetaTreeBuilder.process(columnMetas, context);
+                } finally {
+                    dataset.taskFinished();
+                }
+            }, dataset::taskAbandoned);
+        } catch (InterruptedException e) {
+            dataset.taskFinished();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a dataset for the writer, blocking while the queue is full. Fails fast if the writer has stopped, so
+     * the reader does not wait forever on a queue nobody drains.
+     */
+    private void handOff(PendingDataset dataset, BlockingQueue<PendingDataset> writeQueue, Future<?> writer)
+            throws InterruptedException, ExecutionException {
+        if (dataset != END_OF_INPUT) {
+            dataset.seal();
+        }
+
+        while (!writeQueue.offer(dataset, 1, TimeUnit.SECONDS)) {
+            if (writer.isDone()) {
+                writer.get();
+                throw new IllegalStateException("Column meta writer stopped before the input was fully read");
+            }
+        }
+    }
+
+    private void drain(BlockingQueue<PendingDataset> writeQueue, LoadingContext context) throws InterruptedException {
+        PendingDataset dataset;
+        while ((dataset = writeQueue.take()) != END_OF_INPUT) {
+            dataset.awaitBuilt();
+            List<ConceptNode> topLayer = context.conceptModelTree().detachDataset(dataset.datasetRef);
+            if (topLayer.isEmpty()) {
+                continue;
+            }
+
+            log.info("Writing dataset {}", dataset.datasetRef);
+            this.columnMetaTreePersister.persist(topLayer, context);
+        }
+    }
+
+    /**
+     * Tracks the builder tasks of one dataset. The count starts at one on behalf of the reader, which releases it
+     * with {@link #seal()} once no more groups will be submitted for the dataset.
+     */
+    private static class PendingDataset {
+
+        private final String datasetRef;
+        private final AtomicInteger pendingTasks = new AtomicInteger(1);
+        private final CountDownLatch built = new CountDownLatch(1);
+        private volatile boolean abandoned;
+
+        private PendingDataset(String datasetRef) {
+            this.datasetRef = datasetRef;
+        }
+
+        private void taskStarted() {
+            pendingTasks.incrementAndGet();
+        }
+
+        private void taskFinished() {
+            if (pendingTasks.decrementAndGet() == 0) {
+                built.countDown();
+            }
+        }
+
+        private void taskAbandoned() {
+            abandoned = true;
+            taskFinished();
+        }
+
+        private void seal() {
+            taskFinished();
+        }
+
+        private void awaitBuilt() throws InterruptedException {
+            built.await();
+            if (abandoned) {
+                throw new IllegalStateException("Concept groups of dataset " + datasetRef + " were abandoned before they were built");
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.StudyLoadResults;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persists a built concept tree one study at a time, each study in its own transaction, on a bounded pool. A study
+ * that fails is rolled back and recorded in the context's {@link StudyLoadResults} while the other studies still
+ * commit.
+ * <p>
+ * Datasets are created before any study is written so the study transactions only touch concepts and their metadata.
+ * Each worker holds a connection for as long as its study takes, so the parallelism should stay below the size of the
+ * connection pool. COPY writes commit on a connection of their own, which is one transaction per study here as well.
+ */
+@Component
+public class ColumnMetaStudyPersister {
+
+    private final Logger log = LoggerFactory.getLogger(ColumnMetaStudyPersister.class);
+
+    private final ColumnMetaTreePersister columnMetaTreePersister;
+    private final TransactionTemplate transactionTemplate;
+    private final int parallelism;
+
+    public ColumnMetaStudyPersister(
+            ColumnMetaTreePersister columnMetaTreePersister,
+            PlatformTransactionManager transactionManager,
+            @Value("${dictionary.loading.per-study.parallelism:4}") int parallelism
+    ) {
+        this.columnMetaTreePersister = columnMetaTreePersister;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void persist(LoadingContext context) {
+        List<ConceptNode> studies = context.conceptModelTree().getRoot().getChildren();
+        if (studies.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> datasetIDs = this.columnMetaTreePersister.resolveDatasetIds(studies);
+        int threads = Math.min(parallelism, studies.size());
+        log.info("Writing {} studies in separate transactions, {} at a time", studies.size(), threads);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            studies.forEach(study -> executor.execute(() -> persistStudy(study, datasetIDs, context)));
+        }
+        log.info("Per-study write finished, {}", context.studyLoadResults());
+        // Studies skipped after a cancel are not failures, but the load as a whole did not finish
+        context.progress().checkCancelled();
+    }
+
+    private void persistStudy(ConceptNode study, Map<String, Long> datasetIDs, LoadingContext context) {
+        String datasetRef = study.getDatasetRef();
+        if (context.progress().isCancelRequested()) {
+            log.info("Skipping study {}, the load was cancelled", datasetRef);
+            return;
+        }
+
+        try {
+            this.transactionTemplate.executeWithoutResult(status ->
+                    this.columnMetaTreePersister.write(List.of(study), datasetIDs, context, Runnable::run));
+            context.studyLoadResults().committed(datasetRef);
+            log.info("Committed study {}", datasetRef);
+        } catch (RuntimeException e) {
+            String reason = ExceptionUtils.getRootCauseMessage(e);
+            log.error("Rolled back study {}", datasetRef, e);
+            context.studyLoadResults().failed(datasetRef, reason);
+            context.loadingErrorRegistry().addError("Study " + datasetRef + " was rolled back: " + reason);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptService;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetService;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.PersistenceMode;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,68 +25,128 @@ public class ColumnMetaTreePersister {
     private final DatasetService datasetService;
     private final ConceptService conceptService;
     private final ConceptMetadataService conceptMetadataService;
+    private final ColumnMetaCopyWriter columnMetaCopyWriter;
+    private final ColumnMetaDeltaWriter columnMetaDeltaWriter;
+    private final LoadingMetrics loadingMetrics;
 
     private static final int BATCH_SIZE = 5000;
 
-    public ColumnMetaTreePersister(DatasetService datasetService, ConceptService conceptService, ConceptMetadataService conceptMetadataService) {
+    public ColumnMetaTreePersister(
+            DatasetService datasetService,
+            ConceptService conceptService,
+            ConceptMetadataService conceptMetadataService,
+            ColumnMetaCopyWriter columnMetaCopyWriter,
+            ColumnMetaDeltaWriter columnMetaDeltaWriter,
+            LoadingMetrics loadingMetrics
+    ) {
         this.datasetService = datasetService;
         this.conceptService = conceptService;
         this.conceptMetadataService = conceptMetadataService;
+        this.columnMetaCopyWriter = columnMetaCopyWriter;
+        this.columnMetaDeltaWriter = columnMetaDeltaWriter;
+        this.loadingMetrics = loadingMetrics;
     }
 
     protected void persist(LoadingContext context) {
+        persist(context.conceptModelTree().getRoot().getChildren(), context);
+    }
+
+    /**
+     * Writes the given dataset level nodes and every node below them. Datasets that do not exist yet are created. In
+     * delta mode only the differences from the stored concepts are written, whatever the persistence mode.
+     *
+     * @param topLayer the dataset level nodes to write
+     * @param context  the loading context
+     */
+    protected void persist(Collection<ConceptNode> topLayer, LoadingContext context) {
+        Map<String, Long> datasetIDs = resolveDatasetIds(topLayer);
         try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
-            log.info("Writing tree to database");
-            List<CompletableFuture<Void>> metadataFutures = new ArrayList<>();
-            List<ConceptMetadataModel> pendingMetadata = new ArrayList<>();
+            write(topLayer, datasetIDs, context, executor);
+        }
+    }
 
-            persistConceptTreeModel(getDatasetModels(context.allowedStudies()), context, executor, metadataFutures, pendingMetadata);
+    /**
+     * Writes the given dataset level nodes once their datasets exist.
+     *
+     * @param datasetIDs       dataset ref to dataset id for every node in the top layer
+     * @param metadataExecutor runs the JPA metadata batches. A direct executor keeps them on the calling thread, and
+     *                         so in its transaction.
+     */
+    void write(Collection<ConceptNode> topLayer, Map<String, Long> datasetIDs, LoadingContext context, Executor metadataExecutor) {
+        if (context.options().deltaMode().isEnabled()) {
+            log.info("Writing tree to database as a delta, {}", context.options().deltaMode());
+            this.columnMetaDeltaWriter.write(topLayer, datasetIDs, context);
+            return;
+        }
 
-            // Flush any remaining metadata
-            if (!pendingMetadata.isEmpty()) {
-                metadataFutures.add(saveMetadataBatchAsync(List.copyOf(pendingMetadata), executor));
-            }
+        if (context.options().persistenceMode() == PersistenceMode.COPY) {
+            log.info("Writing tree to database using COPY");
+            context.progress().checkCancelled();
+            long numberOfConceptPaths = this.columnMetaCopyWriter.write(topLayer, datasetIDs);
+            context.progress().addNodesPersisted(numberOfConceptPaths);
+            log.info("Number of concept paths processed: {}", numberOfConceptPaths);
+            return;
+        }
+
+        log.info("Writing tree to database");
+        List<CompletableFuture<Void>> metadataFutures = new ArrayList<>();
+        List<ConceptMetadataModel> pendingMetadata = new ArrayList<>();
 
-            log.info("Waiting for {} metadata batch(es) to complete.", metadataFutures.size());
-            CompletableFuture.allOf(metadataFutures.toArray(new CompletableFuture[0])).join();
-            log.info("All metadata batches saved. Shutting down.");
+        persistConceptTreeModel(topLayer, datasetIDs, context.progress(), metadataExecutor, metadataFutures, pendingMetadata);
+
+        // Flush any remaining metadata
+        if (!pendingMetadata.isEmpty()) {
+            metadataFutures.add(saveMetadataBatchAsync(List.copyOf(pendingMetadata), metadataExecutor));
         }
+
+        log.info("Waiting for {} metadata batch(es) to complete.", metadataFutures.size());
+        CompletableFuture.allOf(metadataFutures.toArray(new CompletableFuture[0])).join();
+        log.info("All metadata batches saved.");
     }
 
     private CompletableFuture<Void> saveMetadataBatchAsync(List<ConceptMetadataModel> batch, Executor executor) {
-        return CompletableFuture.runAsync(() -> conceptMetadataService.saveAll(batch), executor);
+        loadingMetrics.metadataBatchSubmitted();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                loadingMetrics.timeMetadataBatch(batch.size(), () -> conceptMetadataService.saveAll(batch));
+            } finally {
+                loadingMetrics.metadataBatchFinished();
+            }
+        }, executor);
     }
 
-    private List<DatasetModel> getDatasetModels(Set<String> allowedStudies) {
-        List<DatasetModel> allByRefs;
-        if (allowedStudies.isEmpty()) {
-            allByRefs = this.datasetService.findAll();
-        } else {
-            allByRefs = this.datasetService.findAllByRefs(allowedStudies.stream().toList());
+    /**
+     * Maps each dataset ref in the top layer of the tree to its id, creating any dataset that does not exist yet.
+     */
+    Map<String, Long> resolveDatasetIds(Collection<ConceptNode> topLayer) {
+        List<String> refs = topLayer.stream().map(ConceptNode::getDatasetRef).distinct().toList();
+        HashMap<String, Long> datasetIDs = new HashMap<>();
+        if (refs.isEmpty()) {
+            return datasetIDs;
         }
-        return allByRefs;
-    }
 
-    private void persistConceptTreeModel(
-            List<DatasetModel> datasets,
-            LoadingContext context,
-            Executor executor,
-            List<CompletableFuture<Void>> metadataFutures,
-            List<ConceptMetadataModel> pendingMetadata
-    ) {
-        HashMap<String, Long> datasetIDs = new HashMap<>();
-        datasets.forEach(dataset -> datasetIDs.put(dataset.getRef(), dataset.getDatasetId()));
-        Collection<ConceptNode> currentLayer = context.conceptModelTree().getRoot().getChildren().values();
+        this.datasetService.findAllByRefs(refs).forEach(dataset -> datasetIDs.put(dataset.getRef(), dataset.getDatasetId()));
 
-        List<DatasetModel> newDatasets = new ArrayList<>(currentLayer.size() - datasetIDs.size());
-        currentLayer.forEach(node -> {
-            if (!datasetIDs.containsKey(node.getDatasetRef())) {
-                newDatasets.add(new DatasetModel(node.getDatasetRef(), "", "", ""));
+        List<DatasetModel> newDatasets = new ArrayList<>(refs.size() - datasetIDs.size());
+        refs.forEach(ref -> {
+            if (!datasetIDs.containsKey(ref)) {
+                newDatasets.add(new DatasetModel(ref, "", "", ""));
             }
         });
         this.datasetService.saveAll(newDatasets);
         newDatasets.forEach(dataset -> datasetIDs.put(dataset.getRef(), dataset.getDatasetId()));
+        return datasetIDs;
+    }
 
+    private void persistConceptTreeModel(
+            Collection<ConceptNode> topLayer,
+            Map<String, Long> datasetIDs,
+            LoadingProgress progress,
+            Executor executor,
+            List<CompletableFuture<Void>> metadataFutures,
+            List<ConceptMetadataModel> pendingMetadata
+    ) {
+        Collection<ConceptNode> currentLayer = topLayer;
         int numberOfConceptPaths = 0;
         List<ConceptModel> batchModels = new ArrayList<>(BATCH_SIZE);
         List<ConceptNode> batchNodes = new ArrayList<>(BATCH_SIZE);
@@ -94,29 +156,21 @@ public class ColumnMetaTreePersister {
             log.info("{} concept nodes at depth {}", currentLayer.size(), depth);
 
             for (ConceptNode node : currentLayer) {
-                nextLayer.addAll(node.getChildren().values());
-
-                if (!"ROOT".equals(node.getParent().getConceptPath())) {
-                    node.getConceptModel().setParentId(node.getParent().getConceptModel().getConceptNodeId());
-                }
+                nextLayer.addAll(node.getChildren());
 
-                node.getConceptModel().setDatasetId(datasetIDs.get(node.getDatasetRef()));
-                batchModels.add(node.getConceptModel());
+                // The entity is only materialized for the batch it is saved in
+                ConceptModel model = node.toConceptModel();
+                model.setDatasetId(datasetIDs.get(node.getDatasetRef()));
+                batchModels.add(model);
                 batchNodes.add(node);
 
                 if (batchModels.size() >= BATCH_SIZE) {
-                    this.conceptService.saveAll(batchModels);
-                    collectMetadata(batchNodes, pendingMetadata, metadataFutures, executor);
-                    batchModels.clear();
-                    batchNodes.clear();
+                    saveBatch(batchModels, batchNodes, progress, pendingMetadata, metadataFutures, executor);
                 }
             }
 
             if (!batchModels.isEmpty()) {
-                this.conceptService.saveAll(batchModels);
-                collectMetadata(batchNodes, pendingMetadata, metadataFutures, executor);
-                batchModels.clear();
-                batchNodes.clear();
+                saveBatch(batchModels, batchNodes, progress, pendingMetadata, metadataFutures, executor);
             }
 
             numberOfConceptPaths += currentLayer.size();
@@ -127,6 +181,25 @@ public class ColumnMetaTreePersister {
         log.info("Number of concept paths processed: {}", numberOfConceptPaths);
     }
 
+    private void saveBatch(
+            List<ConceptModel> batchModels,
+            List<ConceptNode> batchNodes,
+            LoadingProgress progress,
+            List<ConceptMetadataModel> pendingMetadata,
+            List<CompletableFuture<Void>> metadataFutures,
+            Executor executor
+    ) {
+        progress.checkCancelled();
+        loadingMetrics.timeConceptBatch(batchModels.size(), () -> this.conceptService.saveAll(batchModels));
+        progress.addNodesPersisted(batchModels.size());
+        for (int i = 0; i < batchNodes.size(); i++) {
+            batchNodes.get(i).setConceptNodeId(batchModels.get(i).getConceptNodeId());
+        }
+        collectMetadata(batchNodes, pendingMetadata, metadataFutures, executor);
+        batchModels.clear();
+        batchNodes.clear();
+    }
+
     private void collectMetadata(
             List<ConceptNode> batchNodes,
             List<ConceptMetadataModel> pendingMetadata,
@@ -136,7 +209,7 @@ public class ColumnMetaTreePersister {
         for (ConceptNode node : batchNodes) {
             List<ConceptMetadataModel> models = node.getConceptMetadataModels();
             for (ConceptMetadataModel model : models) {
-                model.setConceptNodeId(node.getConceptModel().getConceptNodeId());
+                model.setConceptNodeId(node.getConceptNodeId());
                 pendingMetadata.add(model);
 
                 if (pendingMetadata.size() >= BATCH_SIZE) {
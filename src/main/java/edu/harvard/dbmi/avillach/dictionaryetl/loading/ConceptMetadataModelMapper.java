@@ -12,6 +12,11 @@ import java.util.List;
 @Component
 public class ConceptMetadataModelMapper {
 
+    public static final String VALUES_KEY = "values";
+    public static final String IS_TIMESTAMP_KEY = "is_timestamp";
+    // Every key the loader writes. A delta load only compares and replaces these.
+    public static final String[] LOADED_KEYS = {VALUES_KEY, IS_TIMESTAMP_KEY};
+
     private final ColumnMetaUtility columnMetaUtility;
 
     public ConceptMetadataModelMapper(ColumnMetaUtility columnMetaUtility) {
@@ -27,10 +32,10 @@ public class ConceptMetadataModelMapper {
 
             String valuesJson = this.columnMetaUtility.listToJson(values);
             List<ConceptMetadataModel> result = new ArrayList<>();
-            result.add(new ConceptMetadataModel("values", valuesJson));
+            result.add(new ConceptMetadataModel(VALUES_KEY, valuesJson));
 
             if (columnMeta.timestamp()) {
-                result.add(new ConceptMetadataModel("is_timestamp", "true"));
+                result.add(new ConceptMetadataModel(IS_TIMESTAMP_KEY, "true"));
             }
 
             return result;
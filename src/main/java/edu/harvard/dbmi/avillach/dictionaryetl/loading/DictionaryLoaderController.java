@@ -1,9 +1,8 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.loading;
 
-import edu.harvard.dbmi.avillach.dictionaryetl.Utility.DatabaseCleanupUtility;
-import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetFacetRefreshService;
-import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetService;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.InitializeRequest;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadJob;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,8 +11,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.net.URI;
+import java.util.Optional;
 
 @CrossOrigin(origins = "http://localhost:8081")
 @Controller
@@ -22,18 +21,11 @@ public class DictionaryLoaderController {
 
     private final static Logger log = LoggerFactory.getLogger(DictionaryLoaderController.class);
 
-    private final DictionaryLoaderService dictionaryLoaderService;
-    private final FacetService facetService;
-    private final DatabaseCleanupUtility databaseCleanupUtility;
-    private final ReentrantLock reentrantLock = new ReentrantLock();
-    private final DatasetFacetRefreshService datasetFacetRefreshService;
+    private final LoadJobService loadJobService;
 
     @Autowired
-    public DictionaryLoaderController(DictionaryLoaderService dictionaryLoaderService, FacetService facetService, DatabaseCleanupUtility databaseCleanupUtility, DatasetFacetRefreshService datasetFacetRefreshService) {
-        this.dictionaryLoaderService = dictionaryLoaderService;
-        this.facetService = facetService;
-        this.databaseCleanupUtility = databaseCleanupUtility;
-        this.datasetFacetRefreshService = datasetFacetRefreshService;
+    public DictionaryLoaderController(LoadJobService loadJobService) {
+        this.loadJobService = loadJobService;
     }
 
     /**
@@ -48,35 +40,51 @@ public class DictionaryLoaderController {
     public ResponseEntity<String> initialDatabaseHydration(
             @RequestBody InitializeRequest request
     ) {
-        log.info("initialDatabaseHydration __ csvPath: {}, errorDictionary: {}, includeDefaultFacets: {}, clearDatabase: {}",
+        log.info("initialDatabaseHydration __ csvPath: {}, errorDictionary: {}, includeDefaultFacets: {}, clearDatabase: {}, delta: {}, deleteMissing: {}, perStudy: {}",
                 request.csvPath(),
                 request.errorDirectory(),
                 request.includeDefaultFacets(),
-                request.clearDatabase());
+                request.clearDatabase(),
+                request.delta(),
+                request.deleteMissing(),
+                request.perStudy());
 
-        String response;
-        if (this.reentrantLock.tryLock()) {
-            try {
-                if (request.clearDatabase()) {
-                    databaseCleanupUtility.truncateTablesAllTables();
-                }
-                response = this.dictionaryLoaderService.processColumnMetaCSV(
-                        request.csvPath(),
-                        request.errorDirectory(),
-                        (request.studies() != null) ? request.studies() : List.of()
-                );
-                if (request.includeDefaultFacets()) {
-                    this.facetService.createOrUpdateDefaultFacets();
-                }
-                datasetFacetRefreshService.refreshDatasetFacet(request.isBDC());
-            } finally {
-                reentrantLock.unlock();
-            }
-        } else {
-            response = "This task is already running. Skipping execution.";
+        LoadingProgress progress = new LoadingProgress();
+        Optional<String> response = this.loadJobService.tryLoad(request, progress);
+        if (response.isEmpty()) {
+            return new ResponseEntity<>("This task is already running. Skipping execution.", HttpStatus.OK);
         }
 
-        return new ResponseEntity<>(response, HttpStatus.OK);
+        HttpStatus status = progress.getFailure() == null ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR;
+        return new ResponseEntity<>(response.get(), status);
+    }
+
+    /**
+     * Submits the same load as {@code /initialize} as a background job and returns at once. Poll the job at the
+     * returned location for its phase, progress and result.
+     *
+     * @param request InitializeRequest
+     * @return 202 with the queued job
+     */
+    @PostMapping(value = "/jobs")
+    public ResponseEntity<LoadJob> submitJob(@RequestBody InitializeRequest request) {
+        LoadJob job = this.loadJobService.submit(request);
+        return ResponseEntity.accepted().location(URI.create("/load/jobs/" + job.getId())).body(job);
+    }
+
+    @GetMapping(value = "/jobs/{id}")
+    public ResponseEntity<LoadJob> getJob(@PathVariable String id) {
+        return ResponseEntity.of(this.loadJobService.find(id));
+    }
+
+    /**
+     * Cancels a job. A running job stops at its next row or batch, so it can still be running when this returns.
+     */
+    @DeleteMapping(value = "/jobs/{id}")
+    public ResponseEntity<LoadJob> cancelJob(@PathVariable String id) {
+        return this.loadJobService.cancel(id)
+                .map(job -> ResponseEntity.accepted().body(job))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
 }
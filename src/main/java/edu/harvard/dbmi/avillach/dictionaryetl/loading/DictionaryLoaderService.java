@@ -1,11 +1,15 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.loading;
 
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadOptions;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -16,14 +20,20 @@ public class DictionaryLoaderService {
     private final Logger log = LoggerFactory.getLogger(DictionaryLoaderService.class);
 
     private final ColumnMetaGroupingPipeline columnMetaGroupingPipeline;
+    private final ColumnMetaStreamingPipeline columnMetaStreamingPipeline;
     private final ColumnMetaTreePersister columnMetaTreePersister;
+    private final ColumnMetaStudyPersister columnMetaStudyPersister;
     private final ColumnMetaErrorWriter columnMetaErrorWriter;
+    private final LoadingMetrics loadingMetrics;
 
     @Autowired
-    public DictionaryLoaderService(ColumnMetaGroupingPipeline columnMetaGroupingPipeline, ColumnMetaTreePersister columnMetaTreePersister, ColumnMetaErrorWriter columnMetaErrorWriter) {
+    public DictionaryLoaderService(ColumnMetaGroupingPipeline columnMetaGroupingPipeline, ColumnMetaStreamingPipeline columnMetaStreamingPipeline, ColumnMetaTreePersister columnMetaTreePersister, ColumnMetaStudyPersister columnMetaStudyPersister, ColumnMetaErrorWriter columnMetaErrorWriter, LoadingMetrics loadingMetrics) {
         this.columnMetaGroupingPipeline = columnMetaGroupingPipeline;
+        this.columnMetaStreamingPipeline = columnMetaStreamingPipeline;
         this.columnMetaTreePersister = columnMetaTreePersister;
+        this.columnMetaStudyPersister = columnMetaStudyPersister;
         this.columnMetaErrorWriter = columnMetaErrorWriter;
+        this.loadingMetrics = loadingMetrics;
     }
 
     public String processColumnMetaCSV(String csvPath, String errorFile) {
@@ -31,11 +41,22 @@ public class DictionaryLoaderService {
     }
 
     public String processColumnMetaCSV(String csvPath, String errorFile, List<String> studies) {
+        return processColumnMetaCSV(csvPath, errorFile, studies, LoadOptions.DEFAULT, new LoadingProgress());
+    }
+
+    /**
+     * @param options  how the file is loaded
+     * @param progress updated as the load runs. A cancel requested through it stops the load at the next row or
+     *                 batch, and the response is then "Cancelled". A load that fails responds with "Failed: " and the
+     *                 cause, which is also recorded in the progress.
+     */
+    public String processColumnMetaCSV(String csvPath, String errorFile, List<String> studies, LoadOptions options, LoadingProgress progress) {
         String baseDir = System.getProperty("hpds.data.dir", "/opt/local/hpds");
 
         if (errorFile == null) {
             errorFile = Path.of(baseDir, "columnMetaErrors.csv").toString();
         } else if (!errorFile.endsWith(".csv")) {
+            progress.failed("The error file must be a csv.");
             return "The error file must be a csv.";
         }
 
@@ -48,19 +69,51 @@ public class DictionaryLoaderService {
                         .map(String::trim)
                         .map(String::toLowerCase)
                         .collect(Collectors.toSet());
-        LoadingContext context = new LoadingContext(allowedStudies, csvPath, errorFile);
+        LoadingContext context = new LoadingContext(allowedStudies, csvPath, errorFile, options, progress);
 
-        log.info("Processing Studies: {}", allowedStudies);
+        log.info("Processing Studies: {} using {} persistence, streaming: {}, delta: {}, per study: {}", allowedStudies, options.persistenceMode(), options.streaming(), options.deltaMode(), options.perStudy());
+        this.loadingMetrics.trackErrors(context.loadingErrorRegistry());
         try {
-            this.columnMetaGroupingPipeline.run(context);
-            this.columnMetaTreePersister.persist(context);
+            progress.setBytesTotal(Files.size(Path.of(csvPath)));
+            long phaseStart = System.nanoTime();
+            progress.enterPhase(LoadingProgress.Phase.PARSE);
+            if (options.streaming()) {
+                this.columnMetaStreamingPipeline.run(context);
+                this.loadingMetrics.recordPhase(LoadingProgress.Phase.PARSE, System.nanoTime() - phaseStart);
+            } else {
+                this.columnMetaGroupingPipeline.run(context);
+                this.loadingMetrics.recordPhase(LoadingProgress.Phase.PARSE, System.nanoTime() - phaseStart);
+
+                progress.setNodesTotal(context.conceptModelTree().countNodes());
+                phaseStart = System.nanoTime();
+                progress.enterPhase(LoadingProgress.Phase.PERSIST);
+                if (options.perStudy()) {
+                    this.columnMetaStudyPersister.persist(context);
+                } else {
+                    this.columnMetaTreePersister.persist(context);
+                }
+                this.loadingMetrics.recordPhase(LoadingProgress.Phase.PERSIST, System.nanoTime() - phaseStart);
+            }
         } catch (Exception e) {
-            log.info(e.getMessage());
+            log.error("Failed to load {}", csvPath, e);
+            progress.failed(ExceptionUtils.getRootCauseMessage(e));
         } finally {
             this.columnMetaErrorWriter.writeErrors(context);
         }
 
-        return "Success";
+        if (progress.getFailure() != null) {
+            return progress.isCancelRequested() ? "Cancelled" : "Failed: " + progress.getFailure();
+        }
+
+        String response = "Success";
+        if (options.perStudy() && !options.streaming()) {
+            response = (context.studyLoadResults().hasFailures() ? "Partial success" : "Success") +
+                       ". Studies " + context.studyLoadResults();
+        }
+        if (options.deltaMode().isEnabled()) {
+            response += ". Delta load " + context.deltaLoadResult();
+        }
+        return response;
     }
 
 
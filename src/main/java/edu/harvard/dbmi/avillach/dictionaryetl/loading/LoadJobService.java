@@ -0,0 +1,191 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.DatabaseCleanupUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetFacetRefreshService;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetService;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.InitializeRequest;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadJob;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadOptions;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs dictionary loads, either in the calling thread for {@code /load/initialize} or as jobs in the background.
+ * Jobs run one at a time in submission order, and never at the same time as a synchronous load. The most recent
+ * jobs are kept so their outcome can still be polled after they finish.
+ */
+@Service
+public class LoadJobService {
+
+    private final Logger log = LoggerFactory.getLogger(LoadJobService.class);
+
+    private final DictionaryLoaderService dictionaryLoaderService;
+    private final FacetService facetService;
+    private final DatabaseCleanupUtility databaseCleanupUtility;
+    private final DatasetFacetRefreshService datasetFacetRefreshService;
+    private final LoadingMetrics loadingMetrics;
+    private final int retainedJobs;
+
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor();
+    // Insertion ordered so the oldest finished jobs are evicted first
+    private final Map<String, LoadJob> jobs = new LinkedHashMap<>();
+
+    public LoadJobService(
+            DictionaryLoaderService dictionaryLoaderService,
+            FacetService facetService,
+            DatabaseCleanupUtility databaseCleanupUtility,
+            DatasetFacetRefreshService datasetFacetRefreshService,
+            LoadingMetrics loadingMetrics,
+            @Value("${dictionary.loading.jobs.retained:100}") int retainedJobs
+    ) {
+        this.dictionaryLoaderService = dictionaryLoaderService;
+        this.facetService = facetService;
+        this.databaseCleanupUtility = databaseCleanupUtility;
+        this.datasetFacetRefreshService = datasetFacetRefreshService;
+        this.loadingMetrics = loadingMetrics;
+        this.retainedJobs = retainedJobs;
+    }
+
+    /**
+     * Runs a load in the calling thread unless another load is running.
+     *
+     * @return the response of the load, or empty if another load holds the lock
+     */
+    public Optional<String> tryLoad(InitializeRequest request, LoadingProgress progress) {
+        if (!this.loadLock.tryLock()) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(load(request, progress));
+        } finally {
+            this.loadLock.unlock();
+        }
+    }
+
+    public LoadJob submit(InitializeRequest request) {
+        LoadJob job = new LoadJob(request);
+        synchronized (this.jobs) {
+            this.jobs.put(job.getId(), job);
+            evictFinishedJobs();
+        }
+
+        this.jobExecutor.execute(() -> run(job));
+        log.info("Submitted load job {}", job.getId());
+        return job;
+    }
+
+    public Optional<LoadJob> find(String id) {
+        synchronized (this.jobs) {
+            return Optional.ofNullable(this.jobs.get(id));
+        }
+    }
+
+    /**
+     * Asks a job to stop. A queued job never starts, and a running job stops at its next row or batch. Studies
+     * already committed by a per-study load stay committed.
+     *
+     * @return the job, or empty if there is no job with the id
+     */
+    public Optional<LoadJob> cancel(String id) {
+        Optional<LoadJob> job = find(id);
+        job.ifPresent(loadJob -> {
+            log.info("Cancelling load job {}", id);
+            loadJob.getProgress().requestCancel();
+        });
+        return job;
+    }
+
+    private void run(LoadJob job) {
+        LoadingProgress progress = job.getProgress();
+        LoadJob.Status status;
+        String result;
+        this.loadLock.lock();
+        try {
+            if (progress.isCancelRequested()) {
+                status = LoadJob.Status.CANCELLED;
+                result = "Cancelled before it started";
+            } else {
+                job.started();
+                result = load(job.getRequest(), progress);
+                if (progress.getFailure() == null) {
+                    status = LoadJob.Status.SUCCEEDED;
+                } else {
+                    status = progress.isCancelRequested() ? LoadJob.Status.CANCELLED : LoadJob.Status.FAILED;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Load job {} failed", job.getId(), e);
+            progress.failed(ExceptionUtils.getRootCauseMessage(e));
+            status = LoadJob.Status.FAILED;
+            result = "Failed: " + progress.getFailure();
+        } finally {
+            this.loadLock.unlock();
+        }
+
+        // Finished only once the lock is released, so a client that sees the job finish can start the next load
+        job.finished(status, result);
+        log.info("Load job {} finished {}", job.getId(), status);
+    }
+
+    /**
+     * Loads the columnMeta.csv of the request, then creates the default facets and refreshes the dataset facets.
+     * The facet steps are skipped if the load failed or was cancelled.
+     */
+    private String load(InitializeRequest request, LoadingProgress progress) {
+        if (request.clearDatabase()) {
+            this.databaseCleanupUtility.truncateTablesAllTables();
+        }
+
+        String response = this.dictionaryLoaderService.processColumnMetaCSV(
+                request.csvPath(),
+                request.errorDirectory(),
+                (request.studies() != null) ? request.studies() : List.of(),
+                LoadOptions.of(request),
+                progress
+        );
+        if (progress.getFailure() != null) {
+            return response;
+        }
+
+        long phaseStart = System.nanoTime();
+        progress.enterPhase(LoadingProgress.Phase.FACETS);
+        if (request.includeDefaultFacets()) {
+            this.facetService.createOrUpdateDefaultFacets();
+        }
+        this.datasetFacetRefreshService.refreshDatasetFacet(request.isBDC());
+        this.loadingMetrics.recordPhase(LoadingProgress.Phase.FACETS, System.nanoTime() - phaseStart);
+        progress.enterPhase(LoadingProgress.Phase.DONE);
+        return response;
+    }
+
+    private void evictFinishedJobs() {
+        Iterator<LoadJob> iterator = this.jobs.values().iterator();
+        int excess = this.jobs.size() - this.retainedJobs;
+        while (excess > 0 && iterator.hasNext()) {
+            if (iterator.next().getStatus().isFinished()) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        synchronized (this.jobs) {
+            this.jobs.values().forEach(job -> job.getProgress().requestCancel());
+        }
+        this.jobExecutor.shutdown();
+    }
+}
@@ -0,0 +1,166 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingErrorRegistry;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters for the column meta loading pipeline, published on {@code /actuator/metrics} and
+ * {@code /actuator/prometheus}. Counters are cumulative across loads; take their rate for rows per second.
+ */
+@Component
+public class LoadingMetrics {
+
+    private static final String CONCEPT_NODE = "concept_node";
+    private static final String CONCEPT_NODE_META = "concept_node_meta";
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicInteger queuedBuilderTasks = new AtomicInteger();
+    private final AtomicInteger inFlightBuilderTasks = new AtomicInteger();
+    private final AtomicInteger pendingMetadataBatches = new AtomicInteger();
+    private volatile LoadingErrorRegistry errors;
+
+    private final Counter rowsParsed;
+    private final Timer treeBuild;
+    private final Timer conceptBatches;
+    private final Timer metadataBatches;
+    private final Counter conceptRows;
+    private final Counter metadataRows;
+
+    public LoadingMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("dictionary.loading.builder.queued", queuedBuilderTasks, AtomicInteger::get)
+                .description("Concept groups submitted to the tree builder that are waiting for a builder")
+                .register(meterRegistry);
+        Gauge.builder("dictionary.loading.builder.in_flight", inFlightBuilderTasks, AtomicInteger::get)
+                .description("Concept groups currently being added to the concept tree")
+                .register(meterRegistry);
+        Gauge.builder("dictionary.loading.persist.pending_metadata_batches", pendingMetadataBatches, AtomicInteger::get)
+                .description("Metadata batches handed to the async writers that have not been saved yet")
+                .register(meterRegistry);
+        Gauge.builder("dictionary.loading.errors", this, LoadingMetrics::getErrorCount)
+                .description("Rows and studies rejected by the current or most recent load")
+                .register(meterRegistry);
+
+        rowsParsed = Counter.builder("dictionary.loading.rows.parsed")
+                .description("columnMeta.csv rows read by the column meta source")
+                .baseUnit("rows")
+                .register(meterRegistry);
+        treeBuild = Timer.builder("dictionary.loading.tree.build")
+                .description("Time to flatten a concept group and add it to the concept tree")
+                .register(meterRegistry);
+        conceptBatches = Timer.builder("dictionary.loading.persist.batch")
+                .description("Time to insert a batch of rows")
+                .tag("table", CONCEPT_NODE)
+                .register(meterRegistry);
+        metadataBatches = Timer.builder("dictionary.loading.persist.batch")
+                .description("Time to insert a batch of rows")
+                .tag("table", CONCEPT_NODE_META)
+                .register(meterRegistry);
+        conceptRows = Counter.builder("dictionary.loading.persist.rows")
+                .description("Rows written to the database")
+                .baseUnit("rows")
+                .tag("table", CONCEPT_NODE)
+                .register(meterRegistry);
+        metadataRows = Counter.builder("dictionary.loading.persist.rows")
+                .description("Rows written to the database")
+                .baseUnit("rows")
+                .tag("table", CONCEPT_NODE_META)
+                .register(meterRegistry);
+    }
+
+    public void builderTaskQueued() {
+        queuedBuilderTasks.incrementAndGet();
+    }
+
+    public void builderTaskStarted() {
+        queuedBuilderTasks.decrementAndGet();
+        inFlightBuilderTasks.incrementAndGet();
+    }
+
+    public void builderTaskFinished() {
+        inFlightBuilderTasks.decrementAndGet();
+    }
+
+    public void builderTaskAbandoned() {
+        queuedBuilderTasks.decrementAndGet();
+    }
+
+    public int getQueuedBuilderTasks() {
+        return queuedBuilderTasks.get();
+    }
+
+    public int getInFlightBuilderTasks() {
+        return inFlightBuilderTasks.get();
+    }
+
+    public void rowParsed() {
+        rowsParsed.increment();
+    }
+
+    public void timeTreeBuild(Runnable build) {
+        treeBuild.record(build);
+    }
+
+    public void timeConceptBatch(int rows, Runnable insert) {
+        conceptBatches.record(insert);
+        conceptRows.increment(rows);
+    }
+
+    public void timeMetadataBatch(int rows, Runnable insert) {
+        metadataBatches.record(insert);
+        metadataRows.increment(rows);
+    }
+
+    /**
+     * Counts rows written outside of timed batches, such as by COPY.
+     */
+    public void rowsCopied(long conceptNodes, long metadata) {
+        conceptRows.increment(conceptNodes);
+        metadataRows.increment(metadata);
+    }
+
+    public void metadataBatchSubmitted() {
+        pendingMetadataBatches.incrementAndGet();
+    }
+
+    public void metadataBatchFinished() {
+        pendingMetadataBatches.decrementAndGet();
+    }
+
+    public int getPendingMetadataBatches() {
+        return pendingMetadataBatches.get();
+    }
+
+    /**
+     * @param errors the error registry of the load that is starting. Its size is reported until the next load.
+     */
+    public void trackErrors(LoadingErrorRegistry errors) {
+        this.errors = errors;
+    }
+
+    public int getErrorCount() {
+        LoadingErrorRegistry registry = errors;
+        return registry == null ? 0 : registry.getErrors().size();
+    }
+
+    /**
+     * Records how long a load spent in a phase. The parse phase includes waiting for the builders, and for streaming
+     * loads the writes as well.
+     */
+    public void recordPhase(LoadingProgress.Phase phase, long nanos) {
+        Timer.builder("dictionary.loading.phase")
+                .description("Time a load spent in each phase")
+                .tag("phase", phase.name().toLowerCase())
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,365 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import org.hibernate.query.spi.CloseableIterator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Scans the rows that start in {@code [start, end)} of a columnMeta.csv through a window of the file mapped into
+ * memory. A row is tokenized in place: only field boundaries are recorded, and a String is only decoded for a field
+ * that ends up in the {@link ColumnMeta}. The width, offset and observation offset/length columns are never decoded.
+ * <p>
+ * Quoting follows the csvParser bean: {@code "} toggles quoting, {@code ""} inside quotes is a literal quote and
+ * there is no escape character. A µ in the concept path is turned into a backslash while it is decoded, and the
+ * category values are split on µ without building the whole column first.
+ */
+class MappedColumnMetaReader implements CloseableIterator<ColumnMeta> {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int COLUMNS = 12;
+    private static final int REQUIRED_COLUMNS = 9;
+    private static final byte QUOTE = '"';
+    private static final byte SEPARATOR = ',';
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte BACKSLASH = '\\';
+    // µ (U+00B5) encoded as UTF-8
+    private static final byte MICRO_LEAD = (byte) 0xC2;
+    private static final byte MICRO_TRAIL = (byte) 0xB5;
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    private final long end;
+    private final long fileSize;
+    private final ColumnMetaMapper columnMetaMapper;
+    private final LoadingContext context;
+    private final boolean closeChannel;
+
+    private int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+
+    private final int[] fieldStart = new int[COLUMNS];
+    private final int[] fieldEnd = new int[COLUMNS];
+    private final boolean[] fieldQuoted = new boolean[COLUMNS];
+    private int fieldCount;
+    private int rowEnd;
+    private byte[] scratch = new byte[4096];
+
+    private ColumnMeta nextElement;
+    private boolean hasNextConsumed = true; // force fetch on first call
+
+    /**
+     * @param start        offset of the first row to read. Must be the start of a row.
+     * @param end          rows starting at or after this offset are left to the next reader
+     * @param closeChannel whether {@link #close()} closes the channel
+     */
+    MappedColumnMetaReader(
+            FileChannel channel,
+            long start,
+            long end,
+            int windowSize,
+            ColumnMetaMapper columnMetaMapper,
+            LoadingContext context,
+            boolean closeChannel
+    ) throws IOException {
+        this.channel = channel;
+        this.end = end;
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        this.columnMetaMapper = columnMetaMapper;
+        this.context = context;
+        this.closeChannel = closeChannel;
+        map(start);
+    }
+
+    @Override
+    public void close() {
+        window = null;
+        if (closeChannel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                this.context.loadingErrorRegistry().addError("Error closing CSV reader: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (hasNextConsumed) {
+            nextElement = fetchNextValid();
+            hasNextConsumed = false;
+        }
+
+        return nextElement != null;
+    }
+
+    @Override
+    public ColumnMeta next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        hasNextConsumed = true;
+        return nextElement;
+    }
+
+    private ColumnMeta fetchNextValid() {
+        try {
+            while (nextRow()) {
+                try {
+                    return mapRow();
+                } catch (Exception e) {
+                    this.context.loadingErrorRegistry().addError("Unable to process columnMeta %s".formatted(rawRow()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds the next row in range and records its field boundaries. Moves the window forward when the row runs past
+     * its end, and grows the window when a single row does not fit in it.
+     *
+     * @return false once there are no more rows starting before {@code end}
+     */
+    private boolean nextRow() throws IOException {
+        while (true) {
+            long rowStart = windowStart + position;
+            if (rowStart >= end || rowStart >= fileSize) {
+                return false;
+            }
+
+            if (tokenizeRow()) {
+                this.context.progress().addBytesRead(windowStart + position - rowStart);
+                return true;
+            }
+
+            if (position == 0) {
+                // The row is larger than the whole window
+                windowSize = (int) Math.min((long) windowSize * 2, Integer.MAX_VALUE);
+            }
+            map(rowStart);
+        }
+    }
+
+    /**
+     * @return false if the window ends before the row does and more of the file is left to map
+     */
+    private boolean tokenizeRow() {
+        int limit = window.limit();
+        boolean lastWindow = windowStart + limit >= fileSize;
+        int i = position;
+        boolean inQuotes = false;
+        fieldCount = 0;
+        startField(i);
+
+        while (true) {
+            if (i >= limit) {
+                if (!lastWindow) {
+                    return false;
+                }
+                endField(i);
+                rowEnd = i;
+                position = i;
+                return true;
+            }
+
+            byte b = window.get(i);
+            if (b == QUOTE) {
+                if (inQuotes && i + 1 < limit && window.get(i + 1) == QUOTE) {
+                    i += 2;
+                    continue;
+                }
+                if (inQuotes && i + 1 >= limit && !lastWindow) {
+                    return false;
+                }
+                inQuotes = !inQuotes;
+                markQuoted();
+            } else if (!inQuotes && b == SEPARATOR) {
+                endField(i);
+                startField(i + 1);
+            } else if (!inQuotes && b == NEWLINE) {
+                int contentEnd = i > position && window.get(i - 1) == CARRIAGE_RETURN ? i - 1 : i;
+                endField(contentEnd);
+                rowEnd = contentEnd;
+                position = i + 1;
+                return true;
+            }
+            i++;
+        }
+    }
+
+    private void startField(int offset) {
+        if (fieldCount < COLUMNS) {
+            fieldStart[fieldCount] = offset;
+            fieldQuoted[fieldCount] = false;
+        }
+    }
+
+    private void markQuoted() {
+        if (fieldCount < COLUMNS) {
+            fieldQuoted[fieldCount] = true;
+        }
+    }
+
+    private void endField(int offset) {
+        if (fieldCount < COLUMNS) {
+            fieldEnd[fieldCount] = offset;
+        }
+        fieldCount++;
+    }
+
+    private ColumnMeta mapRow() {
+        if (fieldCount < REQUIRED_COLUMNS) {
+            throw new IllegalArgumentException("Expected at least " + REQUIRED_COLUMNS + " columns but found " + fieldCount);
+        }
+
+        boolean isCategorical = equalsIgnoreCase(3, TRUE);
+        return columnMetaMapper.toColumnMeta(
+                decodeConceptPath(),
+                null,
+                null,
+                isCategorical,
+                decodeCategoryValues(),
+                isCategorical ? null : decode(5),
+                isCategorical ? null : decode(6),
+                null,
+                null,
+                fieldCount > 9 ? decode(9) : null,
+                fieldCount > 10 ? decode(10) : null,
+                fieldCount > 11 ? decode(11) : null
+        );
+    }
+
+    /**
+     * Copies a field into {@link #scratch} without its quoting.
+     *
+     * @return the number of bytes copied
+     */
+    private int unquote(int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+
+        if (!fieldQuoted[field]) {
+            window.get(start, scratch, 0, length);
+            return length;
+        }
+
+        int rowStart = fieldStart[0];
+        int written = 0;
+        boolean inQuotes = false;
+        for (int i = start; i < fieldEnd[field]; i++) {
+            byte b = window.get(i);
+            if (b == QUOTE) {
+                if (inQuotes && i + 1 < fieldEnd[field] && window.get(i + 1) == QUOTE) {
+                    scratch[written++] = QUOTE;
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                    // Like opencsv, a quote in the middle of a field, not next to a separator, is kept as text
+                    if (i - rowStart > 2 && window.get(i - 1) != SEPARATOR && i + 1 < rowEnd && window.get(i + 1) != SEPARATOR) {
+                        scratch[written++] = QUOTE;
+                    }
+                }
+            } else {
+                scratch[written++] = b;
+            }
+        }
+        return written;
+    }
+
+    private String decode(int field) {
+        int length = unquote(field);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String decodeConceptPath() {
+        int length = unquote(0);
+        int written = 0;
+        for (int i = 0; i < length; i++) {
+            if (scratch[i] == MICRO_LEAD && i + 1 < length && scratch[i + 1] == MICRO_TRAIL) {
+                scratch[written++] = BACKSLASH;
+                i++;
+            } else {
+                scratch[written++] = scratch[i];
+            }
+        }
+        return new String(scratch, 0, written, StandardCharsets.UTF_8);
+    }
+
+    private List<String> decodeCategoryValues() {
+        int length = unquote(4);
+        List<String> values = new ArrayList<>();
+        if (length == 0) {
+            return values;
+        }
+
+        int valueStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (scratch[i] == MICRO_LEAD && i + 1 < length && scratch[i + 1] == MICRO_TRAIL) {
+                values.add(new String(scratch, valueStart, i - valueStart, StandardCharsets.UTF_8));
+                valueStart = i + 2;
+                i++;
+            }
+        }
+        values.add(new String(scratch, valueStart, length - valueStart, StandardCharsets.UTF_8));
+
+        // Match String.split, which drops trailing empty values
+        int last = values.size();
+        while (last > 0 && values.get(last - 1).isEmpty()) {
+            last--;
+        }
+        return List.copyOf(values.subList(0, last));
+    }
+
+    private boolean equalsIgnoreCase(int field, byte[] expected) {
+        if (fieldQuoted[field]) {
+            return new String(scratch, 0, unquote(field), StandardCharsets.UTF_8).equalsIgnoreCase(new String(expected, StandardCharsets.US_ASCII));
+        }
+
+        int start = fieldStart[field];
+        if (fieldEnd[field] - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (Character.toLowerCase(window.get(start + i)) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String rawRow() {
+        int start = fieldStart[0];
+        int length = rowEnd - start;
+        byte[] row = new byte[length];
+        window.get(start, row, 0, length);
+        return new String(row, StandardCharsets.UTF_8);
+    }
+
+    private void map(long offset) throws IOException {
+        long size = Math.min(windowSize, fileSize - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+        position = 0;
+    }
+}
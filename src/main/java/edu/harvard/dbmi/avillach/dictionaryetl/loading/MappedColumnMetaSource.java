@@ -0,0 +1,130 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import org.hibernate.query.spi.CloseableIterator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads columnMeta.csv through a memory mapped {@link FileChannel} with {@link MappedColumnMetaReader}. Produces
+ * the same rows as {@link OpenCsvColumnMetaSource}, except that the width, column offset and observation
+ * offset/length columns, which nothing downstream reads, are left null.
+ * <p>
+ * Files can be {@link #split(LoadingContext, int) split} into byte ranges that start after a newline. A newline
+ * inside a quoted field would be taken as a row boundary, so files with multi-line fields should not be split.
+ */
+@Component
+@ConditionalOnProperty(name = "dictionary.loading.column-meta-reader", havingValue = "mapped")
+public class MappedColumnMetaSource implements ColumnMetaSource {
+
+    private static final long DEFAULT_MIN_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int BOUNDARY_SCAN_SIZE = 64 * 1024;
+
+    private final ColumnMetaMapper columnMetaMapper;
+    private final int windowSize;
+    private final long minChunkSize;
+
+    @Autowired
+    public MappedColumnMetaSource(ColumnMetaMapper columnMetaMapper) {
+        this(columnMetaMapper, MappedColumnMetaReader.DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    MappedColumnMetaSource(ColumnMetaMapper columnMetaMapper, int windowSize) {
+        this(columnMetaMapper, windowSize, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    MappedColumnMetaSource(ColumnMetaMapper columnMetaMapper, int windowSize, long minChunkSize) {
+        this.columnMetaMapper = columnMetaMapper;
+        this.windowSize = windowSize;
+        this.minChunkSize = minChunkSize;
+    }
+
+    @Override
+    public CloseableIterator<ColumnMeta> read(LoadingContext context) {
+        try {
+            FileChannel channel = FileChannel.open(Path.of(context.columnMetaCsvPath()), StandardOpenOption.READ);
+            try {
+                return new MappedColumnMetaReader(channel, 0, channel.size(), windowSize, columnMetaMapper, context, true);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open CSV file: " + context.columnMetaCsvPath(), e);
+        }
+    }
+
+    /**
+     * Splits the file into ranges of at least the minimum chunk size, each starting on the first row after an even
+     * split point. Every chunk has its own channel.
+     */
+    @Override
+    public List<CloseableIterator<ColumnMeta>> split(LoadingContext context, int parts) {
+        Path path = Path.of(context.columnMetaCsvPath());
+        List<Long> boundaries = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) Math.max(1, Math.min(parts, size / minChunkSize));
+            boundaries.add(0L);
+            for (int i = 1; i < chunks; i++) {
+                long boundary = nextRowStart(channel, size * i / chunks);
+                if (boundary > boundaries.getLast() && boundary < size) {
+                    boundaries.add(boundary);
+                }
+            }
+            boundaries.add(size);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open CSV file: " + context.columnMetaCsvPath(), e);
+        }
+
+        List<CloseableIterator<ColumnMeta>> readers = new ArrayList<>(boundaries.size() - 1);
+        try {
+            for (int i = 0; i < boundaries.size() - 1; i++) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                try {
+                    readers.add(new MappedColumnMetaReader(
+                            channel, boundaries.get(i), boundaries.get(i + 1), windowSize, columnMetaMapper, context, true));
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            readers.forEach(CloseableIterator::close);
+            throw new RuntimeException("Failed to open CSV file: " + context.columnMetaCsvPath(), e);
+        }
+        return readers;
+    }
+
+    /**
+     * @return the offset just after the first newline at or after {@code offset - 1}, or the file size if there is
+     * none
+     */
+    private static long nextRowStart(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+        long position = Math.max(0, offset - 1);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.query.spi.CloseableIterator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads columnMeta.csv with opencsv. This is the default reader.
+ */
+@Component
+@ConditionalOnProperty(name = "dictionary.loading.column-meta-reader", havingValue = "opencsv", matchIfMissing = true)
+public class OpenCsvColumnMetaSource implements ColumnMetaSource {
+
+    private final ColumnMetaMapper columnMetaMapper;
+    private final CSVParser csvParser;
+
+    public OpenCsvColumnMetaSource(ColumnMetaMapper columnMetaMapper, CSVParser csvParser) {
+        this.columnMetaMapper = columnMetaMapper;
+        this.csvParser = csvParser;
+    }
+
+    @Override
+    public CloseableIterator<ColumnMeta> read(LoadingContext context) {
+        try {
+            InputStream in = new ProgressInputStream(new FileInputStream(context.columnMetaCsvPath()), context.progress());
+            BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            CSVReader csvReader = new CSVReaderBuilder(br).withCSVParser(this.csvParser).build();
+            return new ColumnMetaIterator(csvReader, context);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open CSV file: " + context.columnMetaCsvPath(), e);
+        }
+    }
+
+    private class ColumnMetaIterator implements CloseableIterator<ColumnMeta> {
+
+        private final CSVReader csvReader;
+        private final LoadingContext context;
+        private ColumnMeta nextElement;
+        private boolean hasNextConsumed = true; // force fetch on first call
+
+        private ColumnMetaIterator(CSVReader csvReader, LoadingContext context) {
+            this.csvReader = csvReader;
+            this.context = context;
+        }
+
+        @Override
+        public void close() {
+            try {
+                this.csvReader.close();
+            } catch (IOException e) {
+                this.context.loadingErrorRegistry().addError("Error closing CSV reader: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws RuntimeException {
+            if (hasNextConsumed) {
+                nextElement = fetchNextValid();
+                hasNextConsumed = false;
+            }
+
+            return nextElement != null;
+        }
+
+        @Override
+        public ColumnMeta next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            hasNextConsumed = true;
+            return nextElement;
+        }
+
+        private ColumnMeta fetchNextValid() throws RuntimeException {
+            try {
+                String[] cells;
+                while ((cells = csvReader.readNext()) != null) {
+                    try {
+                        return columnMetaMapper.mapCSVRowToColumnMeta(cells);
+                    } catch (Exception e) {
+                        String error = StringUtils.joinWith(",", Arrays.stream(cells).toArray());
+                        this.context.loadingErrorRegistry().addError("Unable to process columnMeta %s".formatted(error));
+                    }
+                }
+
+            } catch (CsvValidationException | IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            return null;
+        }
+
+    }
+
+    /**
+     * Adds the bytes taken from the file to the load's progress.
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+
+        private final LoadingProgress progress;
+
+        private ProgressInputStream(InputStream in, LoadingProgress progress) {
+            super(in);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                progress.addBytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                progress.addBytesRead(read);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+public interface ConceptFingerprintRow {
+    Long getConceptNodeId();
+    String getConceptPath();
+    String getFingerprint();
+}
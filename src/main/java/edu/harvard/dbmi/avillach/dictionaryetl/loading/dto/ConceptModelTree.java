@@ -1,31 +1,79 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
 
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.SegmentDictionary;
+import org.apache.commons.lang3.StringUtils;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 
+/**
+ * A trie of concept paths. Nodes are keyed by interned segment ids rather than by full path, and full paths are only
+ * built when a node is persisted.
+ */
 public class ConceptModelTree {
 
-    // Registry maps the Full Path (String) to the Node object
-    private final ConcurrentMap<String, ConceptNode> registry = new ConcurrentHashMap<>();
+    private final SegmentDictionary segments = new SegmentDictionary();
 
     // A placeholder root to hold the top-level paths (e.g., "\laboratory\")
-    private final ConceptNode root;
-    private static final String ROOT_ID = "ROOT";
-
-    public ConceptModelTree() {
-        this.root = new ConceptNode(ROOT_ID);
-        this.registry.put(ROOT_ID, this.root);
-    }
+    private final ConceptNode root = ConceptNode.root(segments);
 
     public ConceptNode getRoot() {
         return root;
     }
 
-    public ConcurrentMap<String, ConceptNode> getRegistry() {
-        return registry;
+    public SegmentDictionary getSegments() {
+        return segments;
     }
 
-}
+    /**
+     * Counts the nodes below the root by walking the tree, so it should not be called while the tree is being built.
+     */
+    public long countNodes() {
+        long count = 0;
+        Deque<ConceptNode> pending = new ArrayDeque<>(root.getChildren());
+        while (!pending.isEmpty()) {
+            count++;
+            pending.addAll(pending.pop().getChildren());
+        }
+        return count;
+    }
+
+    /**
+     * @param conceptPath a concept path such as {@code \phs1\demographics\AGE\}
+     * @return the node for the path, or null if it is not in the tree
+     */
+    public ConceptNode find(String conceptPath) {
+        ConceptNode node = root;
+        for (String segment : conceptPath.split("\\\\")) {
+            if (StringUtils.isBlank(segment)) {
+                continue;
+            }
 
+            int segmentId = segments.idOf(segment);
+            node = segmentId < 0 ? null : node.getChild(segmentId);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node == root ? null : node;
+    }
+
+    /**
+     * Removes the top level node of a dataset, and so every node below it, from the tree. The detached node keeps
+     * its parent reference to the root so it can still be persisted.
+     *
+     * @param datasetRef the dataset ref
+     * @return the detached top level node. Empty if the dataset has no nodes in the tree.
+     */
+    public List<ConceptNode> detachDataset(String datasetRef) {
+        int segmentId = segments.idOf(datasetRef);
+        ConceptNode datasetNode = segmentId < 0 ? null : root.getChild(segmentId);
+        if (datasetNode == null || !root.removeChild(datasetNode)) {
+            return List.of();
+        }
+        return List.of(datasetNode);
+    }
+
+}
@@ -0,0 +1,46 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what a delta load did to the concepts of the datasets it loaded. Datasets persisted separately, such as when
+ * streaming, add to the same counts.
+ */
+public class DeltaLoadResult {
+
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+
+    public void add(long inserted, long updated, long deleted, long unchanged) {
+        this.inserted.addAndGet(inserted);
+        this.updated.addAndGet(updated);
+        this.deleted.addAndGet(deleted);
+        this.unchanged.addAndGet(unchanged);
+    }
+
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    public long getUpdated() {
+        return updated.get();
+    }
+
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    @Override
+    public String toString() {
+        return "inserted: " + getInserted() +
+               ", updated: " + getUpdated() +
+               ", deleted: " + getDeleted() +
+               ", unchanged: " + getUnchanged();
+    }
+}
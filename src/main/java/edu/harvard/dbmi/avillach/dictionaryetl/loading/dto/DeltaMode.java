@@ -0,0 +1,29 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+/**
+ * Controls whether a load is applied as a delta against the concepts already in the database. A delta only touches
+ * the datasets present in the columnMeta.csv being loaded.
+ */
+public enum DeltaMode {
+    /** Every concept in the file is written. */
+    OFF,
+    /** New concepts are inserted and changed ones updated. Concepts missing from the file are left alone. */
+    KEEP_MISSING,
+    /** As {@link #KEEP_MISSING}, and concepts missing from the file are deleted. */
+    DELETE_MISSING;
+
+    public static DeltaMode of(boolean delta, boolean deleteMissing) {
+        if (!delta) {
+            return OFF;
+        }
+        return deleteMissing ? DELETE_MISSING : KEEP_MISSING;
+    }
+
+    public static DeltaMode orDefault(DeltaMode mode) {
+        return mode == null ? OFF : mode;
+    }
+
+    public boolean isEnabled() {
+        return this != OFF;
+    }
+}
@@ -11,12 +11,17 @@ public record InitializeRequest(
         @JsonProperty("includeDefaultFacets") boolean includeDefaultFacets,
         @JsonProperty("clearDatabase") boolean clearDatabase,
         @JsonProperty("studies") List<String> studies,
-        @JsonProperty("isBDC") boolean isBDC
+        @JsonProperty("isBDC") boolean isBDC,
+        @JsonProperty("persistenceMode") PersistenceMode persistenceMode,
+        @JsonProperty("streaming") boolean streaming,
+        @JsonProperty("delta") boolean delta,
+        @JsonProperty("deleteMissing") boolean deleteMissing,
+        @JsonProperty("perStudy") boolean perStudy
 ) {
     public InitializeRequest(String csvPath,
                              String errorDirectory,
                              Boolean includeDefaultFacets,
                              Boolean clearDatabase) {
-        this(csvPath, errorDirectory, includeDefaultFacets, clearDatabase, null, false);
+        this(csvPath, errorDirectory, includeDefaultFacets, clearDatabase, null, false, PersistenceMode.JPA, false, false, false, false);
     }
 }
@@ -0,0 +1,81 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A load submitted through the job API. The job is returned as JSON when it is submitted, polled or cancelled.
+ */
+public class LoadJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final InitializeRequest request;
+    private final LoadingProgress progress = new LoadingProgress();
+    private final Instant submittedAt = Instant.now();
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String result;
+
+    public LoadJob(InitializeRequest request) {
+        this.request = request;
+    }
+
+    public void started() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    /**
+     * @param result the response the load gave, or why it failed
+     */
+    public void finished(Status status, String result) {
+        this.result = result;
+        finishedAt = Instant.now();
+        this.status = status;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public InitializeRequest getRequest() {
+        return request;
+    }
+
+    public LoadingProgress getProgress() {
+        return progress;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+/**
+ * Controls how a columnMeta.csv is loaded. {@link #DEFAULT} builds the whole file into a tree and writes it with JPA
+ * in one transaction.
+ *
+ * @param persistenceMode how the concepts are written, JPA when null
+ * @param streaming       when true, each dataset is written as soon as it has been read instead of after the whole
+ *                        file has been built into a tree. Requires the CSV to be sorted by concept path.
+ * @param deltaMode       when enabled, only concepts that are new or changed compared to the database are written,
+ *                        and the response includes the counts. OFF when null.
+ * @param perStudy        when true, each study is written in its own transaction on a bounded pool, so a failing
+ *                        study is rolled back without losing the others. Streaming loads already write one dataset at
+ *                        a time and ignore this.
+ */
+public record LoadOptions(
+        PersistenceMode persistenceMode,
+        boolean streaming,
+        DeltaMode deltaMode,
+        boolean perStudy
+) {
+    public static final LoadOptions DEFAULT = new LoadOptions(PersistenceMode.JPA, false, DeltaMode.OFF, false);
+
+    public LoadOptions {
+        persistenceMode = PersistenceMode.orDefault(persistenceMode);
+        deltaMode = DeltaMode.orDefault(deltaMode);
+    }
+
+    public static LoadOptions of(InitializeRequest request) {
+        return new LoadOptions(
+                request.persistenceMode(),
+                request.streaming(),
+                DeltaMode.of(request.delta(), request.deleteMissing()),
+                request.perStudy()
+        );
+    }
+}
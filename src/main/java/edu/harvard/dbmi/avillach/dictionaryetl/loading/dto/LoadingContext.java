@@ -7,15 +7,28 @@ public record LoadingContext(
         LoadingErrorRegistry loadingErrorRegistry,
         Set<String> allowedStudies,
         String columnMetaCsvPath,
-        String errorFilePath
+        String errorFilePath,
+        LoadOptions options,
+        DeltaLoadResult deltaLoadResult,
+        StudyLoadResults studyLoadResults,
+        LoadingProgress progress
 ) {
     public LoadingContext(Set<String> allowedStudies, String columnMetaCsvPath, String errorFilePath) {
+        this(allowedStudies, columnMetaCsvPath, errorFilePath, LoadOptions.DEFAULT, new LoadingProgress());
+    }
+
+    public LoadingContext(Set<String> allowedStudies, String columnMetaCsvPath, String errorFilePath, LoadOptions options, LoadingProgress progress) {
         this(
             new ConceptModelTree(),
             new LoadingErrorRegistry(),
             allowedStudies,
             columnMetaCsvPath,
-            errorFilePath
+            errorFilePath,
+            options,
+            new DeltaLoadResult(),
+            new StudyLoadResults(),
+            progress
         );
+        progress.trackErrors(loadingErrorRegistry);
     }
 }
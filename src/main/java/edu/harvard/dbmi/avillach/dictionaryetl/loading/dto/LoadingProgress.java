@@ -0,0 +1,183 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks how far a load has got. The pipeline threads update the counters while the load runs and the job API reads
+ * them to report progress, so every field can be read from any thread.
+ * <p>
+ * Cancellation is cooperative: {@link #requestCancel()} only sets a flag, and the reader, builders and writers call
+ * {@link #checkCancelled()} between rows and batches.
+ */
+public class LoadingProgress {
+
+    public enum Phase {
+        QUEUED,
+        /** Reading columnMeta.csv and building the concept tree. Streaming loads also persist in this phase. */
+        PARSE,
+        /** Waiting for the last concept groups to be added to the tree. */
+        BUILD,
+        PERSIST,
+        FACETS,
+        DONE
+    }
+
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder nodesPersisted = new LongAdder();
+
+    private volatile Phase phase = Phase.QUEUED;
+    private volatile long startedNanos;
+    private volatile long phaseStartedNanos;
+    private volatile long bytesTotal;
+    private volatile long nodesTotal;
+    private volatile boolean cancelRequested;
+    private volatile String failure;
+    private volatile LoadingErrorRegistry errors;
+
+    public void enterPhase(Phase phase) {
+        long now = System.nanoTime();
+        if (this.phase == Phase.QUEUED) {
+            startedNanos = now;
+        }
+        phaseStartedNanos = now;
+        this.phase = phase;
+    }
+
+    public void rowParsed() {
+        rowsParsed.increment();
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addNodesPersisted(long nodes) {
+        nodesPersisted.add(nodes);
+    }
+
+    public void setBytesTotal(long bytesTotal) {
+        this.bytesTotal = bytesTotal;
+    }
+
+    public void setNodesTotal(long nodesTotal) {
+        this.nodesTotal = nodesTotal;
+    }
+
+    /**
+     * @param errors the registry whose rows are reported as the error count
+     */
+    public void trackErrors(LoadingErrorRegistry errors) {
+        this.errors = errors;
+    }
+
+    public int getErrorCount() {
+        LoadingErrorRegistry registry = errors;
+        return registry == null ? 0 : registry.getErrors().size();
+    }
+
+    public void requestCancel() {
+        cancelRequested = true;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * @throws CancellationException if a cancel has been requested
+     */
+    public void checkCancelled() {
+        if (cancelRequested) {
+            throw new CancellationException("Load cancelled during " + phase);
+        }
+    }
+
+    public void failed(String failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * @return why the load failed, or null if it has not
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public long getNodesPersisted() {
+        return nodesPersisted.sum();
+    }
+
+    public long getNodesTotal() {
+        return nodesTotal;
+    }
+
+    public long getElapsedSeconds() {
+        return phase == Phase.QUEUED ? 0 : TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedNanos);
+    }
+
+    /**
+     * @return rows parsed per second since the load started
+     */
+    public double getRowsPerSecond() {
+        return perSecond(getRowsParsed(), startedNanos);
+    }
+
+    /**
+     * @return nodes persisted per second since the persist phase started, or since the load started for streaming
+     * loads that persist while parsing
+     */
+    public double getNodesPerSecond() {
+        return perSecond(getNodesPersisted(), phase == Phase.PERSIST ? phaseStartedNanos : startedNanos);
+    }
+
+    /**
+     * Estimates the time left in the current phase from the bytes read while parsing and from the nodes persisted
+     * while persisting.
+     *
+     * @return the estimate, or null if there is not enough to go on yet
+     */
+    public Long getEtaSeconds() {
+        return switch (phase) {
+            case PARSE -> eta(getBytesRead(), bytesTotal, phaseStartedNanos);
+            case PERSIST -> eta(getNodesPersisted(), nodesTotal, phaseStartedNanos);
+            default -> null;
+        };
+    }
+
+    private static Long eta(long done, long total, long sinceNanos) {
+        if (done <= 0 || total <= 0) {
+            return null;
+        }
+
+        long elapsed = System.nanoTime() - sinceNanos;
+        long remaining = (long) (elapsed * (double) Math.max(0, total - done) / done);
+        return TimeUnit.NANOSECONDS.toSeconds(remaining);
+    }
+
+    private static double perSecond(long count, long sinceNanos) {
+        long elapsed = System.nanoTime() - sinceNanos;
+        if (sinceNanos == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return count / (elapsed / 1e9);
+    }
+}
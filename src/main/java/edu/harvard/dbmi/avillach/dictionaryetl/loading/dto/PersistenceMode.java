@@ -0,0 +1,15 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+/**
+ * Controls how the concept tree built from a columnMeta.csv is written to the database.
+ */
+public enum PersistenceMode {
+    /** Entity based inserts through {@code ConceptService.saveAll}. */
+    JPA,
+    /** Streams rows to Postgres with {@code COPY ... FROM STDIN} using pre-allocated concept node ids. */
+    COPY;
+
+    public static PersistenceMode orDefault(PersistenceMode mode) {
+        return mode == null ? JPA : mode;
+    }
+}
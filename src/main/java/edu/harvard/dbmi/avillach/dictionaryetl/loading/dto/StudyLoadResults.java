@@ -0,0 +1,45 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.dto;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records which studies a per-study load committed and which it rolled back. Each study is written in its own
+ * transaction, so one failing study does not undo the others.
+ */
+public class StudyLoadResults {
+
+    private final Set<String> committed = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> failed = new ConcurrentHashMap<>();
+
+    public void committed(String datasetRef) {
+        committed.add(datasetRef);
+    }
+
+    public void failed(String datasetRef, String reason) {
+        failed.put(datasetRef, reason);
+    }
+
+    public Set<String> getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return dataset ref to the reason its transaction was rolled back
+     */
+    public Map<String, String> getFailed() {
+        return failed;
+    }
+
+    public boolean hasFailures() {
+        return !failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "committed: " + committed.size() +
+               ", failed: " + new TreeMap<>(failed);
+    }
+}
@@ -2,57 +2,168 @@ package edu.harvard.dbmi.avillach.dictionaryetl.loading.model;
 
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptTypes;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
+/**
+ * A node of the concept trie. A node only stores the id of its own path segment in the tree's
+ * {@link SegmentDictionary}; the full concept path, name and dataset ref are rebuilt from the segments on the way up
+ * to the root when they are needed at persist time.
+ * <p>
+ * Children are kept in an open addressing table keyed by segment id. Adding and listing children is synchronized on
+ * the node so builder threads can grow the tree concurrently.
+ */
 public class ConceptNode {
 
-    private String datasetRef;
-    private String conceptPath;
-    private ConceptModel conceptModel;
-    private List<ConceptMetadataModel> conceptMetadataModels = new ArrayList<>();
+    private static final String ROOT_PATH = "ROOT";
+    private static final int ROOT_SEGMENT = -1;
 
+    private final int segmentId;
     private ConceptNode parent;
-    private final ConcurrentMap<String, ConceptNode> children = new ConcurrentHashMap<>();
+    private String conceptType = ConceptTypes.conceptTypeFromColumnMeta(null); // All intermediate nodes are "Categorical" concepts
+    private List<ConceptMetadataModel> conceptMetadataModels;
+    private long conceptNodeId;
 
-    public ConceptNode(String conceptPath) {
-        this.conceptPath = conceptPath;
-    }
-
-    public ConceptNode(String conceptPath, ConceptModel conceptModel, String datasetRef) {
-        this.conceptPath = conceptPath;
-        this.conceptModel = conceptModel;
-        this.datasetRef = datasetRef;
-    }
+    private ConceptNode[] children;
+    private int childCount;
 
-    public ConceptNode(String conceptPath, ConceptModel conceptModel, ConceptNode parent) {
-        this.conceptPath = conceptPath;
-        this.conceptModel = conceptModel;
+    private ConceptNode(int segmentId, ConceptNode parent) {
+        this.segmentId = segmentId;
         this.parent = parent;
     }
 
-    public void addChild(ConceptNode conceptNode) {
-        this.children.putIfAbsent(conceptNode.getConceptPath(), conceptNode);
-        conceptNode.setParent(this); // sets reference to the parent incase we need to traverse up the tree
+    /**
+     * @param segments the dictionary the segment ids of every node below the root refer to
+     */
+    public static ConceptNode root(SegmentDictionary segments) {
+        return new Root(segments);
+    }
+
+    public boolean isRoot() {
+        return segmentId == ROOT_SEGMENT;
+    }
+
+    /**
+     * @return the child with the given segment, added if it does not exist yet
+     */
+    public synchronized ConceptNode getOrAddChild(int segmentId) {
+        if (children == null) {
+            children = new ConceptNode[2];
+        }
+
+        int slot = slotOf(children, segmentId);
+        if (children[slot] != null) {
+            return children[slot];
+        }
+
+        if ((childCount + 1) * 4 > children.length * 3) {
+            resize(children.length * 2);
+            slot = slotOf(children, segmentId);
+        }
+        ConceptNode child = new ConceptNode(segmentId, this);
+        children[slot] = child;
+        childCount++;
+        return child;
+    }
+
+    /**
+     * @return the child with the given segment, or null
+     */
+    public synchronized ConceptNode getChild(int segmentId) {
+        if (children == null) {
+            return null;
+        }
+        return children[slotOf(children, segmentId)];
+    }
+
+    /**
+     * Removes a child. The child keeps its parent reference so its path can still be built.
+     *
+     * @return true if the child was found
+     */
+    public synchronized boolean removeChild(ConceptNode child) {
+        if (children == null || children[slotOf(children, child.segmentId)] != child) {
+            return false;
+        }
+
+        ConceptNode[] previous = children;
+        children = new ConceptNode[previous.length];
+        childCount = 0;
+        for (ConceptNode node : previous) {
+            if (node != null && node != child) {
+                children[slotOf(children, node.segmentId)] = node;
+                childCount++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a snapshot of the children, in no particular order
+     */
+    public synchronized List<ConceptNode> getChildren() {
+        List<ConceptNode> snapshot = new ArrayList<>(childCount);
+        if (children != null) {
+            for (ConceptNode child : children) {
+                if (child != null) {
+                    snapshot.add(child);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    public int getSegmentId() {
+        return segmentId;
+    }
+
+    public String getName() {
+        return isRoot() ? ROOT_PATH : segments().get(segmentId);
     }
 
     public String getConceptPath() {
-        return conceptPath;
-    }
-
-    public void setConceptPath(String conceptPath) {
-        this.conceptPath = conceptPath;
-    }
+        if (isRoot()) {
+            return ROOT_PATH;
+        }
+
+        SegmentDictionary segments = segments();
+        List<ConceptNode> ancestors = new ArrayList<>();
+        for (ConceptNode node = this; !node.isRoot(); node = node.parent) {
+            ancestors.add(node);
+        }
+
+        StringBuilder conceptPath = new StringBuilder("\\");
+        for (int i = ancestors.size() - 1; i >= 0; i--) {
+            conceptPath.append(segments.get(ancestors.get(i).segmentId)).append('\\');
+        }
+        return conceptPath.toString();
+    }
+
+    /**
+     * @return the first segment of the path, which is the dataset the concept belongs to
+     */
+    public String getDatasetRef() {
+        if (isRoot()) {
+            return null;
+        }
 
-    public ConceptModel getConceptModel() {
-        return conceptModel;
+        ConceptNode node = this;
+        while (!node.parent.isRoot()) {
+            node = node.parent;
+        }
+        return segments().get(node.segmentId);
     }
 
-    public void setConceptModel(ConceptModel conceptModel) {
-        this.conceptModel = conceptModel;
+    /**
+     * Builds the entity for this node. The parent id is set when the parent has been assigned an id; the dataset id
+     * is left for the caller.
+     */
+    public ConceptModel toConceptModel() {
+        String name = getName();
+        Long parentId = parent.isRoot() ? null : parent.getConceptNodeId();
+        return new ConceptModel(getConceptNodeId(), null, name, name, conceptType, getConceptPath(), parentId);
     }
 
     public ConceptNode getParent() {
@@ -63,35 +174,82 @@ public class ConceptNode {
         this.parent = parent;
     }
 
-    public ConcurrentMap<String, ConceptNode> getChildren() {
-        return children;
+    public String getConceptType() {
+        return conceptType;
     }
 
-    public String getDatasetRef() {
-        return datasetRef;
+    public void setConceptType(String conceptType) {
+        this.conceptType = conceptType;
+    }
+
+    /**
+     * @return the id assigned when the node was persisted, or null
+     */
+    public Long getConceptNodeId() {
+        return conceptNodeId == 0 ? null : conceptNodeId;
     }
 
-    public void setDatasetRef(String datasetRef) {
-        this.datasetRef = datasetRef;
+    public void setConceptNodeId(long conceptNodeId) {
+        this.conceptNodeId = conceptNodeId;
     }
 
     public List<ConceptMetadataModel> getConceptMetadataModels() {
-        return conceptMetadataModels;
+        return conceptMetadataModels == null ? List.of() : conceptMetadataModels;
     }
 
     public void setConceptMetadataModels(List<ConceptMetadataModel> conceptMetadataModels) {
         this.conceptMetadataModels = conceptMetadataModels;
     }
 
+    private SegmentDictionary segments() {
+        ConceptNode node = this;
+        while (!node.isRoot()) {
+            node = node.parent;
+        }
+        return ((Root) node).segments;
+    }
+
+    private void resize(int capacity) {
+        ConceptNode[] previous = children;
+        children = new ConceptNode[capacity];
+        for (ConceptNode node : previous) {
+            if (node != null) {
+                children[slotOf(children, node.segmentId)] = node;
+            }
+        }
+    }
+
+    /**
+     * @return the slot holding the segment, or the empty slot where it would go
+     */
+    private static int slotOf(ConceptNode[] table, int segmentId) {
+        int mask = table.length - 1;
+        int hash = segmentId * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (table[slot] != null && table[slot].segmentId != segmentId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
     @Override
     public String toString() {
         return "ConceptNode{" +
-               "datasetRef='" + datasetRef + '\'' +
-               ", conceptPath='" + conceptPath + '\'' +
-               ", conceptModel=" + conceptModel +
+               "conceptPath='" + getConceptPath() + '\'' +
+               ", conceptType='" + conceptType + '\'' +
+               ", conceptNodeId=" + conceptNodeId +
                ", conceptMeta=" + conceptMetadataModels +
-               ", parent=" + parent +
-               ", children=" + children +
+               ", children=" + childCount +
                '}';
     }
-}
\ No newline at end of file
+
+    private static final class Root extends ConceptNode {
+
+        private final SegmentDictionary segments;
+
+        private Root(SegmentDictionary segments) {
+            super(ROOT_SEGMENT, null);
+            this.segments = segments;
+        }
+    }
+}
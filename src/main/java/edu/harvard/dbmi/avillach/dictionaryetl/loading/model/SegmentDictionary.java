@@ -0,0 +1,144 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interns the segments of concept paths. Each distinct segment is stored once and identified by an int, so a prefix
+ * such as {@code \phs000007\pht000001\} shared by thousands of concepts costs one id per node instead of one copy per
+ * path.
+ * <p>
+ * Segments are kept as UTF-8 in byte pools rather than as Strings, and looked up through open addressing tables of
+ * ints. The dictionary is split into {@value #STRIPES} stripes by hash, each with its own pool and lock, so builder
+ * threads rarely wait on each other. The low bits of an id name its stripe.
+ */
+public class SegmentDictionary {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public SegmentDictionary() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return the id of the segment, assigning the next id if it has not been seen before
+     */
+    public int intern(String segment) {
+        byte[] bytes = segment.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        int stripe = hash & (STRIPES - 1);
+        return stripes[stripe].intern(bytes, hash) << STRIPE_BITS | stripe;
+    }
+
+    /**
+     * @return the id of the segment, or -1 if it has not been interned
+     */
+    public int idOf(String segment) {
+        byte[] bytes = segment.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        int stripe = hash & (STRIPES - 1);
+        int index = stripes[stripe].find(bytes, hash);
+        return index < 0 ? -1 : index << STRIPE_BITS | stripe;
+    }
+
+    public String get(int id) {
+        return stripes[id & (STRIPES - 1)].get(id >>> STRIPE_BITS);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 1;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+
+    private static class Stripe {
+
+        private byte[] pool = new byte[256];
+        private int poolSize;
+        // Segment i is pool[offsets[i], offsets[i + 1])
+        private int[] offsets = new int[17];
+        private int[] hashes = new int[16];
+        private int count;
+        // Index + 1 of the segment in each slot, 0 for an empty slot
+        private int[] table = new int[32];
+
+        private synchronized int intern(byte[] bytes, int hash) {
+            int slot = slotOf(bytes, hash);
+            if (table[slot] != 0) {
+                return table[slot] - 1;
+            }
+
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            if (poolSize + bytes.length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + bytes.length));
+            }
+            System.arraycopy(bytes, 0, pool, poolSize, bytes.length);
+            poolSize += bytes.length;
+            hashes[count] = hash;
+            offsets[count + 1] = poolSize;
+            table[slot] = ++count;
+
+            if (count * 2 > table.length) {
+                rehash();
+            }
+            return count - 1;
+        }
+
+        private synchronized int find(byte[] bytes, int hash) {
+            return table[slotOf(bytes, hash)] - 1;
+        }
+
+        private synchronized String get(int index) {
+            return new String(pool, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+        }
+
+        private synchronized int size() {
+            return count;
+        }
+
+        private int slotOf(byte[] bytes, int hash) {
+            int mask = table.length - 1;
+            int slot = (hash >>> STRIPE_BITS) & mask;
+            while (table[slot] != 0 && !matches(table[slot] - 1, bytes, hash)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private boolean matches(int index, byte[] bytes, int hash) {
+            return hashes[index] == hash
+                   && Arrays.equals(pool, offsets[index], offsets[index + 1], bytes, 0, bytes.length);
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int index = 0; index < count; index++) {
+                int slot = (hashes[index] >>> STRIPE_BITS) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = index + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.Utility;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetRepository;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class BulkUpsertUtilityTest {
+
+    private ConceptRepository conceptRepository;
+    private ConceptMetadataRepository conceptMetadataRepository;
+    private FacetRepository facetRepository;
+    private BulkUpsertUtility bulkUpsertUtility;
+
+    @BeforeEach
+    void setUp() {
+        conceptRepository = mock(ConceptRepository.class);
+        conceptMetadataRepository = mock(ConceptMetadataRepository.class);
+        facetRepository = mock(FacetRepository.class);
+        bulkUpsertUtility = new BulkUpsertUtility(conceptRepository, conceptMetadataRepository, facetRepository);
+    }
+
+    @Test
+    void upsertConcepts_shouldBindColumnsInParallelWithoutEscaping() {
+        ConceptModel first = concept("\\study\\mother's age\\", "mother's age", 1L);
+        ConceptModel second = concept("\\study\\weight\\", "weight", 2L);
+        when(conceptRepository.upsertConcepts(any(), any(), any(), any(), any())).thenReturn(2);
+
+        assertEquals(2, bulkUpsertUtility.upsertConcepts(List.of(first, second)));
+
+        verify(conceptRepository).upsertConcepts(
+                new String[]{"\\study\\mother's age\\", "\\study\\weight\\"},
+                new String[]{"Continuous", "Continuous"},
+                new Long[]{1L, 2L},
+                new String[]{"mother's age", "weight"},
+                new String[]{"mother's age", "weight"}
+        );
+    }
+
+    @Test
+    void upsertConcepts_shouldKeepLastConceptForRepeatedPath() {
+        ConceptModel first = concept("\\study\\age\\", "age", 1L);
+        ConceptModel second = concept("\\study\\age\\", "age in years", 1L);
+
+        bulkUpsertUtility.upsertConcepts(List.of(first, second));
+
+        verify(conceptRepository).upsertConcepts(
+                new String[]{"\\study\\age\\"},
+                new String[]{"Continuous"},
+                new Long[]{1L},
+                new String[]{"age in years"},
+                new String[]{"age in years"}
+        );
+    }
+
+    @Test
+    void upsertConceptBatch_shouldNameParentsAndMetadataByPath() {
+        ConceptModel parent = concept("\\study\\", "study", 1L);
+        ConceptModel child = concept("\\study\\age\\", "age", 1L);
+        Map<String, Map<String, String>> metadata = new LinkedHashMap<>();
+        metadata.put("\\study\\", Map.of());
+        metadata.put("\\study\\age\\", Map.of("description", "age in years"));
+
+        bulkUpsertUtility.upsertConceptBatch(List.of(child, parent), Map.of("\\study\\age\\", "\\study\\"), metadata);
+
+        verify(conceptRepository).upsertConceptBatch(
+                new String[]{"\\study\\age\\", "\\study\\"},
+                new String[]{"Continuous", "Continuous"},
+                new Long[]{1L, 1L},
+                new String[]{"age", "study"},
+                new String[]{"age", "study"},
+                new String[]{"\\study\\", null},
+                new String[]{"\\study\\age\\"},
+                new String[]{"description"},
+                new String[]{"age in years"}
+        );
+    }
+
+    @Test
+    void upsertConceptMetadata_shouldKeepLastValueForRepeatedKey() {
+        bulkUpsertUtility.upsertConceptMetadata(List.of(
+                new ConceptMetadataModel(1L, "values", "[0,1]"),
+                new ConceptMetadataModel(1L, "description", "age"),
+                new ConceptMetadataModel(1L, "values", "[0,2]")
+        ));
+
+        verify(conceptMetadataRepository).upsertAll(
+                new Long[]{1L, 1L}, new String[]{"values", "description"}, new String[]{"[0,2]", "age"});
+    }
+
+    @Test
+    void updateParents_shouldPairEachChildWithItsParent() {
+        Map<String, String> parents = new LinkedHashMap<>();
+        parents.put("child one", "parent one");
+        parents.put("child two", "parent two");
+
+        bulkUpsertUtility.updateConceptParents(parents);
+        bulkUpsertUtility.updateFacetParents(parents);
+
+        verify(conceptRepository).updateParentIds(
+                new String[]{"child one", "child two"}, new String[]{"parent one", "parent two"});
+        verify(facetRepository).updateParentIdsByName(
+                new String[]{"child one", "child two"}, new String[]{"parent one", "parent two"});
+    }
+
+    @Test
+    void emptyBatches_shouldNotReachTheDatabase() {
+        assertEquals(0, bulkUpsertUtility.upsertConcepts(List.of()));
+        assertEquals(0, bulkUpsertUtility.upsertConceptMetadata(List.of()));
+        assertEquals(0, bulkUpsertUtility.upsertFacets(List.<FacetModel>of()));
+        assertEquals(0, bulkUpsertUtility.updateConceptParents(Map.of()));
+        assertEquals(Map.of(), bulkUpsertUtility.findConceptIds(List.of()));
+
+        verifyNoInteractions(conceptRepository, conceptMetadataRepository, facetRepository);
+    }
+
+    private static ConceptModel concept(String path, String name, Long datasetId) {
+        ConceptModel concept = new ConceptModel(path);
+        concept.setConceptType("Continuous");
+        concept.setDatasetId(datasetId);
+        concept.setName(name);
+        concept.setDisplay(name);
+        return concept;
+    }
+}
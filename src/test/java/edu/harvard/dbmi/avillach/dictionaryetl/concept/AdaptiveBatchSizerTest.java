@@ -0,0 +1,69 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveBatchSizerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void fixedSizer_shouldKeepItsSize() {
+        AdaptiveBatchSizer sizer = factory(0, Long.MAX_VALUE).create(250, false, ConceptBatchSizerFactory.CSV);
+
+        sizer.write(250, 10, () -> null);
+        sizer.write(250, 10, () -> null);
+
+        assertEquals(250, sizer.size());
+        assertEquals("2 batches of 250 to 250 rows (fixed, next 250).", sizer.describe());
+        assertEquals(2, meterRegistry.get("dictionary.concept.batch.size").tag("source", "csv").summary().count());
+        assertEquals(2, meterRegistry.get("dictionary.concept.batch").tag("source", "csv").timer().count());
+    }
+
+    @Test
+    void adaptiveSizer_shouldGrowWhileFullBatchesAreFast() {
+        AdaptiveBatchSizer sizer = factory(60_000, Long.MAX_VALUE).create(100, true, ConceptBatchSizerFactory.CURATED);
+
+        sizer.write(100, 10, () -> null);
+        sizer.write(200, 10, () -> null);
+        assertEquals(400, sizer.size());
+
+        // A short last batch says nothing about larger ones
+        sizer.write(3, 10, () -> null);
+        assertEquals(400, sizer.size());
+
+        for (int i = 0; i < 10; i++) {
+            sizer.write(sizer.size(), 10, () -> null);
+        }
+        assertEquals(1000, sizer.size(), "capped at the max size");
+    }
+
+    @Test
+    void adaptiveSizer_shouldShrinkOnSlowOrLargeBatches() {
+        AdaptiveBatchSizer slow = factory(0, Long.MAX_VALUE).create(800, true, ConceptBatchSizerFactory.CSV);
+        slow.write(800, 10, () -> null);
+        assertEquals(400, slow.size());
+        for (int i = 0; i < 10; i++) {
+            slow.write(slow.size(), 10, () -> null);
+        }
+        assertEquals(100, slow.size(), "floored at the min size");
+
+        AdaptiveBatchSizer large = factory(60_000, 1000).create(800, true, ConceptBatchSizerFactory.CSV);
+        assertTrue(large.isFull(10, 1000), "a batch is cut at the byte limit");
+        large.write(10, 1000, () -> null);
+        assertEquals(400, large.size());
+    }
+
+    @Test
+    void adaptiveSizer_shouldStartWithinBounds() {
+        assertEquals(1000, factory(60_000, Long.MAX_VALUE).create(50_000, true, ConceptBatchSizerFactory.CSV).size());
+        assertEquals(100, factory(60_000, Long.MAX_VALUE).create(1, true, ConceptBatchSizerFactory.CSV).size());
+        assertEquals(1, factory(60_000, Long.MAX_VALUE).create(1, false, ConceptBatchSizerFactory.CSV).size());
+    }
+
+    private ConceptBatchSizerFactory factory(long targetMillis, long maxBytes) {
+        return new ConceptBatchSizerFactory(meterRegistry, 500, false, 100, 1000, targetMillis, maxBytes);
+    }
+}
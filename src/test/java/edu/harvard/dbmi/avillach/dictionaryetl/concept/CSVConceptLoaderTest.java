@@ -7,6 +7,7 @@ import org.json.JSONArray;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
@@ -20,13 +21,15 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.MountableFile;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 @Testcontainers
 @ActiveProfiles("test")
@@ -88,7 +91,7 @@ class CSVConceptLoaderTest {
                 ref1,concept2,display2,Continuous,\\\\ref1\\\\concept1\\\\concept2\\\\,\\\\ref1\\\\concept1\\\\,"[0,0]",ipsum2
                 """;
 
-        ResponseEntity<Object> updateResponse = conceptController.updateConceptsFromCSV(csv);
+        ResponseEntity<Object> updateResponse = loadCsv(csv);
         Assertions.assertSame(HttpStatus.OK, updateResponse.getStatusCode(), "Response Entity not as expected for CSV Loader call");
 
         List<ConceptModel> conceptList = conceptService.findAll();
@@ -143,4 +146,273 @@ class CSVConceptLoaderTest {
                         () -> Assertions.assertEquals("ipsum2", conceptMetadataRepository.findByConceptNodeIdAndKey(concept2.getConceptNodeId(), "desc")
                             .get().getValue(), "Desc value not as expected for low-level concept concept2"), "Desc meta key for low-level concept concept2 does not exist");
     }
+
+    @Test
+    void csvConceptLoadKeepsQuotesAsWritten() {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,
+                ref1,mother's age,Mother's age,Continuous,\\\\ref1\\\\mother's age\\\\,\\\\ref1\\\\,"the mother's ""age""\"
+                """;
+
+        ResponseEntity<Object> updateResponse = loadCsv(csv);
+        Assertions.assertSame(HttpStatus.OK, updateResponse.getStatusCode(), "Response Entity not as expected for CSV Loader call");
+
+        Optional<ConceptModel> concept = conceptRepository.findByConceptPath("\\\\ref1\\\\mother's age\\\\");
+        Assertions.assertTrue(concept.isPresent(), "Concept with a quote in its path not stored under its path");
+        Assertions.assertEquals("mother's age", concept.get().getName());
+        Assertions.assertEquals("Mother's age", concept.get().getDisplay());
+        Assertions.assertEquals(conceptRepository.findByConceptPath("\\\\ref1\\\\").get().getConceptNodeId(), concept.get().getParentId());
+        Assertions.assertEquals("the mother's \"age\"",
+                conceptMetadataRepository.findByConceptNodeIdAndKey(concept.get().getConceptNodeId(), "desc").get().getValue());
+    }
+
+    @Test
+    void csvConceptLoadLinksParentListedAfterChild() {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,concept1,display1,Categorical,\\\\ref1\\\\concept1\\\\,\\\\ref1\\\\,ipsum
+                ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,
+                """;
+
+        ResponseEntity<Object> updateResponse = loadCsv(csv);
+        Assertions.assertSame(HttpStatus.OK, updateResponse.getStatusCode(), "Response Entity not as expected for CSV Loader call");
+        Assertions.assertEquals("Successfully updated 2 concepts and 1 concept meta entries from CSV. 1 batches of 2 to 2 rows (fixed, next 1000). \n",
+                updateResponse.getBody());
+
+        ConceptModel ref1 = conceptRepository.findByConceptPath("\\\\ref1\\\\").orElseThrow();
+        ConceptModel concept1 = conceptRepository.findByConceptPath("\\\\ref1\\\\concept1\\\\").orElseThrow();
+        Assertions.assertEquals(ref1.getConceptNodeId(), concept1.getParentId(), "Parent later in the batch not linked");
+        Assertions.assertEquals("ipsum", conceptMetadataRepository.findByConceptNodeIdAndKey(concept1.getConceptNodeId(), "desc").orElseThrow().getValue());
+
+        // Loading again updates in place and keeps the parent link
+        loadCsv(csv.replace("display1", "display2"));
+        ConceptModel reloaded = conceptRepository.findByConceptPath("\\\\ref1\\\\concept1\\\\").orElseThrow();
+        Assertions.assertEquals(concept1.getConceptNodeId(), reloaded.getConceptNodeId());
+        Assertions.assertEquals("display2", reloaded.getDisplay());
+        Assertions.assertEquals(ref1.getConceptNodeId(), reloaded.getParentId());
+        Assertions.assertEquals(2, conceptRepository.count());
+
+        // A row without a parent path clears the parent
+        loadCsv("""
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,concept1,display1,Categorical,\\\\ref1\\\\concept1\\\\,,ipsum
+                """);
+        Assertions.assertNull(conceptRepository.findByConceptPath("\\\\ref1\\\\concept1\\\\").orElseThrow().getParentId());
+    }
+
+    @Test
+    void csvConceptLoadAcceptsGzippedBodyAndServerFile(@TempDir Path tempDir) throws IOException {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,
+                ref1,concept1,display1,Categorical,\\\\ref1\\\\concept1\\\\,\\\\ref1\\\\,ipsum
+                """;
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(csv.getBytes(StandardCharsets.UTF_8));
+        }
+
+        ResponseEntity<Object> bodyResponse = conceptController.updateConceptsFromCSV(null, null, null, new ByteArrayInputStream(gzipped.toByteArray()));
+        Assertions.assertSame(HttpStatus.OK, bodyResponse.getStatusCode(), "Gzipped body not loaded");
+        Assertions.assertEquals(2, conceptRepository.count());
+
+        Path file = tempDir.resolve("concepts.csv.gz");
+        Files.write(file, gzipped.toByteArray());
+        ResponseEntity<Object> fileResponse = conceptController.updateConceptsFromCSV(file.toString(), null, null, InputStream.nullInputStream());
+        Assertions.assertSame(HttpStatus.OK, fileResponse.getStatusCode(), "Server file not loaded");
+        Assertions.assertEquals(2, conceptRepository.count());
+
+        ResponseEntity<Object> missingResponse =
+                conceptController.updateConceptsFromCSV(tempDir.resolve("missing.csv").toString(), null, null, InputStream.nullInputStream());
+        Assertions.assertSame(HttpStatus.BAD_REQUEST, missingResponse.getStatusCode());
+    }
+
+    @Test
+    void csvConceptLoadRejectsTruncatedGzippedBody() throws IOException {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        StringBuilder csv = new StringBuilder("dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc\n");
+        csv.append("ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,\n");
+        for (int i = 0; i < 20_000; i++) {
+            csv.append("ref1,concept").append(i).append(",display").append(i)
+                    .append(",Categorical,\\\\ref1\\\\concept").append(i).append("\\\\,\\\\ref1\\\\,ipsum\n");
+        }
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(csv.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        // Cut the body off well after the header, once several batches have been written
+        byte[] truncated = Arrays.copyOf(gzipped.toByteArray(), gzipped.size() / 2);
+
+        ResponseEntity<Object> response = conceptController.updateConceptsFromCSV(null, 100, false, new ByteArrayInputStream(truncated));
+        Assertions.assertSame(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        Assertions.assertEquals("Error reading ingestion csv. See logs for details.", response.getBody());
+        Assertions.assertEquals(0, conceptRepository.count(), "Batches written before the error not rolled back");
+    }
+
+    @Test
+    void curatedJsonLoadStreamsGzippedArray() throws IOException {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String json = """
+                [
+                  {"name": "concept1", "display": "display1", "concept_path": "\\\\ref1\\\\concept1\\\\",
+                   "metadata": {"description": "ipsum", "drs_uri": ["drs://a", "drs://b"]}},
+                  {"name": "concept2", "concept_path": "\\\\ref1\\\\concept2\\\\", "metadata": {}}
+                ]
+                """;
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        ResponseEntity<Object> response =
+                conceptController.updateConceptsFromJSON("ref1", 1, null, new ByteArrayInputStream(gzipped.toByteArray()));
+        Assertions.assertSame(HttpStatus.OK, response.getStatusCode(), "Curated json not loaded");
+        Assertions.assertEquals(2, conceptRepository.count());
+
+        ConceptModel concept1 = conceptRepository.findByConceptPath("\\ref1\\concept1\\").orElseThrow();
+        Assertions.assertEquals("display1", concept1.getDisplay());
+        Assertions.assertEquals("ipsum",
+                conceptMetadataRepository.findByConceptNodeIdAndKey(concept1.getConceptNodeId(), "description").orElseThrow().getValue());
+        Assertions.assertEquals("[\"drs://a\",\"drs://b\"]",
+                conceptMetadataRepository.findByConceptNodeIdAndKey(concept1.getConceptNodeId(), "drs_uri").orElseThrow().getValue());
+        ConceptModel concept2 = conceptRepository.findByConceptPath("\\ref1\\concept2\\").orElseThrow();
+        Assertions.assertEquals("concept2", concept2.getDisplay(), "Display should default to the name");
+
+        ResponseEntity<Object> malformed = conceptController.updateConceptsFromJSON(
+                "ref1", null, null, new ByteArrayInputStream("{\"name\": \"x\"}".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertSame(HttpStatus.BAD_REQUEST, malformed.getStatusCode());
+    }
+
+    @Test
+    void obsoleteConceptsAreDeletedAndTheirKeptChildrenDetached() {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,
+                ref1,concept1,display1,Categorical,\\\\ref1\\\\concept1\\\\,\\\\ref1\\\\,ipsum
+                ref1,concept2,display2,Categorical,\\\\ref1\\\\concept1\\\\concept2\\\\,\\\\ref1\\\\concept1\\\\,lorem
+                """;
+        loadCsv(csv);
+        ConceptModel root = conceptRepository.findByConceptPath("\\\\ref1\\\\").orElseThrow();
+        ConceptModel obsolete = conceptRepository.findByConceptPath("\\\\ref1\\\\concept1\\\\").orElseThrow();
+        ConceptModel kept = conceptRepository.findByConceptPath("\\\\ref1\\\\concept1\\\\concept2\\\\").orElseThrow();
+        String validIds = root.getConceptNodeId() + "\n" + kept.getConceptNodeId() + "\n";
+
+        ResponseEntity<Object> found = conceptController.getObsoleteConcepts("ref1", validIds);
+        Assertions.assertEquals(List.of(obsolete.getConceptNodeId()),
+                ((List<?>) found.getBody()).stream().map(concept -> ((ConceptModel) concept).getConceptNodeId()).toList());
+
+        ResponseEntity<Object> deleted = conceptController.deleteObsoleteConcepts("ref1", validIds);
+        Assertions.assertEquals("removed 1 obsolete concepts", deleted.getBody());
+        Assertions.assertEquals(2, conceptRepository.count());
+        Assertions.assertNull(conceptRepository.findById(kept.getConceptNodeId()).orElseThrow().getParentId());
+        Assertions.assertTrue(conceptMetadataRepository.findByConceptNodeId(obsolete.getConceptNodeId()).isEmpty());
+
+        Assertions.assertSame(HttpStatus.BAD_REQUEST, conceptController.deleteObsoleteConcepts("ref1", "one\ntwo").getStatusCode());
+    }
+
+    @Test
+    void valuesUpdateUpsertsByPathAndReportsMissingPaths() {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,values
+                ref1,concept1,display1,Categorical,\\\\ref1\\\\concept1\\\\,,"[""a""]"
+                ref1,concept2,display2,Categorical,\\\\ref1\\\\concept2\\\\,,
+                """;
+        loadCsv(csv);
+        String json = """
+                [
+                  {"concept_path": "\\\\ref1\\\\concept1\\\\", "values": ["b", "c"]},
+                  {"concept_path": "\\\\ref1\\\\concept2\\\\", "values": ["d"]},
+                  {"concept_path": "\\\\ref1\\\\missing\\\\", "values": ["e"]}
+                ]
+                """;
+
+        ResponseEntity<Object> response =
+                conceptController.updateManyValues(2, null, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertSame(HttpStatus.CREATED, response.getStatusCode());
+        ValuesUpdateReport report = (ValuesUpdateReport) response.getBody();
+        Assertions.assertEquals(2, report.updated());
+        Assertions.assertEquals(List.of("\\ref1\\missing\\"), report.missingPaths());
+        Assertions.assertTrue(report.failedBatches().isEmpty());
+
+        Long concept1 = conceptRepository.findByConceptPath("\\ref1\\concept1\\").orElseThrow().getConceptNodeId();
+        Assertions.assertEquals("[\"b\",\"c\"]",
+                conceptMetadataRepository.findByConceptNodeIdAndKey(concept1, "values").orElseThrow().getValue());
+    }
+
+    @Test
+    void conceptsArePagedByIdAndStreamedAsNdjson() throws IOException {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,
+                ref1,concept1,display1,Categorical,\\\\ref1\\\\concept1\\\\,\\\\ref1\\\\,ipsum
+                ref1,concept2,display2,Categorical,\\\\ref1\\\\concept2\\\\,\\\\ref1\\\\,lorem
+                """;
+        loadCsv(csv);
+
+        ResponseEntity<Object> first = conceptController.getAllConceptModels("ref1", null, 2);
+        Assertions.assertEquals(2, ((List<?>) first.getBody()).size());
+        String cursor = first.getHeaders().getFirst("X-Next-Cursor");
+        Assertions.assertNotNull(cursor);
+        ResponseEntity<Object> second = conceptController.getAllConceptModels("ref1", Long.valueOf(cursor), 2);
+        Assertions.assertEquals(1, ((List<?>) second.getBody()).size());
+        Assertions.assertNull(second.getHeaders().getFirst("X-Next-Cursor"));
+
+        ByteArrayOutputStream concepts = new ByteArrayOutputStream();
+        conceptController.streamConceptModels("ref1").getBody().writeTo(concepts);
+        Assertions.assertEquals(3, concepts.toString(StandardCharsets.UTF_8).lines().count());
+        ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+        conceptController.streamConceptMetadataModels().getBody().writeTo(metadata);
+        Assertions.assertEquals(conceptMetadataRepository.count(), metadata.toString(StandardCharsets.UTF_8).lines().count());
+    }
+
+    @Test
+    void subtreeDeleteCountsOnDryRunAndRemovesDescendants() {
+        DatasetModel dataset = new DatasetModel("ref1", "REF1", "abv", "");
+        datasetRepository.save(dataset);
+        String csv = """
+                dataset_ref,name,display,concept_type,concept_path,parent_concept_path,desc
+                ref1,ref1,ref1,Categorical,\\\\ref1\\\\,,
+                ref1,table1,table1,Categorical,\\\\ref1\\\\table1\\\\,\\\\ref1\\\\,ipsum
+                ref1,var1,var1,Categorical,\\\\ref1\\\\table1\\\\var1\\\\,\\\\ref1\\\\table1\\\\,lorem
+                ref1,table2,table2,Categorical,\\\\ref1\\\\table2\\\\,\\\\ref1\\\\,dolor
+                """;
+        loadCsv(csv);
+
+        ResponseEntity<Object> dryRun = conceptController.deleteConceptSubtree("\\\\ref1\\\\table1\\\\", false, true);
+        Assertions.assertEquals("Would remove 2 concepts, 2 concept meta entries and 0 facet mappings", dryRun.getBody());
+        Assertions.assertEquals(4, conceptRepository.count());
+
+        ResponseEntity<Object> prefixDryRun = conceptController.deleteConceptSubtree("\\\\ref1\\\\table", true, true);
+        Assertions.assertEquals("Would remove 3 concepts, 3 concept meta entries and 0 facet mappings", prefixDryRun.getBody());
+
+        ResponseEntity<Object> deleted = conceptController.deleteConceptSubtree("\\\\ref1\\\\table1\\\\", false, false);
+        Assertions.assertSame(HttpStatus.OK, deleted.getStatusCode());
+        Assertions.assertEquals(2, conceptRepository.count());
+        Assertions.assertTrue(conceptRepository.findByConceptPath("\\\\ref1\\\\table2\\\\").isPresent());
+
+        conceptController.deleteConcept("\\\\ref1\\\\");
+        ConceptModel orphan = conceptRepository.findByConceptPath("\\\\ref1\\\\table2\\\\").orElseThrow();
+        Assertions.assertNull(orphan.getParentId());
+        Assertions.assertSame(HttpStatus.NOT_FOUND,
+                conceptController.deleteConceptSubtree("\\\\ref1\\\\table1\\\\", false, true).getStatusCode());
+    }
+
+    private ResponseEntity<Object> loadCsv(String csv) {
+        return conceptController.updateConceptsFromCSV(null, null, null, new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
 }
@@ -0,0 +1,116 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.ConceptPathRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ConceptPathIdCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<String, Long> database = new HashMap<>();
+    private ConceptRepository conceptRepository;
+
+    @BeforeEach
+    void setUp() {
+        conceptRepository = mock(ConceptRepository.class);
+        when(conceptRepository.findIdsByConceptPaths(any())).thenAnswer(invocation -> {
+            String[] paths = invocation.getArgument(0);
+            return Arrays.stream(paths).filter(database::containsKey).map(path -> row(path, database.get(path))).toList();
+        });
+        when(conceptRepository.streamNodeIdAndPath()).thenAnswer(invocation ->
+                database.entrySet().stream().map(entry -> row(entry.getKey(), entry.getValue())));
+    }
+
+    @Test
+    void findIds_shouldQueryOnlyPathsNotCached() {
+        database.put("\\a\\", 1L);
+        database.put("\\b\\", 2L);
+        ConceptPathIdCache cache = cache(100);
+
+        assertEquals(Optional.of(1L), cache.findId("\\a\\"));
+        assertEquals(Map.of("\\a\\", 1L, "\\b\\", 2L), cache.findIds(List.of("\\a\\", "\\b\\", "\\missing\\")));
+
+        verify(conceptRepository).findIdsByConceptPaths(new String[]{"\\a\\"});
+        verify(conceptRepository).findIdsByConceptPaths(new String[]{"\\b\\", "\\missing\\"});
+        assertEquals(1, lookups("hit"));
+        assertEquals(3, lookups("miss"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void invalidate_shouldResolveThePathAgain() {
+        database.put("\\a\\", 1L);
+        ConceptPathIdCache cache = cache(100);
+        cache.findId("\\a\\");
+
+        database.put("\\a\\", 7L);
+        assertEquals(Optional.of(1L), cache.findId("\\a\\"));
+        cache.invalidate("\\a\\");
+        assertEquals(Optional.of(7L), cache.findId("\\a\\"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void removals_shouldKeepCollidingPathsReachable() {
+        for (long id = 1; id <= 5000; id++) {
+            database.put("\\study\\variable " + id + "\\", id);
+        }
+        ConceptPathIdCache cache = cache(10_000);
+        assertEquals(5000, cache.warm());
+
+        for (long id = 1; id <= 5000; id += 3) {
+            cache.invalidate("\\study\\variable " + id + "\\");
+        }
+        clearInvocations(conceptRepository);
+        for (long id = 1; id <= 5000; id++) {
+            if ((id - 1) % 3 != 0) {
+                assertEquals(Optional.of(id), cache.findId("\\study\\variable " + id + "\\"));
+            }
+        }
+        verify(conceptRepository, never()).findIdsByConceptPaths(any());
+    }
+
+    @Test
+    void fullCache_shouldStillResolveButNotAdd() {
+        database.put("\\a\\", 1L);
+        database.put("\\b\\", 2L);
+        ConceptPathIdCache cache = cache(1);
+
+        assertEquals(Map.of("\\a\\", 1L, "\\b\\", 2L), cache.findIds(List.of("\\a\\", "\\b\\")));
+
+        assertEquals(1, cache.size());
+        assertEquals(1, meterRegistry.get("dictionary.concept.path.cache.rejected").counter().count());
+    }
+
+    private ConceptPathIdCache cache(int maxEntries) {
+        return new ConceptPathIdCache(conceptRepository, mock(PlatformTransactionManager.class), meterRegistry, maxEntries, false);
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("dictionary.concept.path.cache.lookups").tag("result", result).counter().count();
+    }
+
+    private static ConceptPathRow row(String path, Long id) {
+        return new ConceptPathRow() {
+            @Override
+            public Long getConceptNodeId() {
+                return id;
+            }
+
+            @Override
+            public String getConceptPath() {
+                return path;
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.BulkUpsertUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConceptServiceTest {
+
+    @Mock
+    private ConceptRepository conceptRepository;
+
+    @Mock
+    private ConceptMetadataRepository conceptMetadataRepository;
+
+    @Mock
+    private DatasetRepository datasetRepository;
+
+    @Mock
+    private BulkUpsertUtility bulkUpsertUtility;
+
+    @Mock
+    private ConceptPathIdCache conceptPathIdCache;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private EntityManager entityManager;
+
+    private ConceptService conceptService;
+
+    @BeforeEach
+    void setUp() {
+        conceptService = new ConceptService(conceptRepository, conceptMetadataRepository, datasetRepository,
+                bulkUpsertUtility, conceptPathIdCache, transactionManager, new ObjectMapper());
+        ReflectionTestUtils.setField(conceptService, "entityManager", entityManager);
+    }
+
+    @Test
+    void writeConceptsAsNdjson_shouldWriteOneRecordPerLine_beyondTheGeneratorBuffer() {
+        // Well past the 8000 byte buffer of the json generator
+        List<ConceptModel> concepts = IntStream.range(0, 2500)
+                .mapToObj(i -> new ConceptModel(1L, "var" + i, "Variable " + i, "continuous",
+                        "\\phs000007\\pht000001\\var" + i + "\\", null))
+                .toList();
+        when(conceptRepository.streamAll()).thenReturn(concepts.stream());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = conceptService.writeConceptsAsNdjson(null, out);
+
+        String ndjson = out.toString(StandardCharsets.UTF_8);
+        List<String> lines = ndjson.lines().toList();
+        assertEquals(2500, written);
+        assertTrue(ndjson.endsWith("}\n"));
+        assertEquals(2500, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertTrue(lines.get(i).startsWith("{") && lines.get(i).endsWith("}"), "line " + i + ": " + lines.get(i));
+            assertTrue(lines.get(i).contains("\"var" + i + "\""), "line " + i + ": " + lines.get(i));
+        }
+        verify(entityManager, times(2)).clear();
+    }
+
+    @Test
+    void writeConceptsAsNdjson_shouldWriteNothingWithoutConcepts() {
+        when(conceptRepository.streamByDatasetId(7L)).thenReturn(Stream.empty());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(0, conceptService.writeConceptsAsNdjson(7L, out));
+        assertEquals(0, out.size());
+    }
+}
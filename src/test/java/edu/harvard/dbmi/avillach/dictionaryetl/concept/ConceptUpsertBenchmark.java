@@ -0,0 +1,174 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.concept;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.DictionaryEtlApplication;
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.BulkUpsertUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares upsert statements with the values written into the SQL, as {@link ConceptService} used to build them, with
+ * the array-bound statements of {@link BulkUpsertUtility} for one batch of concepts: the concept upsert, the id lookup and the metadata upsert, in
+ * one transaction. {@code singleStatement} does the same work in the one round trip of
+ * {@link BulkUpsertUtility#upsertConceptBatch}. The batch is the same for every invocation, so after the first one
+ * every path measures updates.
+ * <p>
+ * Needs Docker for the Postgres container. Run with {@code mvn test-compile} and then the {@link #main(String[])}
+ * method, or with the JMH runner of your IDE.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConceptUpsertBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int batchSize;
+
+    private PostgreSQLContainer<?> databaseContainer;
+    private ConfigurableApplicationContext context;
+    private BulkUpsertUtility bulkUpsertUtility;
+    private EntityManager entityManager;
+    private TransactionTemplate transactionTemplate;
+
+    private List<ConceptModel> concepts;
+    private List<String> metaKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        databaseContainer = new PostgreSQLContainer<>("postgres:16")
+                .withDatabaseName("testdb")
+                .withUsername("testuser")
+                .withPassword("testpass")
+                .withUrlParam("currentSchema", "dict")
+                .withCopyFileToContainer(
+                        MountableFile.forClasspathResource("schema.sql"),
+                        "/docker-entrypoint-initdb.d/schema.sql"
+                );
+        databaseContainer.start();
+
+        context = new SpringApplicationBuilder(DictionaryEtlApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties(
+                        "spring.datasource.url=" + databaseContainer.getJdbcUrl(),
+                        "spring.datasource.username=" + databaseContainer.getUsername(),
+                        "spring.datasource.password=" + databaseContainer.getPassword()
+                )
+                .run();
+        bulkUpsertUtility = context.getBean(BulkUpsertUtility.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        DatasetModel dataset = context.getBean(DatasetRepository.class).save(new DatasetModel("bench", "Benchmark", "bench", ""));
+        concepts = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            ConceptModel concept = new ConceptModel("\\bench\\group " + (i / 100) + "\\variable " + i + "\\");
+            concept.setConceptType(i % 2 == 0 ? "Categorical" : "Continuous");
+            concept.setDatasetId(dataset.getDatasetId());
+            concept.setName("variable " + i);
+            concept.setDisplay("Variable " + i);
+            concepts.add(concept);
+        }
+        metaKeys = List.of("description", "values");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        databaseContainer.stop();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int stringBuilt() {
+        return transactionTemplate.execute(status -> {
+            int rows = entityManager.createNativeQuery(upsertConceptsQuery(concepts)).executeUpdate();
+            Set<String> paths = new HashSet<>();
+            concepts.forEach(concept -> paths.add(concept.getConceptPath()));
+            List<Object[]> ids = entityManager.createNativeQuery(idsFromPathsQuery(paths)).getResultList();
+            List<ConceptMetadataModel> metadata = new ArrayList<>();
+            ids.forEach(id -> metadata(Long.parseLong(id[1].toString()), metadata));
+            return rows + entityManager.createNativeQuery(upsertMetadataQuery(metadata)).executeUpdate();
+        });
+    }
+
+    @Benchmark
+    public int arrayBound() {
+        return transactionTemplate.execute(status -> {
+            int rows = bulkUpsertUtility.upsertConcepts(concepts);
+            Map<String, Long> ids = bulkUpsertUtility.findConceptIds(concepts.stream().map(ConceptModel::getConceptPath).toList());
+            List<ConceptMetadataModel> metadata = new ArrayList<>();
+            ids.values().forEach(id -> metadata(id, metadata));
+            return rows + bulkUpsertUtility.upsertConceptMetadata(metadata);
+        });
+    }
+
+    @Benchmark
+    public long singleStatement() {
+        return transactionTemplate.execute(status -> {
+            Map<String, Map<String, String>> metadata = new HashMap<>();
+            concepts.forEach(concept -> {
+                Map<String, String> values = new HashMap<>();
+                metaKeys.forEach(key -> values.put(key, key + " of " + concept.getConceptPath()));
+                metadata.put(concept.getConceptPath(), values);
+            });
+            ConceptBatchCounts counts = bulkUpsertUtility.upsertConceptBatch(concepts, Map.of(), metadata);
+            return counts.getConcepts() + counts.getMetadata();
+        });
+    }
+
+    private static String upsertConceptsQuery(List<ConceptModel> concepts) {
+        return "insert into concept_node (concept_path,concept_type,dataset_id,display,name) VALUES ("
+               + unnest(concepts.stream().map(concept -> StringUtils.quote(concept.getConceptPath())).toList()) + ","
+               + unnest(concepts.stream().map(concept -> StringUtils.quote(concept.getConceptType())).toList()) + ","
+               + unnest(concepts.stream().map(ConceptModel::getDatasetId).toList()) + ","
+               + unnest(concepts.stream().map(concept -> StringUtils.quote(concept.getDisplay())).toList()) + ","
+               + unnest(concepts.stream().map(concept -> StringUtils.quote(concept.getName())).toList()) + ")"
+               + " ON CONFLICT (md5(CONCEPT_PATH)) DO UPDATE SET (dataset_id,display,name) = (EXCLUDED.dataset_id,EXCLUDED.display,EXCLUDED.name);";
+    }
+
+    private static String idsFromPathsQuery(Set<String> paths) {
+        return "select concept_path, concept_node_id from concept_node where concept_path in (select "
+               + unnest(paths.stream().map(StringUtils::quote).toList()) + ")";
+    }
+
+    private static String upsertMetadataQuery(List<ConceptMetadataModel> metadata) {
+        return "insert into concept_node_meta (concept_node_id,key,value) VALUES ("
+               + unnest(metadata.stream().map(ConceptMetadataModel::getConceptNodeId).toList()) + ","
+               + unnest(metadata.stream().map(meta -> StringUtils.quote(meta.getKey())).toList()) + ","
+               + unnest(metadata.stream().map(meta -> StringUtils.quote(meta.getValue().replaceAll("'", "''"))).toList()) + ")"
+               + " ON CONFLICT (key, concept_node_id) DO UPDATE SET value = EXCLUDED.value;";
+    }
+
+    private static String unnest(List<?> values) {
+        return "UNNEST(ARRAY[" + StringUtils.collectionToCommaDelimitedString(values) + "])";
+    }
+
+    private void metadata(Long conceptNodeId, List<ConceptMetadataModel> metadata) {
+        metaKeys.forEach(key -> metadata.add(new ConceptMetadataModel(conceptNodeId, key, key + " of " + conceptNodeId)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ConceptUpsertBenchmark.class.getSimpleName()).build()).run();
+    }
+}
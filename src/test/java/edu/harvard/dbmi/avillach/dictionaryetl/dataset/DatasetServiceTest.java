@@ -1,5 +1,6 @@
 package edu.harvard.dbmi.avillach.dictionaryetl.dataset;
 
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptPathIdCache;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -15,6 +16,9 @@ class DatasetServiceTest {
     @Mock
     private DatasetRepository datasetRepository;
 
+    @Mock
+    private ConceptPathIdCache conceptPathIdCache;
+
     @InjectMocks
     private DatasetService datasetService;
 
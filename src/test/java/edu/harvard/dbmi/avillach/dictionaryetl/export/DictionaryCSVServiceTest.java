@@ -140,8 +140,8 @@ class DictionaryCSVServiceTest {
         Assertions.assertTrue(conceptsFile.exists());
 
         //check if concepts.csv can be reloaded
-        String conceptReload = Files.readString(conceptsFile.toPath());
-        Assertions.assertEquals(HttpStatus.OK, conceptController.updateConceptsFromCSV(conceptReload).getStatusCode());
+        InputStream conceptReload = Files.newInputStream(conceptsFile.toPath());
+        Assertions.assertEquals(HttpStatus.OK, conceptController.updateConceptsFromCSV(null, null, null, conceptReload).getStatusCode());
 
         //Check all datasets got merged and updated correctly
         datasetRepository.findAll().forEach(
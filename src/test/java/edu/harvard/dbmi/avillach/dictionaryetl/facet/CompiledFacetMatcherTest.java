@@ -0,0 +1,61 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetExpressionDTO;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.LeafFacetSpec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledFacetMatcherTest {
+
+    @Test
+    void compiledMatcher_shouldAgreeWithEvaluatorOnGeneratedFacets() {
+        List<String> paths = FacetExpressionFixture.paths(2000, 7);
+        List<LeafFacetSpec> facets = FacetExpressionFixture.leafFacets(300, 11);
+
+        int matched = 0;
+        for (LeafFacetSpec facet : facets) {
+            CompiledFacetMatcher matcher = CompiledFacetMatcher.compile(facet.groups());
+            for (String path : paths) {
+                boolean expected = FacetExpressionEvaluator.facetAppliesToConceptPathGrouped(facet.groups(), path);
+                assertEquals(expected, matcher.matches(CompiledFacetMatcher.splitConceptPath(path)),
+                        () -> "Facet " + facet + " on " + path);
+                matched += expected ? 1 : 0;
+            }
+        }
+        assertTrue(matched > 0, "the fixture should produce some matches");
+    }
+
+    @Test
+    void splitConceptPath_shouldDropBlankNodes() {
+        assertArrayEquals(new String[]{"a", "b c"}, CompiledFacetMatcher.splitConceptPath("\\a\\ \\\\b c\\"));
+        assertArrayEquals(new String[0], CompiledFacetMatcher.splitConceptPath("\\\\"));
+    }
+
+    @Test
+    void literalRegexes_shouldKeepFindSemantics() {
+        String path = "\\phs000007\\Recover_Adult\\visits\\";
+        assertTrue(compile(new FacetExpressionDTO(null, null, "Adult", 1)).matches(path));
+        assertTrue(compile(new FacetExpressionDTO(null, null, "^Recover", 1)).matches(path));
+        assertFalse(compile(new FacetExpressionDTO(null, null, "^Adult", 1)).matches(path));
+        assertTrue(compile(new FacetExpressionDTO(null, null, "(?i)visits$", -1)).matches(path));
+    }
+
+    @Test
+    void groupsThatCannotMatch_shouldBeDropped() {
+        CompiledFacetMatcher matcher = CompiledFacetMatcher.compile(List.of(
+                List.of(new FacetExpressionDTO(null, null, "[unclosed", null)),
+                List.of(),
+                List.of(new FacetExpressionDTO(null, null, null, 0))
+        ));
+        assertFalse(matcher.canMatch());
+        assertFalse(matcher.matches("\\[unclosed\\"));
+        assertFalse(CompiledFacetMatcher.compile(null).canMatch());
+    }
+
+    private static CompiledFacetMatcher compile(FacetExpressionDTO expression) {
+        return CompiledFacetMatcher.compile(List.of(List.of(expression)));
+    }
+}
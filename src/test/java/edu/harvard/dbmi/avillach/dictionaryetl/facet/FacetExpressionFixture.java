@@ -0,0 +1,84 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetExpressionDTO;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.LeafFacetSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates concept paths shaped like dbGaP study, table and variable paths, and leaf facets whose expressions use
+ * every kind of matcher, for the facet matching tests and benchmarks. The same seed gives the same data.
+ */
+final class FacetExpressionFixture {
+
+    private static final String[] WORDS = {
+            "age", "Age", "sex", "visit", "Visit", "height", "weight", "BMI", "smoker", "covid", "COVID", "Recover_Adult",
+            "biostats_derived", "Inf", "noninf", "minus3", "12", "lab", "LAB", "diagnosis", "medication", " ", "a.b", "x+y"
+    };
+
+    private FacetExpressionFixture() {
+    }
+
+    static List<String> paths(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder path = new StringBuilder("\\phs").append(String.format("%06d", random.nextInt(50))).append('\\');
+            int depth = 1 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) {
+                path.append(word(random));
+                if (random.nextInt(3) == 0) {
+                    path.append('_').append(word(random));
+                }
+                path.append('\\');
+            }
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    static List<LeafFacetSpec> leafFacets(int count, long seed) {
+        Random random = new Random(seed);
+        List<LeafFacetSpec> facets = new ArrayList<>(count);
+        for (long id = 1; id <= count; id++) {
+            List<List<FacetExpressionDTO>> groups = new ArrayList<>();
+            int groupCount = random.nextInt(6) == 0 ? 0 : 1 + random.nextInt(3);
+            for (int g = 0; g < groupCount; g++) {
+                List<FacetExpressionDTO> group = new ArrayList<>();
+                int size = 1 + random.nextInt(3);
+                for (int e = 0; e < size; e++) {
+                    group.add(expression(random));
+                }
+                groups.add(group);
+            }
+            facets.add(new LeafFacetSpec(id, groups));
+        }
+        return facets;
+    }
+
+    private static FacetExpressionDTO expression(Random random) {
+        Integer node = switch (random.nextInt(4)) {
+            case 0 -> null;
+            case 1 -> -1 - random.nextInt(3);
+            default -> random.nextInt(5);
+        };
+        String word = word(random);
+        return switch (random.nextInt(9)) {
+            case 0 -> new FacetExpressionDTO(word, null, null, node);
+            case 1 -> new FacetExpressionDTO(null, word.substring(0, Math.max(1, word.length() / 2)), null, node);
+            case 2 -> new FacetExpressionDTO(null, null, "(?i)" + word + "$", node);
+            case 3 -> new FacetExpressionDTO(null, null, word, node);
+            case 4 -> new FacetExpressionDTO(null, null, "^" + word, node);
+            case 5 -> new FacetExpressionDTO(null, null, "^phs0000[0-9]" + random.nextInt(10), 0);
+            case 6 -> new FacetExpressionDTO(" ", word, "[unclosed", node);
+            case 7 -> new FacetExpressionDTO(null, null, random.nextInt(10) == 0 ? "[unclosed" : null, node);
+            default -> new FacetExpressionDTO(null, null, "(?i)(inf|noninf)_?" + word, node);
+        };
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -11,6 +11,7 @@ import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetCategoryDTO;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetCategoryWrapper;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetDTO;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetExpressionDTO;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.LeafFacetSpec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,9 +25,8 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.MountableFile;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -54,6 +54,9 @@ class FacetLoaderMappingIntegrationTest {
     @Autowired
     private FacetConceptRepository facetConceptRepository;
 
+    @Autowired
+    private FacetSqlPushdown facetSqlPushdown;
+
     @Container
     static final PostgreSQLContainer<?> databaseContainer = new PostgreSQLContainer<>("postgres:16")
         .withDatabaseName("testdb")
@@ -69,6 +72,7 @@ class FacetLoaderMappingIntegrationTest {
         registry.add("spring.datasource.url", databaseContainer::getJdbcUrl);
         registry.add("spring.datasource.username", databaseContainer::getUsername);
         registry.add("spring.datasource.password", databaseContainer::getPassword);
+        registry.add("dictionary.facet.mapping.partitions", () -> 3);
     }
 
     @BeforeEach
@@ -146,4 +150,65 @@ class FacetLoaderMappingIntegrationTest {
         assertTrue(facetConceptRepository.findByFacetIdAndConceptNodeId(infFacetId, c2Opt.get().getConceptNodeId()).isEmpty());
         assertTrue(facetConceptRepository.findByFacetIdAndConceptNodeId(infFacetId, c3Opt.get().getConceptNodeId()).isEmpty());
     }
+
+    @Test
+    void leafMapping_shouldMapEveryIdRangeAndStayIdempotent() {
+        DatasetModel ds = datasetRepository.save(new DatasetModel("phs000007", "FHS", "", ""));
+        List<ConceptModel> concepts = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            String table = (i % 2 == 0) ? "visits" : "labs";
+            concepts.add(new ConceptModel(ds.getDatasetId(), "var" + i, "var" + i, "continuous",
+                    "\\phs000007\\" + table + "\\var" + i + "\\", null));
+        }
+        conceptService.saveAll(concepts);
+
+        FacetDTO visits = new FacetDTO("Visits", "Visits", "",
+                new ArrayList<>(List.of(List.of(new FacetExpressionDTO("visits", null, null, 1)))), null);
+        FacetCategoryWrapper wrapper = new FacetCategoryWrapper(
+                new FacetCategoryDTO("Tables", "Tables", "", List.of(visits)));
+
+        service.load(List.of(wrapper));
+        Long visitsId = facetRepository.findByName("Visits").orElseThrow().getFacetId();
+        assertEquals(1250, facetConceptRepository.countForFacet(visitsId));
+
+        // Unchanged expressions keep their mappings, and mapping them again adds nothing
+        service.load(List.of(wrapper));
+        assertEquals(1250, facetConceptRepository.countForFacet(visitsId));
+    }
+
+    @Test
+    void sqlPushdown_shouldMapTheSameConceptsAsTheEvaluator() {
+        DatasetModel ds = datasetRepository.save(new DatasetModel("phs000007", "FHS", "", ""));
+        List<String> paths = new ArrayList<>(new LinkedHashSet<>(FacetExpressionFixture.paths(1500, 7)));
+        List<ConceptModel> concepts = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            concepts.add(new ConceptModel(ds.getDatasetId(), "var" + i, "var" + i, "categorical", paths.get(i), null));
+        }
+        conceptService.saveAll(concepts);
+
+        List<LeafFacetSpec> specs = FacetExpressionFixture.leafFacets(200, 11);
+        List<FacetDTO> facets = specs.stream()
+                .map(spec -> new FacetDTO("Facet " + spec.facetId(), "Facet " + spec.facetId(), "", spec.groups(), null))
+                .toList();
+        long pushedDown = specs.stream()
+                .flatMap(spec -> spec.groups().stream())
+                .filter(group -> facetSqlPushdown.translatable(CompiledFacetMatcher.compile(List.of(group))))
+                .count();
+        assertTrue(pushedDown > 0, "the fixture should have groups mapped in SQL");
+
+        service.load(List.of(new FacetCategoryWrapper(new FacetCategoryDTO("Generated", "Generated", "", facets))));
+
+        Map<Long, String> pathById = new HashMap<>();
+        conceptService.findAll().forEach(c -> pathById.put(c.getConceptNodeId(), c.getConceptPath()));
+        Map<Long, Set<String>> mapped = new HashMap<>();
+        facetConceptRepository.findAll().forEach(m ->
+                mapped.computeIfAbsent(m.getFacetId(), k -> new HashSet<>()).add(pathById.get(m.getConceptNodeId())));
+        for (LeafFacetSpec spec : specs) {
+            Long facetId = facetRepository.findByName("Facet " + spec.facetId()).orElseThrow().getFacetId();
+            Set<String> expected = paths.stream()
+                    .filter(path -> FacetExpressionEvaluator.facetAppliesToConceptPathGrouped(spec.groups(), path))
+                    .collect(Collectors.toSet());
+            assertEquals(expected, mapped.getOrDefault(facetId, Set.of()), () -> "Mappings of " + spec);
+        }
+    }
 }
@@ -45,6 +45,9 @@ class FacetLoaderServiceTest {
     @Autowired
     private FacetCategoryMetaRepository facetCategoryMetaRepository;
 
+    @Autowired
+    private FacetMetadataRepository facetMetadataRepository;
+
     @Container
     static final PostgreSQLContainer<?> databaseContainer = new PostgreSQLContainer<>("postgres:16")
         .withDatabaseName("testdb")
@@ -178,4 +181,49 @@ class FacetLoaderServiceTest {
         Assertions.assertTrue(reloadedMetadata.isPresent());
         Assertions.assertEquals(updatedTestValue, reloadedMetadata.get().getValue());
     }
+
+    @Test
+    void load_shouldUpsertNestedFacetsAcrossCategories_andUpdateMovedFacets() {
+        FacetExpressionDTO visits = new FacetExpressionDTO("visits", null, null, 2);
+        FacetDTO month = new FacetDTO("Month 3", "Month 3", "", List.of(List.of(visits)), null);
+        FacetDTO infected = new FacetDTO("Infected", "Infected", "", null, List.of(month));
+        FacetDTO adult = new FacetDTO("Recover Adult", null, null, null, List.of(infected));
+        FacetDTO peds = new FacetDTO("Recover Peds", "RECOVER Peds", "", null, null);
+        FacetCategoryWrapper consortium = new FacetCategoryWrapper(
+                new FacetCategoryDTO("Consortium_Curated_Facets", "Consortium", "", List.of(adult)));
+        FacetCategoryWrapper other = new FacetCategoryWrapper(
+                new FacetCategoryDTO("Other", "Other", "", List.of(peds)));
+
+        Result result1 = service.load(List.of(consortium, other));
+        Assertions.assertEquals(4, result1.facetsCreated());
+        Assertions.assertEquals(0, result1.facetsUpdated());
+        Assertions.assertEquals(4, result1.facetMappings().size());
+        FacetNameNested createdAdult = result1.createdFacetNames().get(0);
+        Assertions.assertEquals("Recover Adult", createdAdult.name);
+        Assertions.assertEquals("Infected", createdAdult.facets.get(0).name);
+        Assertions.assertEquals("Month 3", createdAdult.facets.get(0).facets.get(0).name);
+
+        FacetModel adultFacet = facetRepository.findByName("Recover Adult").orElseThrow();
+        FacetModel infectedFacet = facetRepository.findByName("Infected").orElseThrow();
+        FacetModel monthFacet = facetRepository.findByName("Month 3").orElseThrow();
+        Assertions.assertEquals("Recover Adult", adultFacet.getDisplay());
+        Assertions.assertEquals(adultFacet.getFacetId(), infectedFacet.getParentId());
+        Assertions.assertEquals(infectedFacet.getFacetId(), monthFacet.getParentId());
+        Assertions.assertTrue(facetMetadataRepository
+                .findValue(monthFacet.getFacetId(), FacetLoaderService.KEY_EFFECTIVE_EXPRESSION_GROUPS).isPresent());
+
+        // Move Month 3 under Recover Peds in the other category
+        FacetDTO movedMonth = new FacetDTO("Month 3", "Third month", "", List.of(List.of(visits)), null);
+        FacetDTO pedsWithMonth = new FacetDTO("Recover Peds", "RECOVER Peds", "", null, List.of(movedMonth));
+        Result result2 = service.load(List.of(new FacetCategoryWrapper(
+                new FacetCategoryDTO("Other", "Other", "", List.of(pedsWithMonth)))));
+        Assertions.assertEquals(0, result2.facetsCreated());
+        Assertions.assertEquals(2, result2.facetsUpdated());
+
+        FacetModel pedsFacet = facetRepository.findByName("Recover Peds").orElseThrow();
+        FacetModel reloadedMonth = facetRepository.findByName("Month 3").orElseThrow();
+        Assertions.assertEquals("Third month", reloadedMonth.getDisplay());
+        Assertions.assertEquals(pedsFacet.getFacetId(), reloadedMonth.getParentId());
+        Assertions.assertEquals(pedsFacet.getFacetCategoryId(), reloadedMonth.getFacetCategoryId());
+    }
 }
@@ -0,0 +1,94 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.LeafFacetSpec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FacetExpressionEvaluator}, {@link CompiledFacetMatcher} and {@link FacetMatcherIndex} at the leaf
+ * mapping of {@link FacetLoaderService}: every generated leaf facet against every generated concept path. Each
+ * invocation returns the number of mappings found.
+ * <p>
+ * The full 1M paths by 500 facets takes minutes per invocation with the evaluator; pass {@code -p paths=100000} for a
+ * quicker comparison. Run with {@code mvn test-compile} and then the {@link #main(String[])} method, or with the JMH
+ * runner of your IDE.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class FacetMatcherBenchmark {
+
+    @Param({"1000000"})
+    public int paths;
+
+    @Param({"500"})
+    public int facets;
+
+    private List<String> conceptPaths;
+    private List<LeafFacetSpec> leafFacets;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        conceptPaths = FacetExpressionFixture.paths(paths, 7);
+        leafFacets = FacetExpressionFixture.leafFacets(facets, 11);
+    }
+
+    @Benchmark
+    public long evaluator() {
+        long mappings = 0;
+        for (String path : conceptPaths) {
+            for (LeafFacetSpec facet : leafFacets) {
+                if (FacetExpressionEvaluator.facetAppliesToConceptPathGrouped(facet.groups(), path)) {
+                    mappings++;
+                }
+            }
+        }
+        return mappings;
+    }
+
+    // Includes compiling the facets, as the loader does once per load
+    @Benchmark
+    public long compiled() {
+        CompiledFacetMatcher[] matchers = leafFacets.stream()
+                .map(facet -> CompiledFacetMatcher.compile(facet.groups()))
+                .filter(CompiledFacetMatcher::canMatch)
+                .toArray(CompiledFacetMatcher[]::new);
+        long mappings = 0;
+        for (String path : conceptPaths) {
+            String[] nodes = CompiledFacetMatcher.splitConceptPath(path);
+            for (CompiledFacetMatcher matcher : matchers) {
+                if (matcher.matches(nodes)) {
+                    mappings++;
+                }
+            }
+        }
+        return mappings;
+    }
+
+    // Includes compiling and indexing the facets
+    @Benchmark
+    public long indexed() {
+        List<CompiledFacetMatcher> matchers = leafFacets.stream()
+                .map(facet -> CompiledFacetMatcher.compile(facet.groups()))
+                .filter(CompiledFacetMatcher::canMatch)
+                .toList();
+        FacetMatcherIndex.Search search = new FacetMatcherIndex(matchers).newSearch();
+        long[] mappings = {0};
+        for (String path : conceptPaths) {
+            search.matches(CompiledFacetMatcher.splitConceptPath(path), facet -> mappings[0]++);
+        }
+        return mappings[0];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FacetMatcherBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,77 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetExpressionDTO;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.LeafFacetSpec;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FacetMatcherIndexTest {
+
+    @Test
+    void index_shouldFindTheSameFacetsAsTestingEveryFacet() {
+        List<String> paths = FacetExpressionFixture.paths(3000, 13);
+        List<CompiledFacetMatcher> matchers = new ArrayList<>();
+        for (LeafFacetSpec facet : FacetExpressionFixture.leafFacets(400, 17)) {
+            matchers.add(CompiledFacetMatcher.compile(facet.groups()));
+        }
+        FacetMatcherIndex.Search search = new FacetMatcherIndex(matchers).newSearch();
+
+        int matched = 0;
+        for (String path : paths) {
+            String[] nodes = CompiledFacetMatcher.splitConceptPath(path);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < matchers.size(); i++) {
+                if (matchers.get(i).matches(nodes)) {
+                    expected.add(i);
+                }
+            }
+            List<Integer> actual = new ArrayList<>();
+            search.matches(nodes, actual::add);
+            actual.sort(null);
+            assertEquals(expected, actual, () -> "Facets matching " + path);
+            matched += expected.size();
+        }
+        assertTrue(matched > 0, "the fixture should produce some matches");
+    }
+
+    @Test
+    void regexOnlyFacets_shouldBeTestedForEveryPath() {
+        FacetMatcherIndex index = new FacetMatcherIndex(List.of(
+                compile(new FacetExpressionDTO("visits", null, null, -1)),
+                compile(new FacetExpressionDTO(null, null, "(?i)^recover", 1))
+        ));
+        assertEquals(1, index.unkeyedFacets());
+
+        List<Integer> matched = new ArrayList<>();
+        index.newSearch().matches(CompiledFacetMatcher.splitConceptPath("\\phs1\\Recover_Adult\\visits\\"), matched::add);
+        matched.sort(null);
+        assertEquals(List.of(0, 1), matched);
+    }
+
+    @Test
+    void requiredLiteral_shouldOnlyTakeCharactersEveryMatchHas() {
+        assertEquals("phs0000", FacetMatcherIndex.requiredLiteral("^phs0000[0-9]1"));
+        assertEquals("visi", FacetMatcherIndex.requiredLiteral("visit?s*$"));
+        assertEquals("yz", FacetMatcherIndex.requiredLiteral("(ab)?_x{0,3}[{]yz"));
+        assertNull(FacetMatcherIndex.requiredLiteral("(?i)visits"));
+        assertNull(FacetMatcherIndex.requiredLiteral("age|sex"));
+        assertNull(FacetMatcherIndex.requiredLiteral("\\d+"));
+        assertNull(FacetMatcherIndex.requiredLiteral("[a-z]+.*"));
+    }
+
+    @Test
+    void ahoCorasick_shouldReportOverlappingPatterns() {
+        AhoCorasick automaton = new AhoCorasick(List.of("he", "she", "his", "hers"));
+        List<Integer> found = new ArrayList<>();
+        automaton.search("ushers", found::add);
+        assertEquals(List.of(1, 0, 3), found);
+    }
+
+    private static CompiledFacetMatcher compile(FacetExpressionDTO expression) {
+        return CompiledFacetMatcher.compile(List.of(List.of(expression)));
+    }
+}
@@ -0,0 +1,63 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.facet;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.dto.FacetExpressionDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FacetSqlPushdownTest {
+
+    @Test
+    void condition_shouldAddressNodesLikeTheJavaMatcher() {
+        CompiledFacetMatcher matcher = CompiledFacetMatcher.compile(List.of(
+                List.of(new FacetExpressionDTO("Recover_Adult", null, null, 1),
+                        new FacetExpressionDTO(null, "inf", null, -3)),
+                List.of(new FacetExpressionDTO(null, null, "^visit", null))
+        ));
+        List<Object> parameters = new ArrayList<>(List.of("blank"));
+
+        String condition = FacetSqlPushdown.condition(matcher, parameters);
+
+        assertEquals("((p.nodes[2] = :p1 AND strpos(p.nodes[cardinality(p.nodes) + -2], :p2) > 0) OR "
+                + "(EXISTS (SELECT 1 FROM unnest(p.nodes) AS n(node) WHERE starts_with(n.node, :p3))))", condition);
+        assertEquals(List.of("blank", "Recover_Adult", "inf", "visit"), parameters);
+    }
+
+    @Test
+    void condition_shouldLeaveTheParametersAloneWhenAGroupCannotBeTranslated() {
+        CompiledFacetMatcher matcher = CompiledFacetMatcher.compile(List.of(
+                List.of(new FacetExpressionDTO("visits", null, null, 1),
+                        new FacetExpressionDTO(null, null, "\\bvisit\\b", null))
+        ));
+        List<Object> parameters = new ArrayList<>();
+
+        assertNull(FacetSqlPushdown.condition(matcher, parameters));
+        assertTrue(parameters.isEmpty());
+    }
+
+    @Test
+    void toPostgresRegex_shouldRewriteTheSharedSubset() {
+        assertEquals(new FacetSqlPushdown.PostgresRegex("inf(ected)?[0-9]+", true),
+                FacetSqlPushdown.toPostgresRegex("(?i)inf(ected)?\\d+"));
+        assertEquals("^phs0000[0-9]1", FacetSqlPushdown.toPostgresRegex("^phs0000[0-9]1").pattern());
+        assertEquals("a\\_b{1,3}?(?:x|y)[^\\-.]", FacetSqlPushdown.toPostgresRegex("a_b{1,3}?(?:x|y)[^\\-.]").pattern());
+        assertEquals("[^\\n\\r\\u0085\\u2028\\u2029]*(?=(?:\\r\\n|[\\n\\r\\u0085\\u2028\\u2029])?$)",
+                FacetSqlPushdown.toPostgresRegex(".*$").pattern());
+    }
+
+    @Test
+    void toPostgresRegex_shouldRejectSyntaxTheEnginesReadDifferently() {
+        assertNull(FacetSqlPushdown.toPostgresRegex("\\bvisit\\b"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("\\w+"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("a++"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("(?<year>\\d{4})"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("[a-z&&[^x]]"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("[[:alpha:]]"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("[!-~]"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("a{300}"));
+        assertNull(FacetSqlPushdown.toPostgresRegex("(?i)straße"));
+    }
+}
@@ -0,0 +1,43 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Builds large columnMeta.csv files for benchmarks by repeating {@code src/test/resources/columnMeta.csv}. Each copy
+ * gets its own dataset names so the concept paths stay unique and every dataset stays contiguous.
+ */
+public final class ColumnMetaBenchmarkFixture {
+
+    private ColumnMetaBenchmarkFixture() {}
+
+    public static Path scaledColumnMeta(int copies) throws IOException {
+        List<String> rows;
+        try (var inputStream = new ClassPathResource("columnMeta.csv").getInputStream()) {
+            rows = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .filter(row -> row.startsWith("\\"))
+                    .toList();
+        }
+
+        Path scaled = Files.createTempFile("columnMeta-x" + copies, ".csv");
+        scaled.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(scaled, StandardCharsets.UTF_8)) {
+            for (int copy = 0; copy < copies; copy++) {
+                for (String row : rows) {
+                    int datasetEnd = row.indexOf('\\', 1);
+                    writer.write(row, 0, datasetEnd);
+                    writer.write("_" + copy);
+                    writer.write(row, datasetEnd, row.length() - datasetEnd);
+                    writer.newLine();
+                }
+            }
+        }
+        return scaled;
+    }
+}
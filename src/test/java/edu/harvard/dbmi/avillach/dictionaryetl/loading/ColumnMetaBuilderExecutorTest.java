@@ -0,0 +1,99 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnMetaBuilderExecutorTest {
+
+    @Test
+    void shouldBlockSubmitterWhenPendingLimitIsReached() throws InterruptedException {
+        LoadingMetrics metrics = new LoadingMetrics(new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch thirdSubmitted = new CountDownLatch(1);
+
+        try (ColumnMetaBuilderExecutor executor = new ColumnMetaBuilderExecutor(2, 1, metrics)) {
+            Thread submitter = Thread.ofVirtual().start(() -> {
+                try {
+                    for (int i = 0; i < 3; i++) {
+                        executor.submit(() -> awaitQuietly(release), Assertions::fail);
+                    }
+                    thirdSubmitted.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            assertFalse(thirdSubmitted.await(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, metrics.getInFlightBuilderTasks());
+            assertEquals(1, metrics.getQueuedBuilderTasks());
+
+            release.countDown();
+            assertTrue(thirdSubmitted.await(5, TimeUnit.SECONDS));
+            submitter.join();
+        }
+
+        assertEquals(0, metrics.getInFlightBuilderTasks());
+        assertEquals(0, metrics.getQueuedBuilderTasks());
+    }
+
+    @Test
+    void shouldRunEveryTaskWhenUnbounded() {
+        LoadingMetrics metrics = new LoadingMetrics(new SimpleMeterRegistry());
+        AtomicInteger completed = new AtomicInteger();
+
+        assertDoesNotThrow(() -> {
+            try (ColumnMetaBuilderExecutor executor = new ColumnMetaBuilderExecutor(0, 0, metrics)) {
+                for (int i = 0; i < 1000; i++) {
+                    executor.submit(completed::incrementAndGet, Assertions::fail);
+                }
+            }
+        });
+
+        assertEquals(1000, completed.get());
+    }
+
+    @Test
+    void shouldReportTaskAbandonedWhenCloseIsInterrupted() throws InterruptedException {
+        LoadingMetrics metrics = new LoadingMetrics(new SimpleMeterRegistry());
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch abandoned = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+
+        ColumnMetaBuilderExecutor executor = new ColumnMetaBuilderExecutor(0, 1, metrics);
+        executor.submit(() -> {
+            running.countDown();
+            // Keeps the only builder, interrupted or not, so the other task cannot take it once it is released
+            while (abandoned.getCount() > 0) {
+                awaitQuietly(abandoned);
+                Thread.interrupted();
+            }
+        }, Assertions::fail);
+        executor.submit(completed::incrementAndGet, abandoned::countDown);
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // An interrupted close shuts the tasks down, so the one waiting for a builder never runs
+        Thread.currentThread().interrupt();
+        executor.close();
+
+        assertTrue(Thread.interrupted());
+        assertEquals(0, completed.get());
+        assertEquals(0, abandoned.getCount());
+        assertEquals(0, metrics.getQueuedBuilderTasks());
+        assertEquals(0, metrics.getInFlightBuilderTasks());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
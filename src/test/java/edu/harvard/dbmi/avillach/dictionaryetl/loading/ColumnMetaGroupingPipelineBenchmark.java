@@ -0,0 +1,91 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.ColumnMetaUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.configuration.Config;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and peak heap of {@link ColumnMetaGroupingPipeline} for different {@code maxPendingGroups} limits. A
+ * limit of 0 is the unbounded behaviour. Peak heap is the sum of the heap pools' peak usage during the run, reported
+ * as the {@code peakHeapMb} secondary result.
+ * <p>
+ * Run with {@code mvn test-compile} and then the {@link #main(String[])} method, or with the JMH runner of your IDE.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class ColumnMetaGroupingPipelineBenchmark {
+
+    @Param({"0", "64", "1024", "16384"})
+    public int maxPendingGroups;
+
+    @Param({"200"})
+    public int copies;
+
+    private Path columnMetaCsv;
+    private ColumnMetaGroupingPipeline pipeline;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class HeapCounters {
+        public double peakHeapMb;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            peakHeapMb = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        columnMetaCsv = ColumnMetaBenchmarkFixture.scaledColumnMeta(copies);
+        ColumnMetaSource source = new OpenCsvColumnMetaSource(new ColumnMetaMapper(), new Config().csvParser());
+        LoadingMetrics metrics = new LoadingMetrics(new SimpleMeterRegistry());
+        ColumnMetaTreeBuilder builder =
+                new ColumnMetaTreeBuilder(new ColumnMetaFlattener(), new ConceptMetadataModelMapper(new ColumnMetaUtility()), metrics);
+        pipeline = new ColumnMetaGroupingPipeline(
+                source, builder, new StudyFilter(), metrics, maxPendingGroups, 0, 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakUsage() {
+        System.gc();
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    @Benchmark
+    public LoadingContext groupAndBuild(HeapCounters counters) {
+        LoadingContext context = new LoadingContext(Set.of(), columnMetaCsv.toString(), null);
+        pipeline.run(context);
+        long peak = heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        counters.peakHeapMb = Math.max(counters.peakHeapMb, peak / (1024.0 * 1024.0));
+        return context;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ColumnMetaGroupingPipelineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,94 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.ColumnMetaUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.configuration.Config;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ConceptNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnMetaGroupingPipelineTest {
+
+    private final ColumnMetaMapper columnMetaMapper = new ColumnMetaMapper();
+    private final ColumnMetaTreeBuilder columnMetaTreeBuilder =
+            new ColumnMetaTreeBuilder(new ColumnMetaFlattener(), new ConceptMetadataModelMapper(new ColumnMetaUtility()),
+                    new LoadingMetrics(new SimpleMeterRegistry()));
+
+    @Test
+    void shouldBuildSameTreeFromParallelChunks() throws IOException {
+        String csvPath = new ClassPathResource("columnMeta.csv").getFile().toPath().toString();
+
+        LoadingContext sequentialContext = new LoadingContext(Set.of(), csvPath, null);
+        pipeline(new OpenCsvColumnMetaSource(columnMetaMapper, new Config().csvParser()), 1).run(sequentialContext);
+
+        // One byte minimum chunk size so the 16 chunks cut through concept groups
+        LoadingContext chunkedContext = new LoadingContext(Set.of(), csvPath, null);
+        pipeline(new MappedColumnMetaSource(columnMetaMapper, 4096, 1), 16).run(chunkedContext);
+
+        Map<String, String> expected = snapshot(sequentialContext);
+        assertTrue(expected.size() > 1);
+        assertEquals(expected, snapshot(chunkedContext));
+        assertEquals(sequentialContext.loadingErrorRegistry().getErrors(), chunkedContext.loadingErrorRegistry().getErrors());
+    }
+
+    @Test
+    void shouldApplyStudyFilterToChunks() throws IOException {
+        String csvPath = new ClassPathResource("columnMeta.csv").getFile().toPath().toString();
+
+        LoadingContext context = new LoadingContext(Set.of("demographics"), csvPath, null);
+        pipeline(new MappedColumnMetaSource(columnMetaMapper, 4096, 1), 16).run(context);
+
+        assertEquals(Set.of("demographics"), context.conceptModelTree().getRoot().getChildren().stream()
+                .map(ConceptNode::getDatasetRef)
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    void shouldMeterRowsAndTreeBuilds() throws IOException {
+        String csvPath = new ClassPathResource("columnMeta.csv").getFile().toPath().toString();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LoadingMetrics metrics = new LoadingMetrics(meterRegistry);
+        ColumnMetaTreeBuilder builder = new ColumnMetaTreeBuilder(new ColumnMetaFlattener(),
+                new ConceptMetadataModelMapper(new ColumnMetaUtility()), metrics);
+
+        LoadingContext context = new LoadingContext(Set.of(), csvPath, null);
+        new ColumnMetaGroupingPipeline(new OpenCsvColumnMetaSource(columnMetaMapper, new Config().csvParser()), builder,
+                new StudyFilter(), metrics, 100, 0, 1).run(context);
+
+        assertTrue(context.progress().getRowsParsed() > 0);
+        assertEquals(context.progress().getRowsParsed(), meterRegistry.get("dictionary.loading.rows.parsed").counter().count());
+        assertEquals(Files.size(Path.of(csvPath)), context.progress().getBytesRead());
+        assertTrue(meterRegistry.get("dictionary.loading.tree.build").timer().count() > 0);
+        assertEquals(0, metrics.getInFlightBuilderTasks());
+    }
+
+    private ColumnMetaGroupingPipeline pipeline(ColumnMetaSource source, int parallelism) {
+        return new ColumnMetaGroupingPipeline(source, columnMetaTreeBuilder, new StudyFilter(),
+                new LoadingMetrics(new SimpleMeterRegistry()), 100, 0, parallelism);
+    }
+
+    private static Map<String, String> snapshot(LoadingContext context) {
+        Map<String, String> snapshot = new TreeMap<>();
+        Deque<ConceptNode> pending = new ArrayDeque<>(context.conceptModelTree().getRoot().getChildren());
+        while (!pending.isEmpty()) {
+            ConceptNode node = pending.removeFirst();
+            pending.addAll(node.getChildren());
+            snapshot.put(node.getConceptPath(), node.getConceptType() + "|" +
+                    node.getConceptMetadataModels().stream().map(meta -> meta.getKey() + "=" + meta.getValue()).sorted().toList());
+        }
+        return snapshot;
+    }
+}
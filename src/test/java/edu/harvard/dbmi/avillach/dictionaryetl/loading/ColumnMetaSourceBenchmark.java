@@ -0,0 +1,68 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.configuration.Config;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import org.hibernate.query.spi.CloseableIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link OpenCsvColumnMetaSource} with {@link MappedColumnMetaSource} on a scaled copy of
+ * {@code src/test/resources/columnMeta.csv}. Each invocation reads every row of the file.
+ * <p>
+ * Run with {@code mvn test-compile} and then the {@link #main(String[])} method, or with the JMH runner of your IDE.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColumnMetaSourceBenchmark {
+
+    @Param({"opencsv", "mapped"})
+    public String reader;
+
+    @Param({"200"})
+    public int copies;
+
+    private Path columnMetaCsv;
+    private ColumnMetaSource source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        columnMetaCsv = ColumnMetaBenchmarkFixture.scaledColumnMeta(copies);
+        ColumnMetaMapper mapper = new ColumnMetaMapper();
+        source = switch (reader) {
+            case "opencsv" -> new OpenCsvColumnMetaSource(mapper, new Config().csvParser());
+            case "mapped" -> new MappedColumnMetaSource(mapper);
+            default -> throw new IllegalArgumentException("Unknown reader " + reader);
+        };
+    }
+
+    @Benchmark
+    public int readAll(Blackhole blackhole) {
+        LoadingContext context = new LoadingContext(Set.of(), columnMetaCsv.toString(), null);
+        int rows = 0;
+        try (CloseableIterator<ColumnMeta> iterator = source.read(context)) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ColumnMetaSourceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,134 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.ColumnMetaUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptMetadataModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptModel;
+import edu.harvard.dbmi.avillach.dictionaryetl.concept.ConceptTypes;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures the heap held by the concept tree against the String keyed registry the trie replaced, for a dbGaP
+ * shaped dictionary of about 100k nodes. Metadata is left out of both since it is the same objects either way. At
+ * 20 datasets and 50 tables per dataset (a million nodes) the trie holds 98MB against 456MB.
+ */
+class ConceptModelTreeFootprintTest {
+
+    private static final int DATASETS = 4;
+    private static final int TABLES_PER_DATASET = 25;
+    private static final int VARIABLES_PER_TABLE = 500;
+
+    @Test
+    void shouldHoldTreeInAThirdOfTheStringKeyedHeap() {
+        List<String> conceptPaths = conceptPaths();
+
+        ConceptMetadataModelMapper metadataMapper = new ConceptMetadataModelMapper(new ColumnMetaUtility()) {
+            @Override
+            public List<ConceptMetadataModel> fromColumnMeta(ColumnMeta columnMeta) {
+                return null;
+            }
+        };
+        ColumnMetaTreeBuilder builder = new ColumnMetaTreeBuilder(new ColumnMetaFlattener(), metadataMapper,
+                new LoadingMetrics(new SimpleMeterRegistry()));
+        LoadingContext context = new LoadingContext(Set.of(), null, null);
+        conceptPaths.forEach(conceptPath -> builder.process(List.of(columnMeta(conceptPath)), context));
+
+        StringKeyedTree stringKeyedTree = new StringKeyedTree();
+        conceptPaths.forEach(stringKeyedTree::add);
+
+        assertTrue(context.loadingErrorRegistry().getErrors().isEmpty());
+        assertEquals(DATASETS + DATASETS * TABLES_PER_DATASET + 2L * conceptPaths.size(), stringKeyedTree.registry.size() - 1);
+
+        long trieBytes = GraphLayout.parseInstance(context.conceptModelTree()).totalSize();
+        long stringKeyedBytes = GraphLayout.parseInstance(stringKeyedTree).totalSize();
+
+        assertTrue(stringKeyedBytes >= 3 * trieBytes,
+                "trie " + trieBytes + " bytes, string keyed registry " + stringKeyedBytes + " bytes");
+    }
+
+    private static List<String> conceptPaths() {
+        List<String> conceptPaths = new ArrayList<>(DATASETS * TABLES_PER_DATASET * VARIABLES_PER_TABLE);
+        int variable = 0;
+        for (int dataset = 0; dataset < DATASETS; dataset++) {
+            for (int table = 0; table < TABLES_PER_DATASET; table++) {
+                for (int i = 0; i < VARIABLES_PER_TABLE; i++, variable++) {
+                    conceptPaths.add("\\phs%06d\\pht%06d\\phv%08d\\VARIABLE_%d\\".formatted(dataset, table, variable, variable));
+                }
+            }
+        }
+        return conceptPaths;
+    }
+
+    private static ColumnMeta columnMeta(String conceptPath) {
+        return new ColumnMeta(conceptPath, null, null, false, List.of(), 0.0, 1.0, null, null, null, null, false);
+    }
+
+    /**
+     * The layout the tree had before it was a trie: every node holds its full path and an eagerly built
+     * {@link ConceptModel}, and both the registry and each node's children are keyed by full path.
+     */
+    private static class StringKeyedTree {
+
+        private final ConcurrentMap<String, StringKeyedNode> registry = new ConcurrentHashMap<>();
+        private final StringKeyedNode root = new StringKeyedNode("ROOT", null, null);
+
+        private StringKeyedTree() {
+            registry.put("ROOT", root);
+        }
+
+        private void add(String name) {
+            StringKeyedNode parent = root;
+            String[] node = name.split("\\\\");
+            StringBuilder currentPath = new StringBuilder();
+            for (String conceptSegment : node) {
+                if (StringUtils.isBlank(conceptSegment)) {
+                    continue;
+                }
+                if (currentPath.isEmpty()) {
+                    currentPath.append("\\");
+                }
+                currentPath.append(conceptSegment).append("\\");
+                String conceptPath = currentPath.toString();
+
+                StringKeyedNode currentNode = registry.get(conceptPath);
+                if (currentNode == null) {
+                    ConceptModel conceptModel = new ConceptModel(null, conceptSegment, conceptSegment,
+                            ConceptTypes.conceptTypeFromColumnMeta(null), conceptPath, null);
+                    currentNode = new StringKeyedNode(conceptPath, conceptModel, node[1]);
+                    registry.put(conceptPath, currentNode);
+                    parent.children.put(conceptPath, currentNode);
+                    currentNode.parent = parent;
+                }
+                parent = currentNode;
+            }
+        }
+    }
+
+    private static class StringKeyedNode {
+
+        private final String datasetRef;
+        private final String conceptPath;
+        private final ConceptModel conceptModel;
+        private final List<ConceptMetadataModel> conceptMetadataModels = new ArrayList<>();
+        private StringKeyedNode parent;
+        private final ConcurrentMap<String, StringKeyedNode> children = new ConcurrentHashMap<>();
+
+        private StringKeyedNode(String conceptPath, ConceptModel conceptModel, String datasetRef) {
+            this.conceptPath = conceptPath;
+            this.conceptModel = conceptModel;
+            this.datasetRef = datasetRef;
+        }
+    }
+}
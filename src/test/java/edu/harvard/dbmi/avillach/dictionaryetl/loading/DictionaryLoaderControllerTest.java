@@ -11,12 +11,16 @@ import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetConceptService;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.model.FacetModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetService;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.InitializeRequest;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadJob;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.DynamicPropertyRegistry;
@@ -30,6 +34,7 @@ import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -130,4 +135,40 @@ class DictionaryLoaderControllerTest {
             }
         });
     }
+
+    @Test
+    void submitJob_shouldLoadInBackgroundAndReportProgress() throws InterruptedException {
+        ResponseEntity<LoadJob> submitted = this.dictionaryLoaderController.submitJob(new InitializeRequest(
+                columnMetaFilePath,
+                resourcePath + "/columnMetaErrors.csv",
+                true,
+                true));
+        assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+        String jobId = submitted.getBody().getId();
+
+        LoadJob job = this.dictionaryLoaderController.getJob(jobId).getBody();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        while (!job.getStatus().isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(LoadJob.Status.SUCCEEDED, job.getStatus(), job.getResult());
+        assertEquals(LoadingProgress.Phase.DONE, job.getProgress().getPhase());
+        assertTrue(job.getProgress().getRowsParsed() > 0);
+        assertEquals(this.conceptService.findAll().size(), job.getProgress().getNodesPersisted());
+        assertEquals(job.getProgress().getBytesTotal(), job.getProgress().getBytesRead());
+        assertEquals(HttpStatus.NOT_FOUND, this.dictionaryLoaderController.getJob("missing").getStatusCode());
+    }
+
+    @Test
+    void initialDatabaseHydration_shouldFailWhenCsvIsMissing() {
+        ResponseEntity<String> response = this.dictionaryLoaderController.initialDatabaseHydration(new InitializeRequest(
+                resourcePath + "/missing.csv",
+                resourcePath + "/columnMetaErrors.csv",
+                false,
+                false));
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertTrue(response.getBody().startsWith("Failed: "), response.getBody());
+    }
 }
@@ -6,7 +6,11 @@ import edu.harvard.dbmi.avillach.dictionaryetl.Utility.DatabaseCleanupUtility;
 import edu.harvard.dbmi.avillach.dictionaryetl.concept.*;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetModel;
 import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetService;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.DeltaMode;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadOptions;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.PersistenceMode;
 import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -76,6 +80,9 @@ public class DictionaryLoaderServiceIntegrationTest {
     @Autowired
     private ColumnMetaFlattener columnMetaFlattener;
 
+    @Autowired
+    private ColumnMetaStreamingPipeline columnMetaStreamingPipeline;
+
     private LoadingContext context;
 
     @Container
@@ -555,6 +562,211 @@ public class DictionaryLoaderServiceIntegrationTest {
         assertEquals(acrylamide.get().getConceptType(), ConceptTypes.CATEGORICAL.getConceptType());
     }
 
+    @Test
+    void shouldPersistSameTreeWithCopyAsWithJpa() {
+        String errorFile = resourcePath + "/columnMetaErrors.csv";
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(), new LoadOptions(PersistenceMode.JPA, false, DeltaMode.OFF, false), new LoadingProgress());
+        Map<String, String> jpaSnapshot = snapshotConcepts();
+        assertFalse(jpaSnapshot.isEmpty());
+
+        this.databaseCleanupUtility.truncateTables();
+
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(), new LoadOptions(PersistenceMode.COPY, false, DeltaMode.OFF, false), new LoadingProgress());
+        Map<String, String> copySnapshot = snapshotConcepts();
+
+        assertEquals(jpaSnapshot, copySnapshot);
+    }
+
+    @Test
+    void shouldCopyValuesContainingQuotesAndCommas() {
+        ColumnMeta columnMeta = new ColumnMeta("\\phs001234\\demo\\\"quoted\", name\\", null, null, true,
+                List.of("a,b", "\"c\""), null, null, null, null, "2", "2", false);
+
+        LoadingContext copyContext = new LoadingContext(Set.of(), null, null, new LoadOptions(PersistenceMode.COPY, false, DeltaMode.OFF, false), new LoadingProgress());
+        this.columnMetaTreeBuilder.process(List.of(columnMeta), copyContext);
+        this.columnMetaTreePersister.persist(copyContext);
+
+        Optional<ConceptModel> concept = this.conceptService.findByConcept("\\phs001234\\demo\\\"quoted\", name\\");
+        assertTrue(concept.isPresent());
+        assertEquals("\"quoted\", name", concept.get().getName());
+        assertNotNull(concept.get().getParentId());
+
+        List<ConceptMetadataModel> metadata = this.conceptMetadataService.findByConceptID(concept.get().getConceptNodeId());
+        assertEquals(1, metadata.size());
+        assertEquals(List.of("a,b", "\"c\""), this.columnMetaUtility.parseValues(metadata.getFirst().getValue()));
+    }
+
+    @Test
+    void shouldPersistSameTreeWhenStreaming() {
+        String errorFile = resourcePath + "/columnMetaErrors.csv";
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(), new LoadOptions(PersistenceMode.JPA, false, DeltaMode.OFF, false), new LoadingProgress());
+        Map<String, String> treeSnapshot = snapshotConcepts();
+        assertFalse(treeSnapshot.isEmpty());
+
+        this.databaseCleanupUtility.truncateTables();
+
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(), new LoadOptions(PersistenceMode.JPA, true, DeltaMode.OFF, false), new LoadingProgress());
+        assertEquals(treeSnapshot, snapshotConcepts());
+
+        this.databaseCleanupUtility.truncateTables();
+
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(), new LoadOptions(PersistenceMode.COPY, true, DeltaMode.OFF, false), new LoadingProgress());
+        assertEquals(treeSnapshot, snapshotConcepts());
+    }
+
+    @Test
+    void shouldSkipDatasetThatReappearsWhenStreaming() throws IOException {
+        String line1 = "\\phs001234\\demo\\AGE\\,8,0,false,,0.0,100.0,0,10,1,1";
+        String line2 = "\\phs009999\\demo\\AGE\\,8,0,false,,0.0,100.0,10,20,1,1";
+        String line3 = "\\phs001234\\demo\\SEX\\,8,0,false,,0.0,1.0,20,30,1,1";
+        Path tmpCsv = Files.createTempFile("cmstream", ".csv");
+        Files.write(tmpCsv, List.of(line1, line2, line3), StandardCharsets.UTF_8);
+
+        LoadingContext streamingContext = new LoadingContext(Set.of(), tmpCsv.toString(), null, new LoadOptions(PersistenceMode.JPA, true, DeltaMode.OFF, false), new LoadingProgress());
+        this.columnMetaStreamingPipeline.run(streamingContext);
+
+        assertEquals(2, this.datasetService.findAll().size());
+        assertTrue(this.conceptService.findByConcept("\\phs001234\\demo\\AGE\\").isPresent());
+        assertTrue(this.conceptService.findByConcept("\\phs009999\\demo\\AGE\\").isPresent());
+        assertFalse(this.conceptService.findByConcept("\\phs001234\\demo\\SEX\\").isPresent());
+        assertEquals(1, streamingContext.loadingErrorRegistry().getErrors().size());
+        assertTrue(streamingContext.conceptModelTree().getRoot().getChildren().isEmpty());
+    }
+
+    @Test
+    void shouldFindNoChangesWhenDeltaMatchesDatabase() {
+        String errorFile = resourcePath + "/columnMetaErrors.csv";
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of());
+        Map<String, String> treeSnapshot = snapshotConcepts();
+
+        String result = this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(),
+                new LoadOptions(PersistenceMode.JPA, false, DeltaMode.DELETE_MISSING, false), new LoadingProgress());
+
+        assertEquals("Success. Delta load inserted: 0, updated: 0, deleted: 0, unchanged: " + treeSnapshot.size(), result);
+        assertEquals(treeSnapshot, snapshotConcepts());
+    }
+
+    @Test
+    void shouldOnlyWriteChangesInDeltaMode() throws IOException {
+        String age = "\\phs001234\\demo\\AGE\\,8,0,false,,0.0,100.0,0,10,1,1";
+        String sex = "\\phs001234\\demo\\SEX\\,8,0,true,femaleµmale,null,null,10,20,1,1";
+        String weight = "\\phs001234\\demo\\WEIGHT\\,8,0,false,,0.0,300.0,20,30,1,1";
+        Path initialCsv = Files.createTempFile("cmdelta", ".csv");
+        Files.write(initialCsv, List.of(age, sex, weight), StandardCharsets.UTF_8);
+        Path tmpErr = Files.createTempFile("cmerr", ".csv");
+        this.dictionaryLoaderService.processColumnMetaCSV(initialCsv.toString(), tmpErr.toString(), List.of());
+
+        ConceptModel sexConcept = this.conceptService.findByConcept("\\phs001234\\demo\\SEX\\").orElseThrow();
+        this.conceptMetadataService.save(new ConceptMetadataModel(sexConcept.getConceptNodeId(), "description", "Sex at birth"));
+
+        String changedAge = "\\phs001234\\demo\\AGE\\,8,0,false,,0.0,120.0,0,10,1,1";
+        String height = "\\phs001234\\demo\\HEIGHT\\,8,0,false,,0.0,250.0,30,40,1,1";
+        Path deltaCsv = Files.createTempFile("cmdelta", ".csv");
+        Files.write(deltaCsv, List.of(changedAge, height, sex), StandardCharsets.UTF_8);
+        String result = this.dictionaryLoaderService.processColumnMetaCSV(deltaCsv.toString(), tmpErr.toString(), List.of(),
+                new LoadOptions(PersistenceMode.JPA, false, DeltaMode.KEEP_MISSING, false), new LoadingProgress());
+
+        assertEquals("Success. Delta load inserted: 1, updated: 1, deleted: 0, unchanged: 3", result);
+        assertEquals(sexConcept.getConceptNodeId(),
+                this.conceptService.findByConcept("\\phs001234\\demo\\SEX\\").orElseThrow().getConceptNodeId());
+        assertTrue(this.conceptService.findByConcept("\\phs001234\\demo\\WEIGHT\\").isPresent());
+
+        Map<String, String> snapshot = snapshotConcepts();
+        assertEquals(6, snapshot.size());
+        assertTrue(snapshot.get("\\phs001234\\demo\\AGE\\").endsWith("[values=[\"0.0\",\"120.0\"]]"));
+        assertEquals("HEIGHT|HEIGHT|continuous|phs001234|\\phs001234\\demo\\|[values=[\"0.0\",\"250.0\"]]",
+                snapshot.get("\\phs001234\\demo\\HEIGHT\\"));
+        assertTrue(snapshot.get("\\phs001234\\demo\\SEX\\").contains("description=Sex at birth"));
+    }
+
+    @Test
+    void shouldDeleteMissingConceptsOfLoadedDatasetsInDeltaMode() throws IOException {
+        String age = "\\phs001234\\demo\\AGE\\,8,0,false,,0.0,100.0,0,10,1,1";
+        String weight = "\\phs001234\\demo\\WEIGHT\\,8,0,false,,0.0,300.0,20,30,1,1";
+        String otherStudy = "\\phs009999\\demo\\AGE\\,8,0,false,,0.0,100.0,10,20,1,1";
+        Path initialCsv = Files.createTempFile("cmdelta", ".csv");
+        Files.write(initialCsv, List.of(age, weight, otherStudy), StandardCharsets.UTF_8);
+        Path tmpErr = Files.createTempFile("cmerr", ".csv");
+        this.dictionaryLoaderService.processColumnMetaCSV(initialCsv.toString(), tmpErr.toString(), List.of());
+
+        Path deltaCsv = Files.createTempFile("cmdelta", ".csv");
+        Files.write(deltaCsv, List.of(age), StandardCharsets.UTF_8);
+        String result = this.dictionaryLoaderService.processColumnMetaCSV(deltaCsv.toString(), tmpErr.toString(), List.of(),
+                new LoadOptions(PersistenceMode.JPA, false, DeltaMode.DELETE_MISSING, false), new LoadingProgress());
+
+        assertEquals("Success. Delta load inserted: 0, updated: 0, deleted: 1, unchanged: 3", result);
+        assertFalse(this.conceptService.findByConcept("\\phs001234\\demo\\WEIGHT\\").isPresent());
+        assertTrue(this.conceptService.findByConcept("\\phs001234\\demo\\AGE\\").isPresent());
+        assertTrue(this.conceptService.findByConcept("\\phs009999\\demo\\AGE\\").isPresent());
+    }
+
+    @Test
+    void shouldPersistSameTreeWhenLoadingPerStudy() {
+        String errorFile = resourcePath + "/columnMetaErrors.csv";
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of());
+        Map<String, String> treeSnapshot = snapshotConcepts();
+        assertFalse(treeSnapshot.isEmpty());
+
+        this.databaseCleanupUtility.truncateTables();
+
+        String result = this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(),
+                new LoadOptions(PersistenceMode.JPA, false, DeltaMode.OFF, true), new LoadingProgress());
+        assertTrue(result.startsWith("Success. Studies committed: "), result);
+        assertEquals(treeSnapshot, snapshotConcepts());
+
+        this.databaseCleanupUtility.truncateTables();
+
+        this.dictionaryLoaderService.processColumnMetaCSV(nhanesFilePath, errorFile, List.of(),
+                new LoadOptions(PersistenceMode.COPY, false, DeltaMode.OFF, true), new LoadingProgress());
+        assertEquals(treeSnapshot, snapshotConcepts());
+    }
 
+    @Test
+    void shouldCommitOtherStudiesWhenOneStudyFails() throws IOException {
+        String existing = "\\phs001234\\demo\\AGE\\,8,0,false,,0.0,100.0,0,10,1,1";
+        Path existingCsv = Files.createTempFile("cmstudy", ".csv");
+        Files.write(existingCsv, List.of(existing), StandardCharsets.UTF_8);
+        Path tmpErr = Files.createTempFile("cmerr", ".csv");
+        this.dictionaryLoaderService.processColumnMetaCSV(existingCsv.toString(), tmpErr.toString(), List.of());
+
+        // phs001234 collides with the concepts already stored, so only its transaction is rolled back
+        String sex = "\\phs001234\\demo\\SEX\\,8,0,false,,0.0,1.0,10,20,1,1";
+        String otherStudy = "\\phs009999\\demo\\AGE\\,8,0,false,,0.0,100.0,20,30,1,1";
+        Path perStudyCsv = Files.createTempFile("cmstudy", ".csv");
+        Files.write(perStudyCsv, List.of(existing, sex, otherStudy), StandardCharsets.UTF_8);
+        String result = this.dictionaryLoaderService.processColumnMetaCSV(perStudyCsv.toString(), tmpErr.toString(), List.of(),
+                new LoadOptions(PersistenceMode.JPA, false, DeltaMode.OFF, true), new LoadingProgress());
+
+        assertTrue(result.startsWith("Partial success. Studies committed: 1, failed: {phs001234="), result);
+        assertFalse(this.conceptService.findByConcept("\\phs001234\\demo\\SEX\\").isPresent());
+        assertTrue(this.conceptService.findByConcept("\\phs001234\\demo\\AGE\\").isPresent());
+        assertTrue(this.conceptService.findByConcept("\\phs009999\\demo\\AGE\\").isPresent());
+        assertTrue(Files.readString(tmpErr).contains("Study phs001234 was rolled back"));
+    }
+
+    private Map<String, String> snapshotConcepts() {
+        Map<Long, String> datasetRefs = new HashMap<>();
+        this.datasetService.findAll().forEach(dataset -> datasetRefs.put(dataset.getDatasetId(), dataset.getRef()));
+
+        List<ConceptModel> concepts = this.conceptService.findAll();
+        Map<Long, String> pathsById = new HashMap<>();
+        concepts.forEach(concept -> pathsById.put(concept.getConceptNodeId(), concept.getConceptPath()));
+
+        Map<String, String> snapshot = new TreeMap<>();
+        for (ConceptModel concept : concepts) {
+            List<String> metadata = this.conceptMetadataService.findByConceptID(concept.getConceptNodeId()).stream()
+                    .map(meta -> meta.getKey() + "=" + meta.getValue())
+                    .sorted()
+                    .toList();
+            snapshot.put(concept.getConceptPath(), String.join("|",
+                    concept.getName(),
+                    concept.getDisplay(),
+                    concept.getConceptType(),
+                    datasetRefs.get(concept.getDatasetId()),
+                    String.valueOf(pathsById.get(concept.getParentId())),
+                    metadata.toString()));
+        }
+        return snapshot;
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.Utility.DatabaseCleanupUtility;
+import edu.harvard.dbmi.avillach.dictionaryetl.dataset.DatasetFacetRefreshService;
+import edu.harvard.dbmi.avillach.dictionaryetl.facet.FacetService;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.InitializeRequest;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadJob;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingProgress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LoadJobServiceTest {
+
+    private DictionaryLoaderService dictionaryLoaderService;
+    private FacetService facetService;
+    private DatasetFacetRefreshService datasetFacetRefreshService;
+    private LoadJobService loadJobService;
+
+    @BeforeEach
+    void setUp() {
+        dictionaryLoaderService = mock(DictionaryLoaderService.class);
+        facetService = mock(FacetService.class);
+        datasetFacetRefreshService = mock(DatasetFacetRefreshService.class);
+        loadJobService = new LoadJobService(dictionaryLoaderService, facetService, mock(DatabaseCleanupUtility.class),
+                datasetFacetRefreshService, new LoadingMetrics(new SimpleMeterRegistry()), 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        loadJobService.shutdown();
+    }
+
+    @Test
+    void submit_shouldRunLoadInBackgroundAndReportSuccess() throws InterruptedException {
+        whenLoading((LoadingProgress progress) -> {
+            progress.enterPhase(LoadingProgress.Phase.PARSE);
+            progress.rowParsed();
+            return "Success";
+        });
+
+        LoadJob job = loadJobService.submit(request());
+        awaitFinished(job);
+
+        assertEquals(LoadJob.Status.SUCCEEDED, job.getStatus());
+        assertEquals("Success", job.getResult());
+        assertEquals(LoadingProgress.Phase.DONE, job.getProgress().getPhase());
+        assertEquals(1, job.getProgress().getRowsParsed());
+        assertSame(job, loadJobService.find(job.getId()).orElseThrow());
+        verify(facetService).createOrUpdateDefaultFacets();
+        verify(datasetFacetRefreshService).refreshDatasetFacet(false);
+    }
+
+    @Test
+    void submit_shouldReportFailureAndSkipFacets() throws InterruptedException {
+        whenLoading((LoadingProgress progress) -> {
+            progress.failed("NoSuchFileException: columnMeta.csv");
+            return "Failed: NoSuchFileException: columnMeta.csv";
+        });
+
+        LoadJob job = loadJobService.submit(request());
+        awaitFinished(job);
+
+        assertEquals(LoadJob.Status.FAILED, job.getStatus());
+        assertEquals("Failed: NoSuchFileException: columnMeta.csv", job.getResult());
+        verifyNoInteractions(facetService, datasetFacetRefreshService);
+    }
+
+    @Test
+    void cancel_shouldStopRunningJob() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        whenLoading((LoadingProgress progress) -> {
+            progress.enterPhase(LoadingProgress.Phase.PARSE);
+            started.countDown();
+            while (!progress.isCancelRequested()) {
+                Thread.sleep(5);
+            }
+            progress.failed("Load cancelled during PARSE");
+            return "Cancelled";
+        });
+
+        LoadJob job = loadJobService.submit(request());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(loadJobService.cancel(job.getId()).isPresent());
+        awaitFinished(job);
+
+        assertEquals(LoadJob.Status.CANCELLED, job.getStatus());
+        verifyNoInteractions(facetService, datasetFacetRefreshService);
+    }
+
+    @Test
+    void cancel_shouldKeepQueuedJobFromStarting() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        whenLoading((LoadingProgress progress) -> {
+            release.await(10, TimeUnit.SECONDS);
+            return "Success";
+        });
+
+        LoadJob running = loadJobService.submit(request());
+        LoadJob queued = loadJobService.submit(request());
+        loadJobService.cancel(queued.getId());
+        release.countDown();
+        awaitFinished(running);
+        awaitFinished(queued);
+
+        assertEquals(LoadJob.Status.SUCCEEDED, running.getStatus());
+        assertEquals(LoadJob.Status.CANCELLED, queued.getStatus());
+        assertNull(queued.getStartedAt());
+        verify(dictionaryLoaderService, times(1)).processColumnMetaCSV(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void tryLoad_shouldSkipWhileJobIsRunning() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        whenLoading((LoadingProgress progress) -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return "Success";
+        });
+
+        LoadJob job = loadJobService.submit(request());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(loadJobService.tryLoad(request(), new LoadingProgress()).isEmpty());
+        release.countDown();
+        awaitFinished(job);
+
+        assertEquals("Success", loadJobService.tryLoad(request(), new LoadingProgress()).orElseThrow());
+    }
+
+    @Test
+    void find_shouldBeEmptyForUnknownJob() {
+        assertTrue(loadJobService.find("missing").isEmpty());
+        assertTrue(loadJobService.cancel("missing").isEmpty());
+    }
+
+    private interface Load {
+        String run(LoadingProgress progress) throws Exception;
+    }
+
+    private void whenLoading(Load load) {
+        Answer<String> answer = invocation -> load.run(invocation.getArgument(4));
+        when(dictionaryLoaderService.processColumnMetaCSV(any(), any(), any(), any(), any()))
+                .thenAnswer(answer);
+    }
+
+    private static InitializeRequest request() {
+        return new InitializeRequest("columnMeta.csv", "columnMetaErrors.csv", true, false);
+    }
+
+    private static void awaitFinished(LoadJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!job.getStatus().isFinished()) {
+            assertTrue(System.nanoTime() < deadline, "job did not finish: " + job.getStatus());
+            Thread.sleep(5);
+        }
+    }
+}
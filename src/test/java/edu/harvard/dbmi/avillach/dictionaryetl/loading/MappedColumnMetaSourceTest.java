@@ -0,0 +1,139 @@
+package edu.harvard.dbmi.avillach.dictionaryetl.loading;
+
+import edu.harvard.dbmi.avillach.dictionaryetl.configuration.Config;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.dto.LoadingContext;
+import edu.harvard.dbmi.avillach.dictionaryetl.loading.model.ColumnMeta;
+import org.hibernate.query.spi.CloseableIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ContextConfiguration(classes = {ColumnMetaMapper.class, Config.class, OpenCsvColumnMetaSource.class})
+class MappedColumnMetaSourceTest {
+
+    @Autowired
+    private ColumnMetaMapper columnMetaMapper;
+
+    @Autowired
+    private OpenCsvColumnMetaSource openCsvColumnMetaSource;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"columnMeta.csv", "columnMeta_synthea.csv", "columnMeta_1000_genomes.csv"})
+    void shouldReadSameRowsAsOpenCsv(String resource) throws IOException {
+        String csvPath = new ClassPathResource(resource).getFile().toPath().toString();
+
+        assertSameRows(csvPath, MappedColumnMetaReader.DEFAULT_WINDOW_SIZE);
+    }
+
+    @Test
+    void shouldReadRowsThatCrossWindowBoundaries() throws IOException {
+        String csvPath = new ClassPathResource("columnMeta.csv").getFile().toPath().toString();
+
+        // Smaller than most rows, so rows cross windows and the window has to grow
+        assertSameRows(csvPath, 37);
+    }
+
+    @Test
+    void shouldHandleQuotingCarriageReturnsAndMicroDelimiters() throws IOException {
+        Path csv = Files.createTempFile("mappedColumnMeta", ".csv");
+        Files.writeString(csv, String.join("\r\n",
+                "\\phs1\\demo\\\"quoted, path\"\\,8,0,true,\"aµ\"\"b\"\"µc,d\",null,null,0,10,1,1",
+                "\\phs1\\demo\\µsplitµ\\,8,0,false,,1.5,2.5,0,10,3,3,true",
+                "\\phs1\\demo\\SEX\\male\\,8,0,TRUE,male,null,null,0,10,4,4",
+                "\\phs1\\demo\\multi\nline\\,8,0,true,\"x\ny\",null,null,0,10,1,1",
+                ""), StandardCharsets.UTF_8);
+
+        List<ColumnMeta> rows = assertSameRows(csv.toString(), MappedColumnMetaReader.DEFAULT_WINDOW_SIZE);
+
+        assertEquals(4, rows.size());
+        assertEquals(List.of("a", "\"b\"", "c,d"), rows.get(0).categoryValues());
+        assertEquals("\\phs1\\demo\\\\split\\\\", rows.get(1).name());
+        assertTrue(rows.get(1).timestamp());
+        assertEquals(1.5, rows.get(1).min());
+        assertEquals("\\phs1\\demo\\SEX\\", rows.get(2).name());
+        assertNull(rows.get(0).widthInBytes());
+        assertNull(rows.get(0).allObservationsLength());
+    }
+
+    @Test
+    void shouldRecordErrorsForShortAndInvalidRows() throws IOException {
+        Path csv = Files.createTempFile("mappedColumnMetaErrors", ".csv");
+        Files.writeString(csv, String.join("\n",
+                "\\phs1\\demo\\AGE\\,8,0,false,,0.0,100.0,0,10,1,1",
+                "\\phs1\\demo\\SHORT\\,8,0,false",
+                "",
+                "\\phs1\\demo\\BAD\\,8,0,false,,abc,100.0,0,10,1,1",
+                "\\phs1\\demo\\WEIGHT\\,8,0,false,,0.0,300.0,0,10,1,1"), StandardCharsets.UTF_8);
+
+        LoadingContext context = new LoadingContext(Set.of(), csv.toString(), null);
+        List<ColumnMeta> rows = readAll(new MappedColumnMetaSource(columnMetaMapper), context);
+
+        assertEquals(List.of("\\phs1\\demo\\AGE\\", "\\phs1\\demo\\WEIGHT\\"), rows.stream().map(ColumnMeta::name).toList());
+        assertEquals(3, context.loadingErrorRegistry().getErrors().size());
+        assertTrue(context.loadingErrorRegistry().getErrors().contains("Unable to process columnMeta \\phs1\\demo\\SHORT\\,8,0,false"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 7, 64})
+    void shouldSplitIntoChunksThatReadSameRowsInOrder(int parts) throws IOException {
+        String csvPath = new ClassPathResource("columnMeta.csv").getFile().toPath().toString();
+        MappedColumnMetaSource source = new MappedColumnMetaSource(columnMetaMapper, 4096, 1);
+
+        List<ColumnMeta> expected = readAll(source, new LoadingContext(Set.of(), csvPath, null));
+        List<CloseableIterator<ColumnMeta>> chunks = source.split(new LoadingContext(Set.of(), csvPath, null), parts);
+        List<ColumnMeta> actual = new ArrayList<>();
+        for (CloseableIterator<ColumnMeta> chunk : chunks) {
+            try (chunk) {
+                chunk.forEachRemaining(actual::add);
+            }
+        }
+
+        // Split points that land inside the same long row collapse into one boundary
+        assertTrue(chunks.size() <= parts && chunks.size() > parts / 2);
+        assertEquals(expected, actual);
+    }
+
+    private List<ColumnMeta> assertSameRows(String csvPath, int windowSize) {
+        LoadingContext openCsvContext = new LoadingContext(Set.of(), csvPath, null);
+        LoadingContext mappedContext = new LoadingContext(Set.of(), csvPath, null);
+
+        List<ColumnMeta> expected = readAll(openCsvColumnMetaSource, openCsvContext).stream()
+                .map(MappedColumnMetaSourceTest::withoutUnusedColumns)
+                .toList();
+        List<ColumnMeta> actual = readAll(new MappedColumnMetaSource(columnMetaMapper, windowSize), mappedContext);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+        assertEquals(openCsvContext.loadingErrorRegistry().getErrors().size(), mappedContext.loadingErrorRegistry().getErrors().size());
+        return actual;
+    }
+
+    private static List<ColumnMeta> readAll(ColumnMetaSource source, LoadingContext context) {
+        List<ColumnMeta> rows = new ArrayList<>();
+        try (CloseableIterator<ColumnMeta> iterator = source.read(context)) {
+            iterator.forEachRemaining(rows::add);
+        }
+        return rows;
+    }
+
+    private static ColumnMeta withoutUnusedColumns(ColumnMeta columnMeta) {
+        return new ColumnMeta(columnMeta.name(), null, null, columnMeta.categorical(), columnMeta.categoryValues(),
+                columnMeta.min(), columnMeta.max(), null, null, columnMeta.observationCount(), columnMeta.patientCount(),
+                columnMeta.timestamp());
+    }
+}